@@ -142,6 +142,17 @@ public interface Authorizer {
      */
     Result authorize(Operation operation, ChannelId channel, ServerSession session, ServerMessage message);
 
+    /**
+     * <p>Returns whether the results of this authorizer may be cached by the server.</p>
+     * <p>A cacheable authorizer returns the same result for the same operation, channel and
+     * session, independently of the message, as long as the session attributes do not change.</p>
+     *
+     * @return whether the results of this authorizer may be cached
+     */
+    default boolean isCacheable() {
+        return false;
+    }
+
     /**
      * <p>The result of an authentication request.</p>
      */
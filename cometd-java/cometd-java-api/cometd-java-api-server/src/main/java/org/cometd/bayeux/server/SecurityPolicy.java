@@ -152,4 +152,16 @@ public interface SecurityPolicy {
     default boolean canPublish(BayeuxServer server, ServerSession session, ServerChannel channel, ServerMessage message) {
         return false;
     }
+
+    /**
+     * <p>Returns whether the results of {@code canSubscribe(...)} and {@code canPublish(...)}
+     * may be cached by the server.</p>
+     * <p>A cacheable security policy returns the same result for the same channel and
+     * session, independently of the message, as long as the session attributes do not change.</p>
+     *
+     * @return whether the results of this security policy may be cached
+     */
+    default boolean isCacheable() {
+        return false;
+    }
 }
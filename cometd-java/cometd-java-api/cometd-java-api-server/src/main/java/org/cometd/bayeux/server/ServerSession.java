@@ -313,6 +313,18 @@ public interface ServerSession extends Session {
          * @param message the message being queued
          */
         public void queued(ServerSession sender, ServerMessage message);
+
+        /**
+         * <p>Callback invoked when a message that is queued in the session queue,
+         * and not yet delivered, is replaced in place by another message,
+         * for example because the two messages have the same conflation key.</p>
+         *
+         * @param sender   the ServerSession that sends the message, may be null.
+         * @param replaced the queued message being replaced
+         * @param message  the message that replaces the queued message
+         */
+        public default void replaced(ServerSession sender, ServerMessage replaced, ServerMessage message) {
+        }
     }
 
     /**
@@ -513,5 +525,18 @@ public interface ServerSession extends Session {
         public default boolean sendMeta(ServerSession sender, ServerSession session, ServerMessage.Mutable message) {
             return true;
         }
+
+        /**
+         * <p>Tag interface that marks {@link Extension}s as "transparent" to outgoing non-meta messages.</p>
+         * <p>Transparent extensions never modify, replace or discard outgoing non-meta messages,
+         * and do not need to be notified when they are sent, so their
+         * {@link #outgoing(ServerSession, ServerSession, ServerMessage.Mutable, Promise) outgoing}
+         * method is only invoked for meta messages.</p>
+         * <p>When all the extensions of a session are transparent, a broadcast message is delivered
+         * to that session without walking the extension chain, so that the same frozen message
+         * is queued to all the subscribers.</p>
+         */
+        public interface Transparent extends Extension {
+        }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the allocation rate of a broadcast publish to a channel whose
+ * subscribers are also, in part, subscribed to the matching wild channels,
+ * {@code /a/*} and, optionally, {@code /a/**}, so that the de-duplication
+ * of the wild subscribers is exercised.</p>
+ * <p>The interesting metric is {@code gc.alloc.rate.norm}, reported by
+ * running the benchmark with the GC profiler ({@code -prof gc}).</p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class BroadcastAllocationBenchmark {
+    @Param({"1000", "50000"})
+    int subscribers;
+    @Param({"0", "50", "100"})
+    int overlapPercent;
+    @Param({"1", "2"})
+    int wildChannels;
+
+    private BayeuxServerImpl bayeux;
+    private ServerChannel channel;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+
+        channel = bayeux.createChannelIfAbsent("/a/b").getReference();
+        ServerChannel wildChannel = bayeux.createChannelIfAbsent("/a/*").getReference();
+        ServerChannel deepWildChannel = bayeux.createChannelIfAbsent("/a/**").getReference();
+        int overlap = subscribers * overlapPercent / 100;
+        for (int i = 0; i < subscribers; ++i) {
+            ServerSession session = newServerSession();
+            channel.subscribe(session);
+            if (i < overlap) {
+                wildChannel.subscribe(session);
+                if (wildChannels > 1) {
+                    deepWildChannel.subscribe(session);
+                }
+            }
+        }
+    }
+
+    private ServerSession newServerSession() {
+        LocalSession localSession = bayeux.newLocalSession("subscriber");
+        localSession.handshake();
+        ServerSession session = localSession.getServerSession();
+        // Discard the messages, as they are never consumed.
+        session.addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                return false;
+            }
+        });
+        return session;
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public void publish() {
+        channel.publish(null, "data", Promise.noop());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(BroadcastAllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the time to publish a tick of messages to many channels, with a
+ * loop of {@link ServerChannel#publish(org.cometd.bayeux.Session, Object, Promise)}
+ * and with {@link BayeuxServerImpl#publish(org.cometd.bayeux.Session, List, Promise)},
+ * and reports the number of flushes per tick.</p>
+ * <p>Each session drains its queue when flushed, in place of a transport.</p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class BulkPublishBenchmark {
+    @Param({"10", "100"})
+    int channels;
+    @Param({"1000"})
+    int messages;
+
+    private final AtomicLong flushes = new AtomicLong();
+    private BayeuxServer bayeux;
+    private final List<ServerChannel> serverChannels = new ArrayList<>();
+    private long ticks;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServer();
+        bayeux.start();
+        for (int i = 0; i < channels; ++i) {
+            ServerChannel channel = bayeux.createChannelIfAbsent("/tick/" + i).getReference();
+            serverChannels.add(channel);
+            // Each channel has 10 subscribers, and each session is subscribed to 10 channels.
+            for (int j = 0; j < 10; ++j) {
+                channel.subscribe(bayeux.newRemoteSession(flushes));
+            }
+        }
+        ServerChannel wildChannel = bayeux.createChannelIfAbsent("/tick/*").getReference();
+        for (int j = 0; j < 10; ++j) {
+            wildChannel.subscribe(bayeux.newRemoteSession(flushes));
+        }
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        System.err.printf("%nflushes/tick: %.2f%n", (double)flushes.get() / Math.max(1, ticks));
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public void loop() {
+        for (int i = 0; i < messages; ++i) {
+            serverChannels.get(i % channels).publish(null, "data", Promise.noop());
+        }
+        ++ticks;
+    }
+
+    @Benchmark
+    public void bulk() {
+        List<ServerMessage.Mutable> tick = new ArrayList<>(messages);
+        for (int i = 0; i < messages; ++i) {
+            ServerMessage.Mutable message = bayeux.newMessage();
+            message.setChannel(serverChannels.get(i % channels).getId());
+            message.setData("data");
+            tick.add(message);
+        }
+        bayeux.publish(null, tick, Promise.noop());
+        ++ticks;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(BulkPublishBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+
+    private static class BayeuxServer extends BayeuxServerImpl {
+        private ServerSessionImpl newRemoteSession(AtomicLong flushes) {
+            RemoteSession session = new RemoteSession(this);
+            addServerSession(session, newMessage());
+            session.connect();
+            session.setScheduler(new AbstractServerTransport.Scheduler() {
+                @Override
+                public void schedule() {
+                    if (!session.takeQueue(Collections.emptyList()).isEmpty()) {
+                        flushes.incrementAndGet();
+                    }
+                }
+            });
+            return session;
+        }
+    }
+
+    private static class RemoteSession extends ServerSessionImpl {
+        private RemoteSession(BayeuxServerImpl bayeux) {
+            super(bayeux);
+        }
+
+        private void connect() {
+            handshake(null);
+            connected();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.common.ChannelIdCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Compares the cost of parsing a channel name and resolving its wild names
+ * with the cost of looking up the {@link ChannelId} in a {@link ChannelIdCache}.</p>
+ * <p>The number of distinct channel names is varied with respect to the cache
+ * capacity, to measure the cost of cache misses as well.</p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class ChannelIdBenchmark {
+    private static final int CAPACITY = 4096;
+
+    @Param({"1024", "4096", "65536"})
+    int channels;
+
+    private String[] names;
+    private ChannelIdCache cache;
+
+    @Setup
+    public void prepare() {
+        names = new String[channels];
+        for (int i = 0; i < channels; ++i) {
+            names[i] = "/chat/room" + (i % 64) + "/user" + i;
+        }
+        cache = new ChannelIdCache(CAPACITY);
+    }
+
+    private String randomName() {
+        return names[ThreadLocalRandom.current().nextInt(names.length)];
+    }
+
+    @Benchmark
+    public Object parse() {
+        ChannelId channelId = new ChannelId(randomName());
+        return channelId.getWilds();
+    }
+
+    @Benchmark
+    public Object cached() {
+        ChannelId channelId = cache.get(randomName());
+        return channelId.getWilds();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ChannelIdBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerMessageImpl;
+import org.cometd.server.ServerSessionImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the time to write a burst of messages delivered to a session,
+ * with and without {@link AbstractServerTransport#COALESCE_WINDOW_OPTION
+ * flush coalescing}, and reports the average number of messages per frame.</p>
+ * <p>A pause between bursts simulates a low message rate.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class FlushCoalescingBenchmark {
+    @Param({"-1", "100"})
+    long coalesceWindow;
+    @Param({"1", "32"})
+    int burst;
+    @Param({"0", "2000"})
+    long pauseMicros;
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private BayeuxServer bayeux;
+    private ServerSessionImpl session;
+    private long delivered;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServer();
+        bayeux.setOption(AbstractServerTransport.COALESCE_WINDOW_OPTION, coalesceWindow);
+        bayeux.start();
+        session = bayeux.newRemoteSession();
+        session.setScheduler(new AbstractServerTransport.Scheduler() {
+            @Override
+            public void schedule() {
+                int size = session.takeQueue(Collections.emptyList()).size();
+                if (size > 0) {
+                    frames.incrementAndGet();
+                    written.addAndGet(size);
+                }
+            }
+        });
+    }
+
+    @Setup(Level.Invocation)
+    public void pause() {
+        if (pauseMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(pauseMicros));
+        }
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        System.err.printf("%nmessages/frame: %.2f%n", (double)written.get() / Math.max(1, frames.get()));
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public long deliver() {
+        for (int i = 0; i < burst; ++i) {
+            session.deliver(null, "/burst", "data", Promise.noop());
+        }
+        delivered += burst;
+        // Wait until the burst has been written.
+        while (written.get() < delivered) {
+            Thread.yield();
+        }
+        return delivered;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(FlushCoalescingBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+
+    private static class BayeuxServer extends BayeuxServerImpl {
+        private ServerSessionImpl newRemoteSession() {
+            RemoteSession session = new RemoteSession(this);
+            ServerMessageImpl handshake = (ServerMessageImpl)newMessage();
+            // The transport options are read from the handshake transport.
+            handshake.setServerTransport(getTransport(getAllowedTransports().get(0)));
+            addServerSession(session, handshake);
+            session.handshake(handshake);
+            return session;
+        }
+    }
+
+    private static class RemoteSession extends ServerSessionImpl {
+        private RemoteSession(BayeuxServerImpl bayeux) {
+            super(bayeux);
+        }
+
+        @Override
+        protected boolean handshake(ServerMessage.Mutable message) {
+            return super.handshake(message);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerMessageImpl;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Reports the retained heap of a queue of frozen broadcast messages,
+ * depending on whether the transports that consume the messages write
+ * strings (WebSocket), bytes (HTTP), or both.</p>
+ * <p>The {@code retainedBytesPerMessage} secondary result is the one to look at.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class MessageFootprintBenchmark {
+    private static final int QUEUE_SIZE = 100_000;
+
+    @Param({"websocket", "http", "mixed"})
+    String consumers;
+
+    private BayeuxServerImpl bayeux;
+    private Queue<ServerMessage> queue;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public Queue<ServerMessage> enqueue(Footprint footprint) {
+        long before = usedHeap();
+        queue = new ArrayDeque<>(QUEUE_SIZE);
+        for (int i = 0; i < QUEUE_SIZE; ++i) {
+            ServerMessageImpl message = (ServerMessageImpl)bayeux.newMessage();
+            message.setChannel("/chat/room");
+            Map<String, Object> data = new HashMap<>();
+            data.put("user", "user" + i);
+            data.put("text", "Hello, this is chat message number " + i);
+            message.setData(data);
+            bayeux.freeze(message);
+            // Simulate the transports writing the message.
+            if (!"http".equals(consumers)) {
+                message.getJSON();
+            }
+            if (!"websocket".equals(consumers)) {
+                message.getJSONBytes();
+            }
+            queue.offer(message);
+        }
+        footprint.retainedBytesPerMessage += (usedHeap() - before) / (double)QUEUE_SIZE;
+        return queue;
+    }
+
+    @TearDown(Level.Invocation)
+    public void clearQueue() {
+        queue = null;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public double retainedBytesPerMessage;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytesPerMessage = 0;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MessageFootprintBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the delivery of a message to an explicit list of sessions, with a loop of
+ * {@link ServerSession#deliver(org.cometd.bayeux.Session, ServerMessage.Mutable, Promise)}
+ * and with {@link BayeuxServerImpl#multicast(org.cometd.bayeux.Session, java.util.Collection, ServerMessage.Mutable, Promise)},
+ * in presence of a server extension.</p>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class MulticastBenchmark {
+    @Param({"1000", "10000"})
+    int sessions;
+
+    private final List<ServerSession> audience = new ArrayList<>();
+    private BayeuxServerImpl bayeux;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+        bayeux.addExtension(new BayeuxServer.Extension() {
+            @Override
+            public boolean send(ServerSession from, ServerSession to, ServerMessage.Mutable message) {
+                return true;
+            }
+        });
+        for (int i = 0; i < sessions; ++i) {
+            audience.add(newServerSession());
+        }
+    }
+
+    private ServerSession newServerSession() {
+        LocalSession localSession = bayeux.newLocalSession("audience");
+        localSession.handshake();
+        ServerSession session = localSession.getServerSession();
+        // Discard the messages, as they are never consumed.
+        session.addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                return false;
+            }
+        });
+        return session;
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public void loop() {
+        for (ServerSession session : audience) {
+            session.deliver(null, "/audience", "data", Promise.noop());
+        }
+    }
+
+    @Benchmark
+    public void multicast() {
+        bayeux.multicast(null, audience, newMessage(), Promise.noop());
+    }
+
+    private ServerMessage.Mutable newMessage() {
+        ServerMessage.Mutable message = bayeux.newMessage();
+        message.setChannel("/audience");
+        message.setData("data");
+        return message;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MulticastBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.cometd.server.TimingWheelScheduler;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the throughput of scheduling and then cancelling a task,
+ * as it happens for every {@code /meta/connect} held by the server,
+ * for {@link ScheduledExecutorScheduler} and {@link TimingWheelScheduler},
+ * against the number of tasks pending in the scheduler.</p>
+ */
+@State(Scope.Benchmark)
+@Threads(4)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class SchedulerBenchmark {
+    private static final Runnable TASK = () -> {
+    };
+
+    @Param({"executor", "wheel"})
+    String type;
+    @Param({"0", "100000"})
+    int pending;
+
+    private Scheduler scheduler;
+
+    @Setup
+    public void prepare() throws Exception {
+        scheduler = "wheel".equals(type) ? new TimingWheelScheduler() : new ScheduledExecutorScheduler();
+        scheduler.start();
+        // Tasks pending in the scheduler, as for idle sessions
+        // whose /meta/connect is held by the server.
+        for (int i = 0; i < pending; ++i) {
+            scheduler.schedule(TASK, 1, TimeUnit.HOURS);
+        }
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        scheduler.stop();
+    }
+
+    @Benchmark
+    public boolean scheduleCancel() {
+        Scheduler.Task task = scheduler.schedule(TASK, 30, TimeUnit.SECONDS);
+        return task.cancel();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SchedulerBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the CPU cost of a broadcast to many subscribers that have session
+ * extensions, when the extensions are {@link ServerSession.Extension.Transparent
+ * transparent} or not.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class SessionExtensionFanOutBenchmark {
+    @Param({"1000"})
+    int subscribers;
+    @Param({"2"})
+    int extensions;
+    @Param({"false", "true"})
+    boolean transparent;
+
+    private BayeuxServerImpl bayeux;
+    private ServerChannel channel;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServerImpl();
+        bayeux.start();
+        channel = bayeux.createChannelIfAbsent("/fan/out").getReference();
+        for (int i = 0; i < subscribers; ++i) {
+            LocalSession localSession = bayeux.newLocalSession("subscriber");
+            localSession.handshake();
+            ServerSession session = localSession.getServerSession();
+            for (int j = 0; j < extensions; ++j) {
+                session.addExtension(transparent ? new TransparentExtension() : new OpaqueExtension());
+            }
+            // Discard the messages, as they are never consumed.
+            session.addListener(new ServerSession.MessageListener() {
+                @Override
+                public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                    return false;
+                }
+            });
+            channel.subscribe(session);
+        }
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public void publish() {
+        channel.publish(null, "data", Promise.noop());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SessionExtensionFanOutBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+
+    private static class OpaqueExtension implements ServerSession.Extension {
+        @Override
+        public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+            return message;
+        }
+    }
+
+    private static class TransparentExtension implements ServerSession.Extension.Transparent {
+        @Override
+        public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+            return message;
+        }
+    }
+}
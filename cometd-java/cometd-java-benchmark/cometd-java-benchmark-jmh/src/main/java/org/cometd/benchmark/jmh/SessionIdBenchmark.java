@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.SecureSessionIdGenerator;
+import org.cometd.server.SessionIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the handshake throughput under concurrency, with a
+ * {@link SessionIdGenerator} that uses a single shared {@link SecureRandom}
+ * and with the default {@link SecureSessionIdGenerator}.</p>
+ */
+@State(Scope.Benchmark)
+@Threads(8)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class SessionIdBenchmark {
+    @Param({"shared", "perThread"})
+    String generator;
+
+    private BayeuxServerImpl bayeux;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServerImpl();
+        if ("shared".equals(generator)) {
+            bayeux.setSessionIdGenerator(new SharedSessionIdGenerator());
+        }
+        bayeux.start();
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public String newSessionId() {
+        return bayeux.getSessionIdGenerator().newSessionId(null);
+    }
+
+    @Benchmark
+    public String handshake() {
+        LocalSession session = bayeux.newLocalSession("benchmark");
+        session.handshake();
+        String id = session.getId();
+        session.disconnect();
+        return id;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SessionIdBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+
+    /**
+     * <p>The session id generation strategy used before
+     * {@link SecureSessionIdGenerator} was introduced.</p>
+     */
+    private static class SharedSessionIdGenerator implements SessionIdGenerator {
+        private final SecureRandom random = new SecureRandom();
+
+        @Override
+        public String newSessionId(String idHint) {
+            StringBuilder id = new StringBuilder(30);
+            int len = 20;
+            if (idHint != null) {
+                len += idHint.length() + 1;
+                id.append(idHint);
+                id.append('_');
+            }
+            while (id.length() < len) {
+                long value = random.nextLong();
+                id.append(Long.toString(value < 0 ? -value : value, 36));
+            }
+            return id.toString();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the throughput of many publishers delivering to the same session
+ * while a single consumer drains the session queue, with and without the
+ * {@link BayeuxServerImpl#MPSC_SESSION_QUEUE_OPTION lock-free session queue}.</p>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class SessionQueueBenchmark {
+    @Param({"false", "true"})
+    boolean mpscSessionQueue;
+
+    private BayeuxServer bayeux;
+    private ServerSessionImpl session;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServer();
+        bayeux.setOption(BayeuxServerImpl.MPSC_SESSION_QUEUE_OPTION, mpscSessionQueue);
+        bayeux.start();
+        session = bayeux.newServerSession();
+        bayeux.addServerSession(session);
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(3)
+    public void enqueue() {
+        session.deliver(null, "/queue", "data", Promise.noop());
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public List<ServerMessage> drain() {
+        return session.takeQueue(Collections.emptyList());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SessionQueueBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+
+    private static class BayeuxServer extends BayeuxServerImpl {
+        private void addServerSession(ServerSessionImpl session) {
+            addServerSession(session, newMessage());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the cost of a sweep against the number of sessions, none of
+ * which is expired, with and without the
+ * {@link BayeuxServerImpl#SESSION_EXPIRATION_WHEEL_OPTION session expiration wheel}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class SessionSweepBenchmark {
+    @Param({"10000", "100000"})
+    int sessions;
+    @Param({"false", "true"})
+    boolean expirationWheel;
+
+    private BayeuxServer bayeux;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServer();
+        bayeux.setOption(BayeuxServerImpl.SESSION_EXPIRATION_WHEEL_OPTION, expirationWheel);
+        // Avoid that the periodic sweep interferes with the measurements.
+        bayeux.setOption(BayeuxServerImpl.SWEEP_PERIOD_OPTION, TimeUnit.HOURS.toMillis(1));
+        bayeux.start();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < sessions; ++i) {
+            ServerSessionImpl session = bayeux.newServerSession();
+            bayeux.addServerSession(session);
+            // Spread the expirations in the future.
+            long maxInterval = TimeUnit.SECONDS.toMillis(10 + random.nextInt(600));
+            session.scheduleExpiration(0, maxInterval, 0);
+        }
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public void sweep() {
+        bayeux.sweep();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SessionSweepBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+
+    private static class BayeuxServer extends BayeuxServerImpl {
+        private void addServerSession(ServerSessionImpl session) {
+            addServerSession(session, newMessage());
+        }
+    }
+}
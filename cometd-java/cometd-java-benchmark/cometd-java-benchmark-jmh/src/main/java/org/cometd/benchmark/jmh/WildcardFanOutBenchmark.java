@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.BayeuxServerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Measures the publish throughput against the channel depth and the
+ * density of wild channels along the channel path, with and without
+ * the {@link BayeuxServerImpl#WILDCARD_INDEX_OPTION wildcard index}.</p>
+ */
+@State(Scope.Benchmark)
+@Threads(4)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class WildcardFanOutBenchmark {
+    private static final int FAN_OUT = 4;
+
+    @Param({"2", "4", "8"})
+    int depth;
+    @Param({"0", "25", "100"})
+    int wildPercent;
+    @Param({"false", "true"})
+    boolean wildcardIndex;
+
+    private BayeuxServerImpl bayeux;
+    private ServerChannel[] channels;
+
+    @Setup
+    public void prepare() throws Exception {
+        bayeux = new BayeuxServerImpl();
+        bayeux.setOption(BayeuxServerImpl.WILDCARD_INDEX_OPTION, wildcardIndex);
+        bayeux.start();
+
+        List<ServerChannel> leaves = new ArrayList<>();
+        createChannels("", 0, leaves);
+        channels = leaves.toArray(new ServerChannel[0]);
+    }
+
+    private void createChannels(String prefix, int level, List<ServerChannel> leaves) {
+        if (level == depth) {
+            ServerChannel channel = bayeux.createChannelIfAbsent(prefix).getReference();
+            channel.subscribe(newServerSession());
+            leaves.add(channel);
+            return;
+        }
+
+        // Not all the wild channels along the path of a leaf
+        // channel exist, depending on the wild density.
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextInt(100) < wildPercent) {
+            bayeux.createChannelIfAbsent(prefix + "/*").getReference().subscribe(newServerSession());
+        }
+        if (random.nextInt(100) < wildPercent) {
+            bayeux.createChannelIfAbsent(prefix + "/**").getReference().subscribe(newServerSession());
+        }
+
+        // Limit the number of leaf channels for deep channels.
+        int fanOut = level < 5 ? FAN_OUT : 1;
+        for (int i = 0; i < fanOut; ++i) {
+            createChannels(prefix + "/s" + level + "_" + i, level + 1, leaves);
+        }
+    }
+
+    private ServerSession newServerSession() {
+        LocalSession localSession = bayeux.newLocalSession("subscriber");
+        localSession.handshake();
+        ServerSession session = localSession.getServerSession();
+        // Discard the messages, as they are never consumed.
+        session.addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                return false;
+            }
+        });
+        return session;
+    }
+
+    @TearDown
+    public void dispose() throws Exception {
+        bayeux.stop();
+    }
+
+    @Benchmark
+    public void publish() {
+        ServerChannel channel = channels[ThreadLocalRandom.current().nextInt(channels.length)];
+        channel.publish(null, "data", Promise.noop());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(WildcardFanOutBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -52,6 +52,7 @@ import org.cometd.client.transport.TransportListener;
 import org.cometd.client.transport.TransportRegistry;
 import org.cometd.common.AbstractClientSession;
 import org.cometd.common.AsyncFoldLeft;
+import org.cometd.common.ChannelIdCache;
 import org.cometd.common.TransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -476,7 +477,7 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux {
     protected ChannelId newChannelId(String channelId) {
         // Save some parsing by checking if there is already one
         AbstractSessionChannel channel = getChannels().get(channelId);
-        return channel == null ? new ChannelId(channelId) : channel.getChannelId();
+        return channel == null ? ChannelIdCache.getDefault().get(channelId) : channel.getChannelId();
     }
 
     @Override
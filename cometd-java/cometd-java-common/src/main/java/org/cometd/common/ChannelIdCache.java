@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.cometd.bayeux.ChannelId;
+
+/**
+ * <p>A bounded, concurrent, cache of {@link ChannelId} instances.</p>
+ * <p>Parsing a channel name into a {@link ChannelId}, and then resolving its
+ * segments and wild names, is not free, and it is performed many times for
+ * the same channel names, for example for every message that is processed.</p>
+ * <p>This cache returns the same {@link ChannelId} instance for the same channel
+ * name, so that the parsing and resolution is performed only once, until the
+ * channel name is evicted from the cache.</p>
+ * <p>The cache is split into segments, each with a least recently used
+ * eviction policy, to reduce contention.</p>
+ * <p>A JVM-wide instance, shared by clients and servers, is available via
+ * {@link #getDefault()}; its capacity can be configured via the system
+ * property {@code org.cometd.common.ChannelIdCache.capacity}.</p>
+ */
+public class ChannelIdCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final int MAX_SEGMENTS = 16;
+    private static final ChannelIdCache DEFAULT = new ChannelIdCache(Integer.getInteger(ChannelIdCache.class.getName() + ".capacity", DEFAULT_CAPACITY));
+
+    /**
+     * @return the JVM-wide {@link ChannelIdCache} instance
+     */
+    public static ChannelIdCache getDefault() {
+        return DEFAULT;
+    }
+
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+    private final int _capacity;
+    private final Segment[] _segments;
+
+    /**
+     * @param capacity the max number of {@link ChannelId}s to cache, or zero to disable caching
+     */
+    public ChannelIdCache(int capacity) {
+        _capacity = Math.max(0, capacity);
+        int segments = _capacity == 0 ? 1 : Integer.highestOneBit(Math.min(MAX_SEGMENTS, _capacity));
+        int segmentCapacity = (_capacity + segments - 1) / segments;
+        _segments = new Segment[segments];
+        for (int i = 0; i < segments; ++i) {
+            _segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * <p>Returns the cached {@link ChannelId} for the given channel name,
+     * creating and caching it if it is not present in the cache.</p>
+     *
+     * @param channelName the channel name
+     * @return the {@link ChannelId} for the given channel name
+     * @throws IllegalArgumentException if the channel name is not valid
+     */
+    public ChannelId get(String channelName) {
+        if (_capacity == 0 || channelName == null) {
+            _misses.increment();
+            return new ChannelId(channelName);
+        }
+
+        Segment segment = segmentFor(channelName);
+        ChannelId result;
+        synchronized (segment) {
+            result = segment.get(channelName);
+        }
+        if (result != null) {
+            _hits.increment();
+            return result;
+        }
+
+        _misses.increment();
+        // Create the ChannelId outside of the lock.
+        result = new ChannelId(channelName);
+        synchronized (segment) {
+            ChannelId existing = segment.putIfAbsent(channelName, result);
+            return existing == null ? result : existing;
+        }
+    }
+
+    private Segment segmentFor(String channelName) {
+        int hash = channelName.hashCode();
+        hash ^= hash >>> 16;
+        return _segments[hash & (_segments.length - 1)];
+    }
+
+    /**
+     * @return the max number of {@link ChannelId}s cached
+     */
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * @return the number of {@link ChannelId}s currently cached
+     */
+    public int getSize() {
+        int result = 0;
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                result += segment.size();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of lookups that found the {@link ChannelId} in the cache
+     */
+    public long getHits() {
+        return _hits.longValue();
+    }
+
+    /**
+     * @return the number of lookups that did not find the {@link ChannelId} in the cache
+     */
+    public long getMisses() {
+        return _misses.longValue();
+    }
+
+    /**
+     * @return the number of {@link ChannelId}s evicted from the cache
+     */
+    public long getEvictions() {
+        return _evictions.longValue();
+    }
+
+    /**
+     * <p>Removes all the cached {@link ChannelId}s and resets the statistics.</p>
+     */
+    public void clear() {
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        _hits.reset();
+        _misses.reset();
+        _evictions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[size=%d/%d,hits=%d,misses=%d]", getClass().getSimpleName(), hashCode(), getSize(), getCapacity(), getHits(), getMisses());
+    }
+
+    private class Segment extends LinkedHashMap<String, ChannelId> {
+        private final int _maxSize;
+
+        private Segment(int maxSize) {
+            super(16, 0.75F, true);
+            _maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ChannelId> eldest) {
+            boolean result = size() > _maxSize;
+            if (result) {
+                _evictions.increment();
+            }
+            return result;
+        }
+    }
+}
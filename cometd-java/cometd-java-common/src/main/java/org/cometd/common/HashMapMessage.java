@@ -44,7 +44,7 @@ public class HashMapMessage extends HashMap<String, Object> implements Message.M
 
     @Override
     public ChannelId getChannelId() {
-        return new ChannelId(getChannel());
+        return ChannelIdCache.getDefault().get(getChannel());
     }
 
     @Override
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.common;
+
+import org.cometd.bayeux.ChannelId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ChannelIdCacheTest {
+    @Test
+    public void testSameInstanceForSameChannel() {
+        ChannelIdCache cache = new ChannelIdCache(16);
+
+        ChannelId channelId1 = cache.get("/foo/bar");
+        ChannelId channelId2 = cache.get("/foo/bar");
+
+        Assertions.assertSame(channelId1, channelId2);
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+        Assertions.assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testInvalidChannelIsNotCached() {
+        ChannelIdCache cache = new ChannelIdCache(16);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> cache.get("foo"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> cache.get(null));
+
+        Assertions.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        // A single segment, so that the eviction order is predictable.
+        ChannelIdCache cache = new ChannelIdCache(1);
+
+        ChannelId foo = cache.get("/foo");
+        cache.get("/bar");
+
+        Assertions.assertEquals(1, cache.getSize());
+        Assertions.assertEquals(1, cache.getEvictions());
+        Assertions.assertNotSame(foo, cache.get("/foo"));
+    }
+
+    @Test
+    public void testBoundedSize() {
+        int capacity = 64;
+        ChannelIdCache cache = new ChannelIdCache(capacity);
+
+        for (int i = 0; i < 10 * capacity; ++i) {
+            cache.get("/channel/" + i);
+        }
+
+        Assertions.assertTrue(cache.getSize() <= capacity);
+        Assertions.assertEquals(10 * capacity - cache.getSize(), cache.getEvictions());
+    }
+
+    @Test
+    public void testZeroCapacityDisablesCaching() {
+        ChannelIdCache cache = new ChannelIdCache(0);
+
+        Assertions.assertNotSame(cache.get("/foo"), cache.get("/foo"));
+        Assertions.assertEquals(0, cache.getSize());
+        Assertions.assertEquals(2, cache.getMisses());
+    }
+}
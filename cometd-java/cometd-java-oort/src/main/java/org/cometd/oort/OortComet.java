@@ -24,8 +24,11 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import org.cometd.bayeux.client.ClientSession;
 import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.LocalSession;
 import org.cometd.client.BayeuxClient;
 import org.cometd.client.transport.ClientTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.Instrumentation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,9 +63,14 @@ public class OortComet extends BayeuxClient {
                 if (logger.isDebugEnabled()) {
                     logger.debug("Republishing message {} from {}", message, _cometURL);
                 }
+                Instrumentation.Probe probe = ((BayeuxServerImpl)_oort.getBayeuxServer()).getInstrumentation().begin(Instrumentation.Operation.OORT_FORWARD);
                 // BayeuxServer may sweep channels, so calling bayeux.getChannel(...)
                 // may return null, and therefore we use the client to send the message.
-                _oort.getOortSession().getChannel(message.getChannel()).publish(message);
+                LocalSession session = _oort.getOortSession();
+                session.getChannel(message.getChannel()).publish(message);
+                if (probe != null) {
+                    probe.end(session.getId(), message.getChannel(), 1);
+                }
             };
 
             ClientSessionChannel.MessageListener existing = _subscriptions.putIfAbsent(channel, listener);
@@ -42,6 +42,7 @@ import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.server.AbstractService;
 import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.Instrumentation;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
@@ -508,7 +509,9 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      * @param data      the content of the message
      */
     public void sendMessage(Collection<String> toUserIds, String toChannel, Object data) {
+        Instrumentation instrumentation = ((BayeuxServerImpl)getOort().getBayeuxServer()).getInstrumentation();
         for (String toUserId : toUserIds) {
+            Instrumentation.Probe probe = instrumentation.begin(Instrumentation.Operation.SETI_ROUTE);
             Set<Location> copy = new HashSet<>();
             synchronized (_uid2Location) {
                 Set<Location> locations = _uid2Location.get(toUserId);
@@ -525,6 +528,9 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
             for (Location location : copy) {
                 location.send(toUserId, toChannel, data);
             }
+            if (probe != null) {
+                probe.end(toUserId, toChannel, copy.size());
+            }
         }
     }
 
@@ -41,6 +41,9 @@ public abstract class AbstractServerTransport extends AbstractTransport implemen
     public static final String MAX_LAZY_TIMEOUT_OPTION = "maxLazyTimeout";
     public static final String META_CONNECT_DELIVERY_OPTION = "metaConnectDeliverOnly";
     public static final String MAX_QUEUE_OPTION = "maxQueue";
+    public static final String MAX_QUEUE_BYTES_OPTION = "maxQueueBytes";
+    public static final String COALESCE_WINDOW_OPTION = "coalesceWindow";
+    public static final String COALESCE_RATE_OPTION = "coalesceRate";
     public static final String JSON_CONTEXT_OPTION = "jsonContext";
     public static final String HANDSHAKE_RECONNECT_OPTION = "handshakeReconnect";
     public static final String ALLOW_MESSAGE_DELIVERY_DURING_HANDSHAKE = "allowMessageDeliveryDuringHandshake";
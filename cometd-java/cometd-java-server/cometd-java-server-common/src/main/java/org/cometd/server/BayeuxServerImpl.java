@@ -17,15 +17,23 @@ package org.cometd.server;
 
 import java.io.IOException;
 import java.lang.reflect.Constructor;
-import java.security.SecureRandom;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
@@ -35,6 +43,10 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 import org.cometd.bayeux.Bayeux;
@@ -42,6 +54,7 @@ import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.MarkedReference;
 import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Session;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.Authorizer;
 import org.cometd.bayeux.server.BayeuxContext;
@@ -57,6 +70,7 @@ import org.cometd.bayeux.server.ServerMessage.Mutable;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.bayeux.server.ServerTransport;
 import org.cometd.common.AsyncFoldLeft;
+import org.cometd.common.ChannelIdCache;
 import org.cometd.server.http.AbstractHttpTransport;
 import org.cometd.server.http.AsyncJSONTransport;
 import org.cometd.server.http.JSONPTransport;
@@ -83,23 +97,66 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     public static final String BROADCAST_TO_PUBLISHER_OPTION = "broadcastToPublisher";
     public static final String SCHEDULER_THREADS = "schedulerThreads";
     public static final String EXECUTOR_MAX_THREADS = "executorMaxThreads";
+    public static final String WILDCARD_INDEX_OPTION = "wildcardIndex";
+    public static final String BROADCAST_PARALLEL_THRESHOLD_OPTION = "broadcastParallelThreshold";
+    public static final String BROADCAST_PARALLELISM_OPTION = "broadcastParallelism";
+    public static final String SESSION_EXPIRATION_WHEEL_OPTION = "sessionExpirationWheel";
+    public static final String MPSC_SESSION_QUEUE_OPTION = "mpscSessionQueue";
+    public static final String QUEUE_OVERFLOW_POLICY_OPTION = "queueOverflowPolicy";
+    public static final String RETAINED_MAX_BYTES_OPTION = "retainedMaxBytes";
+    public static final String SESSION_SPILL_THRESHOLD_OPTION = "sessionSpillThreshold";
+    public static final String SESSION_SPILL_MAX_BYTES_OPTION = "sessionSpillMaxBytes";
+    public static final String SESSION_SPILL_SEGMENT_SIZE_OPTION = "sessionSpillSegmentSize";
+    public static final String AUTHORIZATION_CACHE_TTL_OPTION = "authorizationCacheTTL";
+    public static final String CHANNEL_METRICS_OPTION = "channelMetrics";
+    public static final String SESSION_METRICS_OPTION = "sessionMetrics";
+    public static final String SESSION_METRICS_PERIOD_OPTION = "sessionMetricsPeriod";
+    public static final String LATENCY_HISTOGRAMS_OPTION = "latencyHistograms";
+    public static final String INSTRUMENTATION_OPTION = "instrumentation";
+
+    private static final int MAX_POOLED_DELIVERED = 4;
+    private static final Object NO_CONFLATION_KEY = new Object();
+    private static final ThreadLocal<Deque<Set<ServerSession>>> _deliveredPool = ThreadLocal.withInitial(ArrayDeque::new);
 
     private final String _name = getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this));
     private final Logger _logger = LoggerFactory.getLogger(getClass().getPackage().getName() + "." + _name);
-    private final SecureRandom _random = new SecureRandom();
     private final List<BayeuxServerListener> _listeners = new CopyOnWriteArrayList<>();
     private final List<Extension> _extensions = new CopyOnWriteArrayList<>();
     private final ConcurrentMap<String, ServerSessionImpl> _sessions = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, ServerChannelImpl> _channels = new ConcurrentHashMap<>();
+    private final WildChannelTrie _wildChannels = new WildChannelTrie();
     private final Map<String, ServerTransport> _transports = new LinkedHashMap<>(); // Order is important
     private final List<String> _allowedTransports = new ArrayList<>();
     private final Map<String, Object> _options = new TreeMap<>();
+    private final LongAdder _queueOverflowDrops = new LongAdder();
+    private final LongAdder _listenerRejections = new LongAdder();
+    private final LongAdder _queueOverflowDisconnects = new LongAdder();
+    private final AtomicLong _retainedBytes = new AtomicLong();
     private MarkedReference<Scheduler> _scheduler;
     private MarkedReference<Executor> _executor;
     private SecurityPolicy _policy = new DefaultSecurityPolicy();
     private JSONContextServer _jsonContext;
     private boolean _validation;
     private boolean _broadcastToPublisher;
+    private boolean _wildcardIndex;
+    private boolean _mpscSessionQueue;
+    private QueueOverflowPolicy _queueOverflowPolicy = QueueOverflowPolicy.NONE;
+    private volatile boolean _conflating;
+    private long _retainedMaxBytes;
+    private long _authorizationCacheTTL;
+    private final AtomicLong _authorizationEpoch = new AtomicLong();
+    private final LongAdder _authorizationCacheHits = new LongAdder();
+    private final LongAdder _authorizationCacheMisses = new LongAdder();
+    private int _channelMetricsSampleRate;
+    private boolean _sessionMetrics;
+    private LatencyMetrics _latencyMetrics;
+    private Instrumentation _instrumentation = Instrumentation.NONE;
+    private int _sessionSpillThreshold;
+    private SpillBuffer.Pool _spillPool;
+    private long _broadcastParallelThreshold;
+    private BroadcastLanes _broadcastLanes;
+    private SessionExpirationWheel _sessionExpirationWheel;
+    private SessionIdGenerator _sessionIdGenerator = new SecureSessionIdGenerator();
     private boolean _detailedDump;
 
     public String getName() {
@@ -124,6 +181,41 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
 
         _validation = getOption(VALIDATE_MESSAGE_FIELDS_OPTION, true);
         _broadcastToPublisher = getOption(BROADCAST_TO_PUBLISHER_OPTION, true);
+        _mpscSessionQueue = getOption(MPSC_SESSION_QUEUE_OPTION, false);
+        _queueOverflowPolicy = QueueOverflowPolicy.from(getOption(QUEUE_OVERFLOW_POLICY_OPTION));
+        _retainedMaxBytes = getOption(RETAINED_MAX_BYTES_OPTION, -1L);
+        _authorizationCacheTTL = getOption(AUTHORIZATION_CACHE_TTL_OPTION, -1L);
+        _channelMetricsSampleRate = (int)getOption(CHANNEL_METRICS_OPTION, -1L);
+        _sessionMetrics = getOption(SESSION_METRICS_OPTION, false);
+        Object instrumentation = getOption(INSTRUMENTATION_OPTION);
+        if (instrumentation != null && _instrumentation == Instrumentation.NONE) {
+            _instrumentation = newInstrumentation(instrumentation.toString().trim());
+        }
+        Object latencyPatterns = getOption(LATENCY_HISTOGRAMS_OPTION);
+        if (latencyPatterns != null) {
+            List<String> patterns = new ArrayList<>();
+            for (String pattern : latencyPatterns.toString().split(",")) {
+                pattern = pattern.trim();
+                if (!pattern.isEmpty()) {
+                    patterns.add(pattern);
+                }
+            }
+            if (!patterns.isEmpty()) {
+                _latencyMetrics = new LatencyMetrics(patterns);
+            }
+        }
+        _sessionSpillThreshold = (int)getOption(SESSION_SPILL_THRESHOLD_OPTION, -1L);
+        if (_sessionSpillThreshold > 0) {
+            int segmentSize = (int)getOption(SESSION_SPILL_SEGMENT_SIZE_OPTION, 4096L);
+            long maxBytes = getOption(SESSION_SPILL_MAX_BYTES_OPTION, 64L * 1024 * 1024);
+            _spillPool = new SpillBuffer.Pool(segmentSize, maxBytes);
+        }
+        _wildcardIndex = getOption(WILDCARD_INDEX_OPTION, false);
+        _broadcastParallelThreshold = getOption(BROADCAST_PARALLEL_THRESHOLD_OPTION, 0L);
+        if (_broadcastParallelThreshold > 0) {
+            int parallelism = (int)getOption(BROADCAST_PARALLELISM_OPTION, Runtime.getRuntime().availableProcessors());
+            _broadcastLanes = new BroadcastLanes(getExecutor(), Math.max(1, parallelism));
+        }
 
         super.doStart();
 
@@ -133,12 +225,28 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             sweepPeriodOption = defaultSweepPeriod;
         }
         long sweepPeriod = sweepPeriodOption;
+        if (getOption(SESSION_EXPIRATION_WHEEL_OPTION, false)) {
+            _sessionExpirationWheel = new SessionExpirationWheel(sweepPeriod, 1024);
+        }
         schedule(new Runnable() {
             @Override
             public void run() {
                 asyncSweep().whenComplete((r, x) -> schedule(this, sweepPeriod));
             }
         }, sweepPeriod);
+
+        long sessionMetricsPeriod = getOption(SESSION_METRICS_PERIOD_OPTION, 60000L);
+        if (_sessionMetrics && sessionMetricsPeriod > 0) {
+            schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (isRunning()) {
+                        logSessionMetrics();
+                        schedule(this, sessionMetricsPeriod);
+                    }
+                }
+            }, sessionMetricsPeriod);
+        }
     }
 
     @Override
@@ -156,6 +264,14 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         _extensions.clear();
         _sessions.clear();
         _channels.clear();
+        _wildChannels.clear();
+        _retainedBytes.set(0);
+        _spillPool = null;
+        _broadcastLanes = null;
+        if (_sessionExpirationWheel != null) {
+            _sessionExpirationWheel.clear();
+            _sessionExpirationWheel = null;
+        }
         _transports.clear();
         _allowedTransports.clear();
         _options.clear();
@@ -293,6 +409,32 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }
     }
 
+    private Instrumentation newInstrumentation(String className) {
+        try {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            @SuppressWarnings("unchecked")
+            Class<? extends Instrumentation> klass = (Class<? extends Instrumentation>)loader.loadClass(className);
+            return klass.getConstructor().newInstance();
+        } catch (Exception x) {
+            throw new IllegalArgumentException("Invalid option '" + INSTRUMENTATION_OPTION + "': " + className, x);
+        }
+    }
+
+    public Instrumentation getInstrumentation() {
+        return _instrumentation;
+    }
+
+    /**
+     * @param instrumentation the instrumentation of the hot paths of this server
+     * @see #INSTRUMENTATION_OPTION
+     */
+    public void setInstrumentation(Instrumentation instrumentation) {
+        if (isRunning()) {
+            throw new IllegalStateException("Cannot set instrumentation on a running BayeuxServer instance");
+        }
+        _instrumentation = Objects.requireNonNull(instrumentation);
+    }
+
     public void setExecutor(Executor executor) {
         if (isRunning()) {
             throw new IllegalStateException("Cannot set executor on a running BayeuxServer instance");
@@ -360,7 +502,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         if (channel != null) {
             return channel.getChannelId();
         }
-        return new ChannelId(id);
+        return ChannelIdCache.getDefault().get(id);
     }
 
     public Map<String, Object> getOptions() {
@@ -410,8 +552,21 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     public long randomLong() {
-        long value = _random.nextLong();
-        return value < 0 ? -value : value;
+        return SecureSessionIdGenerator.randomLong();
+    }
+
+    /**
+     * @return the strategy to generate session ids
+     */
+    public SessionIdGenerator getSessionIdGenerator() {
+        return _sessionIdGenerator;
+    }
+
+    /**
+     * @param sessionIdGenerator the strategy to generate session ids
+     */
+    public void setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+        _sessionIdGenerator = Objects.requireNonNull(sessionIdGenerator);
     }
 
     @Override
@@ -430,7 +585,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         ServerChannelImpl channel = _channels.get(channelName);
         if (channel == null) {
             // Creating the ChannelId will also normalize the channelName.
-            channelId = new ChannelId(channelName);
+            channelId = ChannelIdCache.getDefault().get(channelName);
             String id = channelId.getId();
             if (!id.equals(channelName)) {
                 channelName = id;
@@ -447,6 +602,9 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
                 // My candidate channel was added to the map, so I'd better initialize it
 
                 channel = candidate;
+                if (channel.isWild()) {
+                    _wildChannels.add(channel);
+                }
                 if (_logger.isDebugEnabled()) {
                     _logger.debug("Added channel {}", channel);
                 }
@@ -478,7 +636,15 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             // Double check if the sweeper removed this channel between the check at the top and here.
             // This is not 100% fool proof (e.g. this thread is preempted long enough for the sweeper
             // to remove the channel, but the alternative is to have a global lock)
-            _channels.putIfAbsent(channelName, channel);
+            if (_channels.putIfAbsent(channelName, channel) == null) {
+                if (channel.isWild()) {
+                    _wildChannels.add(channel);
+                }
+                // The authorizers of the channel apply again.
+                if (!channel.authorizers().isEmpty()) {
+                    invalidateAuthorizations();
+                }
+            }
         }
         // Another thread may add this channel concurrently, so wait until it is initialized
         channel.waitForInitialized();
@@ -602,6 +768,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     @Override
     public void setSecurityPolicy(SecurityPolicy securityPolicy) {
         _policy = securityPolicy;
+        invalidateAuthorizations();
     }
 
     @Override
@@ -654,6 +821,12 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     public void handle(ServerSessionImpl session, ServerMessage.Mutable message, Promise<ServerMessage.Mutable> promise) {
+        if (_latencyMetrics != null && message instanceof ServerMessageImpl) {
+            String channelName = message.getChannel();
+            if (channelName != null && !ChannelId.isMeta(channelName)) {
+                ((ServerMessageImpl)message).setTrace(new LatencyMetrics.Trace(System.nanoTime()));
+            }
+        }
         ServerMessageImpl reply = (ServerMessageImpl)createReply(message);
         if (_validation) {
             String error = validateMessage(message);
@@ -689,6 +862,11 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void handle1(ServerSessionImpl session, ServerMessage.Mutable message, Promise<ServerMessage.Mutable> promise) {
+        LatencyMetrics.Trace trace = trace(message);
+        if (trace != null) {
+            trace.handled = System.nanoTime();
+        }
+
         if (_logger.isDebugEnabled()) {
             _logger.debug(">  {} {}", message, session);
         }
@@ -729,6 +907,15 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         if (channel.isMeta()) {
             publish(session, channel, message, true, Promise.from(published -> promise.succeed(reply), promise::fail));
         } else {
+            LatencyMetrics.Trace trace = trace(message);
+            if (trace != null) {
+                trace.pattern = _latencyMetrics.match(channel.getChannelId());
+                if (trace.pattern == null) {
+                    ((ServerMessageImpl)message).setTrace(null);
+                } else {
+                    _latencyMetrics.record(trace.pattern, LatencyMetrics.Stage.EXTENSIONS, trace.handled - trace.received);
+                }
+            }
             isPublishAuthorized(channel, session, message, Promise.from(result -> {
                 if (result instanceof Authorizer.Result.Denied) {
                     String denyReason = ((Authorizer.Result.Denied)result).getReason();
@@ -758,6 +945,10 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void isPublishAuthorized(ServerChannel channel, ServerSession session, ServerMessage message, Promise<Authorizer.Result> promise) {
+        isCachedAuthorized(Authorizer.Operation.PUBLISH, channel, session, promise, p -> isPublishAuthorized1(channel, session, message, p));
+    }
+
+    private void isPublishAuthorized1(ServerChannel channel, ServerSession session, ServerMessage message, Promise<Authorizer.Result> promise) {
         if (_policy != null) {
             _policy.canPublish(this, session, channel, message, Promise.from(can -> {
                 if (can == null || can) {
@@ -773,6 +964,10 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void isSubscribeAuthorized(ServerChannel channel, ServerSession session, ServerMessage message, Promise<Authorizer.Result> promise) {
+        isCachedAuthorized(Authorizer.Operation.SUBSCRIBE, channel, session, promise, p -> isSubscribeAuthorized1(channel, session, message, p));
+    }
+
+    private void isSubscribeAuthorized1(ServerChannel channel, ServerSession session, ServerMessage message, Promise<Authorizer.Result> promise) {
         if (_policy != null) {
             _policy.canSubscribe(this, session, channel, message, Promise.from(can -> {
                 if (can == null || can) {
@@ -787,18 +982,108 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }
     }
 
+    /**
+     * <p>Returns the authorization result cached in the session, if the
+     * {@link #AUTHORIZATION_CACHE_TTL_OPTION authorization cache} is enabled,
+     * and the security policy and the authorizers of the channel are
+     * {@link Authorizer#isCacheable() cacheable}; otherwise runs the given
+     * authorization, caching its result.</p>
+     */
+    private void isCachedAuthorized(Authorizer.Operation operation, ServerChannel channel, ServerSession session, Promise<Authorizer.Result> promise, Consumer<Promise<Authorizer.Result>> authorization) {
+        long ttl = _authorizationCacheTTL;
+        if (ttl <= 0 || !(session instanceof ServerSessionImpl) || !(channel instanceof ServerChannelImpl)) {
+            authorization.accept(promise);
+            return;
+        }
+        ServerChannelImpl serverChannel = (ServerChannelImpl)channel;
+        // Read the epoch and the version before authorizing, so that
+        // concurrent changes make the cached result stale.
+        long epoch = _authorizationEpoch.get();
+        if (!isAuthorizationCacheable(serverChannel, epoch)) {
+            authorization.accept(promise);
+            return;
+        }
+        ServerSessionImpl serverSession = (ServerSessionImpl)session;
+        Object key = serverChannel.getAuthorizationKey(operation);
+        long version = serverSession.getAttributesVersion();
+        long now = System.nanoTime();
+        Authorizer.Result cached = serverSession.getCachedAuthorization(key, epoch, now);
+        if (cached != null) {
+            _authorizationCacheHits.increment();
+            promise.succeed(cached);
+            return;
+        }
+        _authorizationCacheMisses.increment();
+        authorization.accept(Promise.from(result -> {
+            serverSession.cacheAuthorization(key, result, epoch, version, now + TimeUnit.MILLISECONDS.toNanos(ttl));
+            promise.succeed(result);
+        }, promise::fail));
+    }
+
+    /**
+     * <p>Returns whether the authorizations of the given channel are cacheable,
+     * walking the channel and its wild channels only once per authorization epoch.</p>
+     *
+     * @param channel the channel
+     * @param epoch   the current authorization epoch
+     * @return whether the authorizations of the given channel are cacheable
+     */
+    private boolean isAuthorizationCacheable(ServerChannelImpl channel, long epoch) {
+        int cacheable = channel.getAuthorizationCacheable(epoch);
+        if (cacheable >= 0) {
+            return cacheable > 0;
+        }
+        boolean result = isAuthorizationCacheable(channel.getChannelId());
+        channel.setAuthorizationCacheable(epoch, result);
+        return result;
+    }
+
+    private boolean isAuthorizationCacheable(ChannelId channelId) {
+        SecurityPolicy policy = _policy;
+        if (policy != null && !policy.isCacheable()) {
+            return false;
+        }
+        List<String> wildNames = channelId.getWilds();
+        for (int i = 0, size = wildNames.size(); i < size; ++i) {
+            if (!isAuthorizationCacheable(_channels.get(wildNames.get(i)))) {
+                return false;
+            }
+        }
+        return isAuthorizationCacheable(_channels.get(channelId.getId()));
+    }
+
+    private static boolean isAuthorizationCacheable(ServerChannelImpl channel) {
+        if (channel != null) {
+            List<Authorizer> authorizers = channel.authorizers();
+            for (int i = 0, size = authorizers.size(); i < size; ++i) {
+                if (!authorizers.get(i).isCacheable()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>Invalidates the authorization results cached by all sessions,
+     * typically because authorizers have been added or removed.</p>
+     */
+    void invalidateAuthorizations() {
+        _authorizationEpoch.incrementAndGet();
+    }
+
     private void isCreationAuthorized(ServerSession session, ServerMessage message, String channel, Promise<Authorizer.Result> promise) {
         if (_policy != null) {
             _policy.canCreate(BayeuxServerImpl.this, session, channel, message, Promise.from(can -> {
                 if (can == null || can) {
-                    isOperationAuthorized(Authorizer.Operation.CREATE, session, message, new ChannelId(channel), promise);
+                    isOperationAuthorized(Authorizer.Operation.CREATE, session, message, ChannelIdCache.getDefault().get(channel), promise);
                 } else {
                     _logger.info("{} denied creation of channel {} by {}", session, channel, _policy);
                     promise.succeed(Authorizer.Result.deny("denied_by_security_policy"));
                 }
             }, promise::fail));
         } else {
-            isOperationAuthorized(Authorizer.Operation.CREATE, session, message, new ChannelId(channel), promise);
+            isOperationAuthorized(Authorizer.Operation.CREATE, session, message, ChannelIdCache.getDefault().get(channel), promise);
         }
     }
 
@@ -871,6 +1156,139 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }
     }
 
+    /**
+     * <p>Publishes the given messages, in order, each to the channel specified by the message,
+     * creating the channels if they do not exist.</p>
+     * <p>Each message is processed as if it was published via
+     * {@link ServerChannel#publish(Session, ServerMessage.Mutable, Promise)},
+     * so that listeners and extensions are still notified for every message, but the
+     * sessions subscribed to the channels are in a {@link ServerSession#batch(Runnable) batch}
+     * for the whole call, and therefore each session is flushed at most once.</p>
+     *
+     * @param from     the session publishing the messages, or null
+     * @param messages the messages to publish
+     * @param promise  the promise completed with whether all the messages have been published
+     */
+    public void publish(Session from, List<ServerMessage.Mutable> messages, Promise<Boolean> promise) {
+        ServerSessionImpl session = null;
+        if (from instanceof ServerSessionImpl) {
+            session = (ServerSessionImpl)from;
+        } else if (from instanceof LocalSession) {
+            session = (ServerSessionImpl)((LocalSession)from).getServerSession();
+        }
+
+        Map<String, ServerChannelImpl> channels = new HashMap<>();
+        Set<ServerSessionImpl> recipients = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (ServerMessage.Mutable message : messages) {
+            String channelName = message.getChannel();
+            if (channelName == null) {
+                throw new IllegalArgumentException("Missing channel for message " + message);
+            }
+            if (!channels.containsKey(channelName)) {
+                ServerChannelImpl channel = (ServerChannelImpl)createChannelIfAbsent(channelName).getReference();
+                if (channel.isWild()) {
+                    throw new IllegalStateException("Wild publish");
+                }
+                channels.put(channelName, channel);
+                if (channel.isBroadcast()) {
+                    addRecipients(channel.subscribers(), recipients);
+                    for (ServerChannelImpl wildChannel : wildChannels(channel)) {
+                        addRecipients(wildChannel.subscribers(), recipients);
+                    }
+                }
+            }
+        }
+
+        recipients.forEach(ServerSessionImpl::startBatch);
+        ServerSessionImpl publisher = session;
+        AsyncFoldLeft.run(messages, true, (result, message, loop) ->
+                        publish(publisher, channels.get(message.getChannel()), message, false, Promise.from(published -> loop.proceed(result && published), loop::fail)),
+                Promise.complete((result, failure) -> {
+                    // Flush each session once, with all the messages of this call.
+                    recipients.forEach(ServerSessionImpl::endBatch);
+                    if (failure == null) {
+                        promise.succeed(result);
+                    } else {
+                        promise.fail(failure);
+                    }
+                }));
+    }
+
+    /**
+     * <p>Delivers the given message to the given sessions.</p>
+     * <p>Differently from calling {@link ServerSession#deliver(Session, ServerMessage.Mutable, Promise)}
+     * for each session, the server extensions are invoked once, as for a broadcast message
+     * (that is, with a {@code null} recipient session), and the message is converted to JSON once.
+     * Session extensions are still invoked for each session.</p>
+     * <p>When {@link #BROADCAST_PARALLEL_THRESHOLD_OPTION parallel broadcast} is enabled,
+     * and the number of sessions reaches the threshold, the message is delivered in parallel.</p>
+     *
+     * @param from     the session sending the message, or null
+     * @param sessions the sessions to deliver the message to
+     * @param message  the message to deliver
+     * @param promise  the promise completed when the message has been delivered to all the sessions,
+     *                 with whether the message passed the server extensions
+     */
+    public void multicast(Session from, Collection<? extends ServerSession> sessions, ServerMessage.Mutable message, Promise<Boolean> promise) {
+        ServerSessionImpl session = null;
+        if (from instanceof ServerSessionImpl) {
+            session = (ServerSessionImpl)from;
+        } else if (from instanceof LocalSession) {
+            session = (ServerSessionImpl)((LocalSession)from).getServerSession();
+        }
+
+        ServerSessionImpl sender = session;
+        extendOutgoing(sender, null, message, Promise.from(result -> {
+            if (result) {
+                freeze(message);
+                multicast1(sender, sessions, message, promise);
+            } else {
+                promise.succeed(false);
+            }
+        }, promise::fail));
+    }
+
+    private void multicast1(ServerSessionImpl sender, Collection<? extends ServerSession> sessions, Mutable message, Promise<Boolean> promise) {
+        BroadcastLanes broadcastLanes = _broadcastLanes;
+        if (broadcastLanes != null && sessions.size() >= _broadcastParallelThreshold) {
+            List<List<ServerSessionImpl>> partitions = broadcastLanes.newPartitions();
+            for (ServerSession session : sessions) {
+                partitions.get(broadcastLanes.laneOf(session)).add((ServerSessionImpl)session);
+            }
+            broadcastLanes.deliver(sender, message, partitions, promise);
+        } else {
+            BroadcastLanes.Deferral deferral = broadcastLanes == null ? null : broadcastLanes.new Deferral();
+            AsyncFoldLeft.run(sessions, true, (result, session, loop) ->
+                    deliver(sender, (ServerSessionImpl)session, message, deferral, loop), deferred(deferral, sender, message, promise));
+        }
+    }
+
+    /**
+     * <p>Delivers the given message to the given subscriber in the caller thread,
+     * unless the subscriber's {@link BroadcastLanes lane} is busy, in which case
+     * the delivery is deferred to the lane, to preserve ordering.</p>
+     */
+    private static void deliver(ServerSessionImpl sender, ServerSessionImpl subscriber, Mutable message, BroadcastLanes.Deferral deferral, AsyncFoldLeft.Loop<Boolean> loop) {
+        if (deferral != null && deferral.defer(subscriber)) {
+            loop.proceed(true);
+        } else {
+            subscriber.deliver1(sender, message, Promise.from(b -> loop.proceed(true), loop::fail));
+        }
+    }
+
+    private static Promise<Boolean> deferred(BroadcastLanes.Deferral deferral, ServerSessionImpl sender, Mutable message, Promise<Boolean> promise) {
+        if (deferral == null) {
+            return promise;
+        }
+        return Promise.from(b -> deferral.deliver(sender, message, promise), promise::fail);
+    }
+
+    private static void addRecipients(Set<ServerSession> subscribers, Set<ServerSessionImpl> recipients) {
+        for (ServerSession subscriber : subscribers) {
+            recipients.add((ServerSessionImpl)subscriber);
+        }
+    }
+
     protected void publish(ServerSessionImpl session, ServerChannelImpl channel, ServerMessage.Mutable message, boolean receiving, Promise<Boolean> promise) {
         if (_logger.isDebugEnabled()) {
             _logger.debug("<  {} {}", message, session);
@@ -884,17 +1302,77 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             message.setId(null);
         }
 
-        notifyListeners(session, channel, message, Promise.from(proceed -> {
+        if (!channel.isMeta()) {
+            Instrumentation.Probe probe = _instrumentation.begin(Instrumentation.Operation.PUBLISH);
+            if (probe != null) {
+                promise = probed(promise, probe, session == null ? null : session.getId(), channel.getId());
+            }
+        }
+        Promise<Boolean> published = promise;
+
+        Promise<Boolean> proceeded = Promise.from(proceed -> {
             if (proceed) {
-                publish1(session, channel, message, receiving, promise);
+                publish1(session, channel, message, receiving, published);
             } else {
                 ServerMessageImpl reply = (ServerMessageImpl)message.getAssociated();
                 if (reply != null && !reply.isHandled()) {
                     error(reply, "404::message_deleted");
                 }
-                promise.succeed(false);
+                published.succeed(false);
             }
-        }, promise::fail));
+        }, published::fail);
+
+        ChannelMetrics metrics = channel.getMetrics();
+        if (metrics != null) {
+            int weight = metrics.sample();
+            if (weight > 0) {
+                metrics.published(weight);
+                proceeded = timed(proceeded, nanos -> metrics.listenersNotified(nanos, weight));
+            }
+        }
+        LatencyMetrics.Trace trace = trace(message);
+        if (trace != null && trace.pattern != null) {
+            proceeded = timed(proceeded, nanos -> _latencyMetrics.record(trace.pattern, LatencyMetrics.Stage.LISTENERS, nanos));
+        }
+
+        notifyListeners(session, channel, message, proceeded);
+    }
+
+    private static Promise<Boolean> timed(Promise<Boolean> promise, LongConsumer recorder) {
+        long begin = System.nanoTime();
+        return new Promise<Boolean>() {
+            @Override
+            public void succeed(Boolean result) {
+                recorder.accept(System.nanoTime() - begin);
+                promise.succeed(result);
+            }
+
+            @Override
+            public void fail(Throwable failure) {
+                recorder.accept(System.nanoTime() - begin);
+                promise.fail(failure);
+            }
+        };
+    }
+
+    private static Promise<Boolean> probed(Promise<Boolean> promise, Instrumentation.Probe probe, String sessionId, String channel) {
+        return new Promise<Boolean>() {
+            @Override
+            public void succeed(Boolean result) {
+                probe.end(sessionId, channel, result != null && result ? 1 : 0);
+                promise.succeed(result);
+            }
+
+            @Override
+            public void fail(Throwable failure) {
+                probe.end(sessionId, channel, 0);
+                promise.fail(failure);
+            }
+        };
+    }
+
+    private static LatencyMetrics.Trace trace(ServerMessage message) {
+        return message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getTrace() : null;
     }
 
     private void publish1(ServerSessionImpl session, ServerChannelImpl channel, ServerMessage.Mutable message, boolean receiving, Promise<Boolean> promise) {
@@ -911,7 +1389,18 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
                     // For example, it is impossible to prevent things like
                     // ((CustomObject)serverMessage.getData()).change() or
                     // ((Map)serverMessage.getExt().get("map")).put().
+                    long sequence = channel.isBroadcast() ? channel.journalSequence(message) : 0;
                     freeze(message);
+                    ChannelMetrics metrics = channel.getMetrics();
+                    if (metrics != null) {
+                        int weight = metrics.sample();
+                        if (weight > 0) {
+                            metrics.frozen(ServerSessionImpl.jsonLength(message), weight);
+                        }
+                    }
+                    if (sequence > 0) {
+                        channel.journal(sequence, message);
+                    }
                     publish2(session, channel, message, promise);
                 } else {
                     ServerMessage.Mutable reply = message.getAssociated();
@@ -928,6 +1417,7 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         if (channel.isMeta()) {
             notifyMetaHandlers(session, channel, message, promise);
         } else if (channel.isBroadcast()) {
+            channel.retain(message);
             notifySubscribers(session, channel, message, promise);
         } else {
             promise.succeed(true);
@@ -935,72 +1425,267 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void notifySubscribers(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, Promise<Boolean> promise) {
-        Set<String> wildSubscribers = new HashSet<>();
-        AsyncFoldLeft.run(channel.getChannelId().getWilds(), true, (result, wildName, wildLoop) -> {
-                    ServerChannelImpl wildChannel = _channels.get(wildName);
-                    if (wildChannel == null) {
-                        wildLoop.proceed(result);
-                    } else {
-                        Set<ServerSession> subscribers = wildChannel.subscribers();
-                        if (_logger.isDebugEnabled()) {
-                            _logger.debug("Notifying {} subscribers on {}", subscribers.size(), wildChannel);
-                        }
-                        AsyncFoldLeft.run(subscribers, true, (r, subscriber, loop) -> {
-                            if (wildSubscribers.add(subscriber.getId())) {
-                                if (subscriber == session && !channel.isBroadcastToPublisher()) {
-                                    loop.proceed(true);
-                                } else {
-                                    ((ServerSessionImpl)subscriber).deliver1(session, message, Promise.from(b -> loop.proceed(true), loop::fail));
-                                }
+        LatencyMetrics.Trace trace = trace(message);
+        if (trace != null && trace.pattern != null) {
+            trace.fanOut = System.nanoTime();
+            promise = timed(promise, nanos -> _latencyMetrics.record(trace.pattern, LatencyMetrics.Stage.FAN_OUT, nanos));
+        }
+        Instrumentation.Probe probe = _instrumentation.begin(Instrumentation.Operation.FAN_OUT);
+        if (probe != null) {
+            long subscribers = countSubscribers(channel, wildChannels(channel));
+            Promise<Boolean> delivered = promise;
+            promise = Promise.complete((r, x) -> {
+                probe.end(session == null ? null : session.getId(), channel.getId(), subscribers);
+                if (x == null) {
+                    delivered.succeed(r);
+                } else {
+                    delivered.fail(x);
+                }
+            });
+        }
+        notifySubscribers1(session, channel, message, promise);
+    }
+
+    private void notifySubscribers1(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, Promise<Boolean> promise) {
+        List<ServerChannelImpl> wildChannels = wildChannels(channel);
+        ChannelMetrics metrics = channel.getMetrics();
+        if (metrics != null) {
+            int weight = metrics.sample();
+            if (weight > 0) {
+                metrics.fannedOut(countSubscribers(channel, wildChannels), weight);
+            }
+        }
+        BroadcastLanes broadcastLanes = _broadcastLanes;
+        if (broadcastLanes != null && countSubscribers(channel, wildChannels) >= _broadcastParallelThreshold) {
+            notifySubscribersInParallel(broadcastLanes, session, channel, wildChannels, message, promise);
+            return;
+        }
+        BroadcastLanes.Deferral deferral = broadcastLanes == null ? null : broadcastLanes.new Deferral();
+        // Records the sessions notified via a wild channel, so that
+        // sessions subscribed to more than one matching channel are
+        // notified only once; not needed if there are no wild channels.
+        Set<ServerSession> delivered = wildChannels.isEmpty() ? null : acquireDelivered();
+        Promise<Boolean> complete = delivered == null ? promise : Promise.complete((r, x) -> {
+            releaseDelivered(delivered);
+            if (x == null) {
+                promise.succeed(r);
+            } else {
+                promise.fail(x);
+            }
+        });
+        AsyncFoldLeft.run(wildChannels, true, (result, wildChannel, wildLoop) -> {
+                    Set<ServerSession> subscribers = wildChannel.subscribers();
+                    if (_logger.isDebugEnabled()) {
+                        _logger.debug("Notifying {} subscribers on {}", subscribers.size(), wildChannel);
+                    }
+                    AsyncFoldLeft.run(subscribers, true, (r, subscriber, loop) -> {
+                        // Skip sessions already notified via a previous wild channel.
+                        if (delivered.add(subscriber)) {
+                            if (subscriber == session && !channel.isBroadcastToPublisher()) {
+                                loop.proceed(true);
                             } else {
-                                loop.proceed(r);
+                                deliver(session, (ServerSessionImpl)subscriber, message, deferral, loop);
                             }
-                        }, Promise.from(y -> wildLoop.proceed(true), wildLoop::fail));
-                    }
+                        } else {
+                            loop.proceed(r);
+                        }
+                    }, Promise.from(y -> wildLoop.proceed(true), wildLoop::fail));
                 }, Promise.from(b -> {
                     Set<ServerSession> subscribers = channel.subscribers();
                     if (_logger.isDebugEnabled()) {
                         _logger.debug("Notifying {} subscribers on {}", subscribers.size(), channel);
                     }
                     AsyncFoldLeft.run(subscribers, true, (result, subscriber, loop) -> {
-                        if (!wildSubscribers.contains(subscriber.getId())) {
+                        // Skip sessions already notified via a wild channel.
+                        if (delivered == null || !delivered.contains(subscriber)) {
                             if (subscriber == session && !channel.isBroadcastToPublisher()) {
                                 loop.proceed(true);
                             } else {
-                                ((ServerSessionImpl)subscriber).deliver1(session, message, Promise.from(y -> loop.proceed(true), loop::fail));
+                                deliver(session, (ServerSessionImpl)subscriber, message, deferral, loop);
                             }
                         } else {
                             loop.proceed(true);
                         }
-                    }, promise);
-                }, promise::fail)
+                    }, deferred(deferral, session, message, complete));
+                }, complete::fail)
         );
     }
 
-    private void notifyListeners(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, Promise<Boolean> promise) {
-        List<String> channels = new ArrayList<>(channel.getChannelId().getWilds());
-        channels.add(channel.getId());
-        AsyncFoldLeft.run(channels, true, (channelResult, channelName, channelLoop) -> {
-            ServerChannelImpl target = _channels.get(channelName);
-            if (target == null) {
-                channelLoop.proceed(channelResult);
-            } else {
-                if (target.isLazy()) {
-                    message.setLazy(true);
+    /**
+     * <p>Returns an empty set to record the sessions notified during a fan-out.</p>
+     * <p>The sets are pooled per thread and reused across publishes, so that the
+     * de-duplication of the subscribers does not allocate once the pool is warm;
+     * a publish from a listener during a fan-out, or a fan-out that completes
+     * asynchronously, just takes another set from the pool.</p>
+     *
+     * @return an empty identity set of sessions
+     * @see #releaseDelivered(Set)
+     */
+    private Set<ServerSession> acquireDelivered() {
+        Set<ServerSession> result = _deliveredPool.get().pollFirst();
+        return result == null ? Collections.newSetFromMap(new IdentityHashMap<>()) : result;
+    }
+
+    /**
+     * <p>Clears the given set and returns it to the pool of the current thread.</p>
+     *
+     * @param delivered the set to release
+     * @see #acquireDelivered()
+     */
+    private void releaseDelivered(Set<ServerSession> delivered) {
+        delivered.clear();
+        Deque<Set<ServerSession>> pool = _deliveredPool.get();
+        if (pool.size() < MAX_POOLED_DELIVERED) {
+            pool.offerFirst(delivered);
+        }
+    }
+
+    private static long countSubscribers(ServerChannelImpl channel, List<ServerChannelImpl> wildChannels) {
+        long result = channel.subscribers().size();
+        for (int i = 0, size = wildChannels.size(); i < size; ++i) {
+            result += wildChannels.get(i).subscribers().size();
+        }
+        return result;
+    }
+
+    /**
+     * <p>Delivers the message to the subscribers in parallel, partitioning
+     * them in {@link BroadcastLanes lanes} that preserve the order of the
+     * messages delivered to each subscriber.</p>
+     * <p>The promise is completed when the message has been delivered to
+     * all subscribers.</p>
+     */
+    private void notifySubscribersInParallel(BroadcastLanes broadcastLanes, ServerSessionImpl session, ServerChannelImpl channel, List<ServerChannelImpl> wildChannels, Mutable message, Promise<Boolean> promise) {
+        List<List<ServerSessionImpl>> partitions = broadcastLanes.newPartitions();
+        Set<ServerSession> delivered = wildChannels.isEmpty() ? null : acquireDelivered();
+        for (ServerChannelImpl wildChannel : wildChannels) {
+            for (ServerSession subscriber : wildChannel.subscribers()) {
+                if (delivered.add(subscriber)) {
+                    if (subscriber != session || channel.isBroadcastToPublisher()) {
+                        partitions.get(broadcastLanes.laneOf(subscriber)).add((ServerSessionImpl)subscriber);
+                    }
                 }
-                List<ConfigurableServerChannel.ServerChannelListener> listeners = target.listeners();
-                if (_logger.isDebugEnabled()) {
-                    _logger.debug("Notifying {} listeners on {}", listeners.size(), target);
+            }
+        }
+        for (ServerSession subscriber : channel.subscribers()) {
+            if (delivered == null || !delivered.contains(subscriber)) {
+                if (subscriber != session || channel.isBroadcastToPublisher()) {
+                    partitions.get(broadcastLanes.laneOf(subscriber)).add((ServerSessionImpl)subscriber);
                 }
-                AsyncFoldLeft.run(listeners, true, (result, listener, loop) -> {
-                    if (listener instanceof MessageListener) {
-                        notifyOnMessage((MessageListener)listener, session, channel, message, resolveLoop(loop));
-                    } else {
-                        loop.proceed(true);
+            }
+        }
+        if (delivered != null) {
+            releaseDelivered(delivered);
+        }
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Notifying subscribers on {} in parallel", channel);
+        }
+        broadcastLanes.deliver(session, message, partitions, promise);
+    }
+
+    /**
+     * <p>Returns the wild channels that match the given channel, in the
+     * same order of the {@link ChannelId#getWilds() wild names}.</p>
+     * <p>When the {@link #WILDCARD_INDEX_OPTION wildcard index} is enabled,
+     * the wild channels are resolved with a single walk of the index,
+     * otherwise by looking up each wild name.</p>
+     *
+     * @param channel the non-wild channel
+     * @return the existing wild channels that match the given channel
+     */
+    private List<ServerChannelImpl> wildChannels(ServerChannelImpl channel) {
+        ChannelId channelId = channel.getChannelId();
+        if (_wildcardIndex && !channelId.isWild() && !channelId.isTemplate()) {
+            return _wildChannels.match(channelId);
+        }
+        List<String> wildNames = channelId.getWilds();
+        List<ServerChannelImpl> result = new ArrayList<>(wildNames.size());
+        for (String wildName : wildNames) {
+            ServerChannelImpl wildChannel = _channels.get(wildName);
+            if (wildChannel != null) {
+                result.add(wildChannel);
+            }
+        }
+        return result;
+    }
+
+    private void notifyListeners(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, Promise<Boolean> promise) {
+        List<ServerChannelImpl> channels = wildChannels(channel);
+        channels.add(channel);
+        notifyListeners(session, channel, message, channels, 0, null, promise);
+    }
+
+    private void notifyListeners(ServerSessionImpl session, ServerChannelImpl channel, Mutable message, List<ServerChannelImpl> channels, int index, ServerChannelImpl dispatched, Promise<Boolean> promise) {
+        for (int i = index; i < channels.size(); ++i) {
+            ServerChannelImpl target = channels.get(i);
+            List<ConfigurableServerChannel.ServerChannelListener> listeners = target.listeners();
+            ListenerExecutor executor = target.listenerExecutor();
+            if (executor != null && target != dispatched && !listeners.isEmpty()) {
+                // Notify the listeners of this channel, and continue
+                // the processing of the message, in the executor.
+                // The notification is complete when the promise is
+                // completed, possibly asynchronously by the listeners.
+                int current = i;
+                Consumer<Runnable> task = complete -> {
+                    Promise<Boolean> notified = Promise.complete((r, x) -> {
+                        try {
+                            if (x == null) {
+                                promise.succeed(r);
+                            } else {
+                                promise.fail(x);
+                            }
+                        } finally {
+                            complete.run();
+                        }
+                    });
+                    try {
+                        notifyListeners(session, channel, message, channels, current, target, notified);
+                    } catch (Throwable x) {
+                        notified.fail(x);
                     }
-                }, resolveLoop(channelLoop));
+                };
+                if (!executor.execute(task)) {
+                    promise.succeed(false);
+                }
+                return;
             }
-        }, promise);
+            if (target.isLazy()) {
+                message.setLazy(true);
+            }
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Notifying {} listeners on {}", listeners.size(), target);
+            }
+            Iterator<ConfigurableServerChannel.ServerChannelListener> iterator = listeners.iterator();
+            while (iterator.hasNext()) {
+                ConfigurableServerChannel.ServerChannelListener listener = iterator.next();
+                if (listener instanceof MessageListener) {
+                    MessageListener messageListener = (MessageListener)listener;
+                    if (!Synchronous.isListener(messageListener)) {
+                        // Notify the rest of the listeners asynchronously.
+                        int next = i + 1;
+                        AsyncFoldLeft.run(Synchronous.remaining(listener, iterator), true, (result, l, loop) -> {
+                            if (l instanceof MessageListener) {
+                                notifyOnMessage((MessageListener)l, session, channel, message, resolveLoop(loop));
+                            } else {
+                                loop.proceed(true);
+                            }
+                        }, Promise.from(r -> {
+                            if (r) {
+                                notifyListeners(session, channel, message, channels, next, null, promise);
+                            } else {
+                                promise.succeed(false);
+                            }
+                        }, promise::fail));
+                        return;
+                    }
+                    if (!notifyOnMessage(messageListener, session, channel, message)) {
+                        promise.succeed(false);
+                        return;
+                    }
+                }
+            }
+        }
+        promise.succeed(true);
     }
 
     protected Promise<Boolean> resolveLoop(AsyncFoldLeft.Loop<Boolean> loop) {
@@ -1044,6 +1729,8 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
             }
             String json = _jsonContext.generate(message);
             message.freeze(json);
+            // Computed once, rather than for each session the message is queued to.
+            conflationKey(message);
         }
     }
 
@@ -1059,8 +1746,43 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }
     }
 
+    private boolean notifyOnMessage(MessageListener listener, ServerSession from, ServerChannel to, Mutable mutable) {
+        try {
+            return listener.onMessage(from, to, mutable);
+        } catch (Throwable x) {
+            _logger.info("Exception thrown by listener " + listener, x);
+            return true;
+        }
+    }
+
     private void extendIncoming(ServerSessionImpl session, ServerMessage.Mutable message, Promise<Boolean> promise) {
-        AsyncFoldLeft.run(_extensions, true, (result, extension, loop) -> {
+        Iterator<Extension> iterator = _extensions.iterator();
+        while (iterator.hasNext()) {
+            Extension extension = iterator.next();
+            if (!Synchronous.isIncoming(extension)) {
+                // Process the rest of the extensions asynchronously.
+                extendIncoming(session, message, Synchronous.remaining(extension, iterator), promise);
+                return;
+            }
+            boolean result = true;
+            try {
+                result = message.isMeta() ? extension.rcvMeta(session, message) : extension.rcv(session, message);
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Extension {}: result {} for incoming message {}", extension, result, message);
+                }
+            } catch (Throwable x) {
+                _logger.info("Exception thrown by extension " + extension, x);
+            }
+            if (!result) {
+                promise.succeed(false);
+                return;
+            }
+        }
+        promise.succeed(true);
+    }
+
+    private void extendIncoming(ServerSessionImpl session, ServerMessage.Mutable message, List<Extension> extensions, Promise<Boolean> promise) {
+        AsyncFoldLeft.run(extensions, true, (result, extension, loop) -> {
             if (result) {
                 try {
                     extension.incoming(session, message, Promise.from(r -> {
@@ -1083,8 +1805,29 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     protected void extendOutgoing(ServerSession sender, ServerSession session, Mutable message, Promise<Boolean> promise) {
-        List<Extension> extensions = new ArrayList<>(_extensions);
-        Collections.reverse(extensions);
+        ListIterator<Extension> iterator = Synchronous.reverse(_extensions);
+        while (iterator.hasPrevious()) {
+            Extension extension = iterator.previous();
+            if (!Synchronous.isOutgoing(extension)) {
+                // Process the rest of the extensions asynchronously.
+                extendOutgoing(sender, session, message, Synchronous.remainingReversed(extension, iterator), promise);
+                return;
+            }
+            boolean result = true;
+            try {
+                result = message.isMeta() ? extension.sendMeta(session, message) : extension.send(sender, session, message);
+            } catch (Throwable x) {
+                _logger.info("Exception thrown by extension " + extension, x);
+            }
+            if (!result) {
+                promise.succeed(false);
+                return;
+            }
+        }
+        promise.succeed(true);
+    }
+
+    private void extendOutgoing(ServerSession sender, ServerSession session, Mutable message, List<Extension> extensions, Promise<Boolean> promise) {
         AsyncFoldLeft.run(extensions, true, (result, extension, loop) -> {
             if (result) {
                 try {
@@ -1121,6 +1864,9 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
 
     protected boolean removeServerChannel(ServerChannelImpl channel) {
         if (_channels.remove(channel.getId(), channel)) {
+            if (channel.isWild()) {
+                _wildChannels.remove(channel);
+            }
             if (_logger.isDebugEnabled()) {
                 _logger.debug("Removed channel {}", channel);
             }
@@ -1222,6 +1968,339 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         return _broadcastToPublisher;
     }
 
+    @ManagedAttribute(value = "Whether sessions queue messages in a lock-free queue", readonly = true)
+    public boolean isMpscSessionQueue() {
+        return _mpscSessionQueue;
+    }
+
+    /**
+     * @return the latency histograms, or null if they are disabled
+     * @see #LATENCY_HISTOGRAMS_OPTION
+     */
+    public LatencyMetrics getLatencyMetrics() {
+        return _latencyMetrics;
+    }
+
+    /**
+     * <p>Records the latencies of the given messages, just written by the given transport.</p>
+     * <p>Transports call this method only if {@link #getLatencyMetrics() latency histograms}
+     * are enabled, passing the time at which they started to write the messages.</p>
+     *
+     * @param transport the transport that wrote the messages
+     * @param messages  the messages written
+     * @param begin     the {@link System#nanoTime() time} at which the transport started to write the messages
+     */
+    public void messagesWritten(ServerTransport transport, List<ServerMessage> messages, long begin) {
+        LatencyMetrics latencyMetrics = _latencyMetrics;
+        if (latencyMetrics == null) {
+            return;
+        }
+        long end = System.nanoTime();
+        String transportName = transport.getName();
+        for (int i = 0, size = messages.size(); i < size; ++i) {
+            LatencyMetrics.Trace trace = trace(messages.get(i));
+            if (trace != null && trace.pattern != null) {
+                latencyMetrics.record(trace.pattern, transportName, LatencyMetrics.Stage.QUEUE, begin - trace.fanOut);
+                latencyMetrics.record(trace.pattern, transportName, LatencyMetrics.Stage.WRITE, end - begin);
+                latencyMetrics.record(trace.pattern, transportName, LatencyMetrics.Stage.TOTAL, end - trace.received);
+            }
+        }
+    }
+
+    /**
+     * @param interval whether to return the latencies recorded since the previous interval snapshot
+     * @return the latency histogram snapshots, keyed by channel pattern and stage
+     * @see #LATENCY_HISTOGRAMS_OPTION
+     */
+    @ManagedOperation(value = "The latencies of the message processing stages per channel pattern", impact = "INFO")
+    public Map<String, Map<String, Map<String, Object>>> getChannelLatencies(@Name("interval") boolean interval) {
+        LatencyMetrics latencyMetrics = _latencyMetrics;
+        return latencyMetrics == null ? new LinkedHashMap<>() : latencyMetrics.getChannelLatencies(interval);
+    }
+
+    /**
+     * @param interval whether to return the latencies recorded since the previous interval snapshot
+     * @return the latency histogram snapshots, keyed by transport name and stage
+     * @see #LATENCY_HISTOGRAMS_OPTION
+     */
+    @ManagedOperation(value = "The latencies of the message processing stages per transport", impact = "INFO")
+    public Map<String, Map<String, Map<String, Object>>> getTransportLatencies(@Name("interval") boolean interval) {
+        LatencyMetrics latencyMetrics = _latencyMetrics;
+        return latencyMetrics == null ? new LinkedHashMap<>() : latencyMetrics.getTransportLatencies(interval);
+    }
+
+    /**
+     * @return whether sessions track their queue metrics
+     * @see #SESSION_METRICS_OPTION
+     */
+    @ManagedAttribute(value = "Whether sessions track their queue metrics", readonly = true)
+    public boolean isSessionMetrics() {
+        return _sessionMetrics;
+    }
+
+    /**
+     * <p>Returns the ids of the sessions with the most queued messages,
+     * along with their queue metrics, in decreasing order of queued messages.</p>
+     *
+     * @param count the max number of sessions to return
+     * @return the queue metrics of the sessions with the largest backlog, keyed by session id
+     * @see #SESSION_METRICS_OPTION
+     */
+    @ManagedOperation(value = "The queue metrics of the sessions with the most queued messages", impact = "INFO")
+    public Map<String, Map<String, Object>> getBacklogSessions(@Name("count") int count) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        if (count <= 0) {
+            return result;
+        }
+        // Snapshot the queue size, as it may change while sorting.
+        PriorityQueue<Map.Entry<ServerSessionImpl, Integer>> largest = new PriorityQueue<>(count + 1, Map.Entry.comparingByValue());
+        for (ServerSessionImpl session : _sessions.values()) {
+            int size = session.getQueueSize();
+            if (size == 0) {
+                continue;
+            }
+            largest.offer(new AbstractMap.SimpleImmutableEntry<>(session, size));
+            if (largest.size() > count) {
+                largest.poll();
+            }
+        }
+        List<Map.Entry<ServerSessionImpl, Integer>> sessions = new ArrayList<>(largest);
+        sessions.sort(Map.Entry.<ServerSessionImpl, Integer>comparingByValue().reversed());
+        for (Map.Entry<ServerSessionImpl, Integer> entry : sessions) {
+            ServerSessionImpl session = entry.getKey();
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("queueSize", entry.getValue());
+            metrics.put("queueBytes", session.getQueueBytes());
+            metrics.put("queueHighWaterMark", session.getQueueHighWaterMark());
+            metrics.put("lastFlushTime", session.getLastFlushTime());
+            metrics.put("lastQueueLatencyMillis", TimeUnit.NANOSECONDS.toMillis(session.getLastQueueLatency()));
+            metrics.put("maxQueueLatencyMillis", TimeUnit.NANOSECONDS.toMillis(session.getMaxQueueLatency()));
+            metrics.put("droppedMessages", session.getDroppedMessages());
+            result.put(session.getId(), metrics);
+        }
+        return result;
+    }
+
+    private void logSessionMetrics() {
+        long queued = 0;
+        long queuedBytes = 0;
+        long dropped = 0;
+        ServerSessionImpl largest = null;
+        int largestSize = 0;
+        long maxLatency = 0;
+        for (ServerSessionImpl session : _sessions.values()) {
+            int size = session.getQueueSize();
+            queued += size;
+            queuedBytes += session.getQueueBytes();
+            dropped += session.getDroppedMessages();
+            if (size > largestSize) {
+                largestSize = size;
+                largest = session;
+            }
+            maxLatency = Math.max(maxLatency, session.getMaxQueueLatency());
+        }
+        _logger.info("Sessions: {}, queued messages: {} ({} bytes), dropped messages: {}, max queue latency: {} ms, largest backlog: {} ({} messages)",
+                _sessions.size(), queued, queuedBytes, dropped, TimeUnit.NANOSECONDS.toMillis(maxLatency),
+                largest == null ? null : largest.getId(), largestSize);
+    }
+
+    @ManagedAttribute(value = "The policy applied when a message is queued to a full session queue", readonly = true)
+    public QueueOverflowPolicy getQueueOverflowPolicy() {
+        return _queueOverflowPolicy;
+    }
+
+    @ManagedAttribute(value = "The number of messages dropped by the queue overflow policies", readonly = true)
+    public long getQueueOverflowDrops() {
+        return _queueOverflowDrops.longValue();
+    }
+
+    @ManagedAttribute(value = "The number of sessions disconnected by the queue overflow policies", readonly = true)
+    public long getQueueOverflowDisconnects() {
+        return _queueOverflowDisconnects.longValue();
+    }
+
+    void queueOverflowed(int drops, boolean disconnect) {
+        _queueOverflowDrops.add(drops);
+        if (disconnect) {
+            _queueOverflowDisconnects.increment();
+        }
+    }
+
+    @ManagedAttribute(value = "The number of messages rejected by the channel listener executors", readonly = true)
+    public long getListenerRejections() {
+        return _listenerRejections.longValue();
+    }
+
+    void listenerRejected() {
+        _listenerRejections.increment();
+    }
+
+    /**
+     * @return the sample rate of the channel metrics, or a non-positive value if channel metrics are disabled
+     * @see #CHANNEL_METRICS_OPTION
+     */
+    @ManagedAttribute(value = "The sample rate of the channel metrics", readonly = true)
+    public int getChannelMetricsSampleRate() {
+        return _channelMetricsSampleRate;
+    }
+
+    ChannelMetrics newChannelMetrics() {
+        int sampleRate = _channelMetricsSampleRate;
+        return sampleRate > 0 ? new ChannelMetrics(sampleRate) : null;
+    }
+
+    /**
+     * <p>Returns the names of the channels with the most messages published,
+     * along with their {@link ChannelMetrics metrics}, in decreasing order
+     * of published messages.</p>
+     *
+     * @param count the max number of channels to return
+     * @return the metrics of the hottest channels, keyed by channel name
+     * @see #CHANNEL_METRICS_OPTION
+     */
+    @ManagedOperation(value = "The metrics of the channels with the most messages published", impact = "INFO")
+    public Map<String, Map<String, Object>> getHotChannels(@Name("count") int count) {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        if (count <= 0) {
+            return result;
+        }
+        // Snapshot the publishes, as they may change while sorting.
+        PriorityQueue<Map.Entry<ServerChannelImpl, Long>> hottest = new PriorityQueue<>(count + 1, Map.Entry.comparingByValue());
+        for (ServerChannelImpl channel : _channels.values()) {
+            ChannelMetrics metrics = channel.getMetrics();
+            if (metrics == null) {
+                continue;
+            }
+            long publishes = metrics.getPublishes();
+            if (publishes == 0) {
+                continue;
+            }
+            hottest.offer(new AbstractMap.SimpleImmutableEntry<>(channel, publishes));
+            if (hottest.size() > count) {
+                hottest.poll();
+            }
+        }
+        List<Map.Entry<ServerChannelImpl, Long>> channels = new ArrayList<>(hottest);
+        channels.sort(Map.Entry.<ServerChannelImpl, Long>comparingByValue().reversed());
+        for (Map.Entry<ServerChannelImpl, Long> entry : channels) {
+            ServerChannelImpl channel = entry.getKey();
+            Map<String, Object> metrics = channel.getMetrics().toMap();
+            metrics.put("publishes", entry.getValue());
+            metrics.put("subscribers", channel.subscribers().size());
+            result.put(channel.getId(), metrics);
+        }
+        return result;
+    }
+
+    /**
+     * @return whether any channel has been configured with a conflation key
+     * @see ServerChannelImpl#setConflationKey(String)
+     */
+    boolean isConflating() {
+        return _conflating;
+    }
+
+    /**
+     * <p>Returns the conflation key of the given message, that is the
+     * pair of the channel name and of the value of the channel's
+     * {@link ServerChannelImpl#setConflationKey(String) conflation key}.</p>
+     * <p>The conflation key of a frozen message is computed only once,
+     * since the message cannot change anymore.</p>
+     *
+     * @param message the message
+     * @return the conflation key of the given message, or null if the message is not conflated
+     */
+    Object conflationKey(ServerMessage message) {
+        if (!_conflating) {
+            return null;
+        }
+        ServerMessageImpl frozen = message instanceof ServerMessageImpl && ((ServerMessageImpl)message).isFrozen() ? (ServerMessageImpl)message : null;
+        if (frozen != null) {
+            Object key = frozen.getConflationKey();
+            if (key != null) {
+                return key == NO_CONFLATION_KEY ? null : key;
+            }
+        }
+        String channelName = message.getChannel();
+        ServerChannelImpl channel = (ServerChannelImpl)getChannel(channelName);
+        Object value = channel == null ? null : channel.conflationKey(message);
+        Object key = value == null ? null : new AbstractMap.SimpleImmutableEntry<>(channelName, value);
+        if (frozen != null) {
+            frozen.setConflationKey(key == null ? NO_CONFLATION_KEY : key);
+        }
+        return key;
+    }
+
+    void conflating() {
+        // Never reset, to avoid tracking the channels
+        // that have been configured with a conflation key.
+        _conflating = true;
+    }
+
+    @ManagedAttribute(value = "The time to live in milliseconds of cached authorization results", readonly = true)
+    public long getAuthorizationCacheTTL() {
+        return _authorizationCacheTTL;
+    }
+
+    @ManagedAttribute(value = "The number of authorizations served from the cache", readonly = true)
+    public long getAuthorizationCacheHits() {
+        return _authorizationCacheHits.longValue();
+    }
+
+    @ManagedAttribute(value = "The number of cacheable authorizations not found in the cache", readonly = true)
+    public long getAuthorizationCacheMisses() {
+        return _authorizationCacheMisses.longValue();
+    }
+
+    @ManagedAttribute(value = "The max size in bytes of the messages retained by all channels", readonly = true)
+    public long getRetainedMaxBytes() {
+        return _retainedMaxBytes;
+    }
+
+    @ManagedAttribute(value = "The size in bytes of the messages retained by all channels", readonly = true)
+    public long getRetainedBytes() {
+        return _retainedBytes.get();
+    }
+
+    @ManagedAttribute(value = "The number of messages in a session queue above which messages are spilled out of the heap", readonly = true)
+    public int getSessionSpillThreshold() {
+        return _sessionSpillThreshold;
+    }
+
+    @ManagedAttribute(value = "The size in bytes of the session queue messages spilled out of the heap", readonly = true)
+    public long getSessionSpillBytes() {
+        SpillBuffer.Pool pool = _spillPool;
+        return pool == null ? 0 : pool.getUsedBytes();
+    }
+
+    @ManagedAttribute(value = "The size in bytes of the off-heap memory allocated to spill session queue messages", readonly = true)
+    public long getSessionSpillDirectBytes() {
+        SpillBuffer.Pool pool = _spillPool;
+        return pool == null ? 0 : pool.getDirectBytes();
+    }
+
+    SpillBuffer newSpillBuffer() {
+        return new SpillBuffer(_spillPool, _jsonContext);
+    }
+
+    boolean reserveRetainedBytes(long bytes) {
+        long maxBytes = _retainedMaxBytes;
+        while (true) {
+            long current = _retainedBytes.get();
+            long updated = current + bytes;
+            if (maxBytes > 0 && updated > maxBytes) {
+                return false;
+            }
+            if (_retainedBytes.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    void releaseRetainedBytes(long bytes) {
+        _retainedBytes.addAndGet(-bytes);
+    }
+
     protected void unknownSession(Mutable reply) {
         error(reply, "402::session_unknown");
         if (Channel.META_HANDSHAKE.equals(reply.getChannel()) || Channel.META_CONNECT.equals(reply.getChannel())) {
@@ -1296,8 +2375,36 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
 
     private void sweepSessions() {
         long now = System.nanoTime();
-        for (ServerSessionImpl session : _sessions.values()) {
-            session.sweep(now);
+        SessionExpirationWheel wheel = _sessionExpirationWheel;
+        if (wheel == null) {
+            for (ServerSessionImpl session : _sessions.values()) {
+                session.sweep(now);
+            }
+        } else {
+            int visited = wheel.sweep(now);
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Swept {}/{} sessions", visited, _sessions.size());
+            }
+        }
+    }
+
+    /**
+     * <p>Tracks the time at which the given session must be swept,
+     * when the {@link #SESSION_EXPIRATION_WHEEL_OPTION session expiration wheel}
+     * is enabled.</p>
+     * <p>Must be called with the session lock held.</p>
+     *
+     * @param session  the session to track
+     * @param deadline the {@link System#nanoTime()} based deadline, or 0 to stop tracking the session
+     */
+    void trackExpiration(ServerSessionImpl session, long deadline) {
+        SessionExpirationWheel wheel = _sessionExpirationWheel;
+        if (wheel != null) {
+            if (deadline == 0) {
+                wheel.cancel(session);
+            } else {
+                wheel.schedule(session, deadline);
+            }
         }
     }
 
@@ -1352,6 +2459,14 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
     }
 
     private void handleMetaHandshake(ServerSessionImpl session, Mutable message, Promise<Boolean> promise) {
+        Instrumentation.Probe probe = _instrumentation.begin(Instrumentation.Operation.HANDSHAKE);
+        if (probe != null) {
+            promise = probed(promise, probe, session.getId(), Channel.META_HANDSHAKE);
+        }
+        handleMetaHandshake0(session, message, promise);
+    }
+
+    private void handleMetaHandshake0(ServerSessionImpl session, Mutable message, Promise<Boolean> promise) {
         BayeuxContext context = message.getBayeuxContext();
         if (context != null) {
             session.setUserAgent(context.getHeader("User-Agent"));
@@ -1475,10 +2590,42 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
                 error(reply, "403:" + denyReason + ":subscribe_denied");
                 promise.succeed(false);
             } else {
+                long resume = resumeSequence(message, channel);
+                // Messages published while the retained or journaled messages
+                // are replayed must be delivered after them, and only if not replayed.
+                SubscriptionReplay replay = resume > 0 || channel.isRetained() ? new SubscriptionReplay(resume > 0) : null;
+                if (replay != null) {
+                    session.startReplay(channel, replay);
+                }
                 if (channel.subscribe(session, message)) {
                     reply.setSuccessful(true);
+                    if (resume > 0) {
+                        // Messages not journaled yet are skipped, and delivered live.
+                        List<ServerMessage> journaled = new ArrayList<>();
+                        Set<Long> skipped = new HashSet<>();
+                        long last = channel.getJournalMessages(resume, journaled, skipped);
+                        // Deliver the journaled messages as one batch.
+                        session.batch(() -> {
+                            for (ServerMessage journaledMessage : journaled) {
+                                session.deliverUnfiltered(null, (Mutable)journaledMessage, Promise.noop());
+                            }
+                        });
+                        session.completeReplay(channel, replay, last, skipped);
+                    } else if (replay != null) {
+                        // Retained messages are frozen, so they are delivered
+                        // like broadcast messages, without generating JSON again.
+                        List<ServerMessage> retained = new ArrayList<>();
+                        long last = channel.getRetainedMessages(retained);
+                        for (ServerMessage retainedMessage : retained) {
+                            session.deliverUnfiltered(null, (Mutable)retainedMessage, Promise.noop());
+                        }
+                        session.completeReplay(channel, replay, last, Collections.emptySet());
+                    }
                     promise.succeed(true);
                 } else {
+                    if (replay != null) {
+                        session.cancelReplay(channel, replay);
+                    }
                     error(reply, "403::subscribe_failed");
                     promise.succeed(false);
                 }
@@ -1486,6 +2633,18 @@ public class BayeuxServerImpl extends ContainerLifeCycle implements BayeuxServer
         }, promise::fail));
     }
 
+    private static long resumeSequence(ServerMessage message, ServerChannelImpl channel) {
+        if (!channel.isJournaled()) {
+            return 0;
+        }
+        Map<String, Object> ext = message.getExt();
+        Object resume = ext == null ? null : ext.get(ServerChannelImpl.JOURNAL_FIELD);
+        if (resume instanceof Map) {
+            resume = ((Map<?, ?>)resume).get(channel.getId());
+        }
+        return resume instanceof Number ? ((Number)resume).longValue() : 0;
+    }
+
     private void handleMetaUnsubscribe(ServerSessionImpl session, Mutable message, Promise<Boolean> promise) {
         ServerMessage.Mutable reply = message.getAssociated();
         Object subscriptionField = message.get(Message.SUBSCRIPTION_FIELD);
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.AsyncFoldLeft;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Delivers a broadcast message to a large number of subscribers in parallel.</p>
+ * <p>Subscribers are partitioned in a fixed number of lanes by the hash of their
+ * session id, so that a given subscriber is always served by the same lane.
+ * Each lane delivers serially, in submission order, using the server executor,
+ * so that messages published to a channel are delivered to each subscriber in
+ * the same order they were published.</p>
+ * <p>Messages delivered in the caller thread, for example because they are
+ * published to a channel with few subscribers, must be {@link Deferral deferred}
+ * to the lane of the subscribers whose lane is busy, otherwise they may overtake
+ * messages from the same publisher still queued in the lane.</p>
+ */
+class BroadcastLanes {
+    private static final Logger _logger = LoggerFactory.getLogger(BroadcastLanes.class);
+
+    private final Lane[] _lanes;
+    private final Executor _executor;
+
+    BroadcastLanes(Executor executor, int parallelism) {
+        _executor = executor;
+        _lanes = new Lane[parallelism];
+        for (int i = 0; i < parallelism; ++i) {
+            _lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * @return a new, empty, list of subscribers for each lane
+     */
+    List<List<ServerSessionImpl>> newPartitions() {
+        List<List<ServerSessionImpl>> result = new ArrayList<>(_lanes.length);
+        for (int i = 0; i < _lanes.length; ++i) {
+            result.add(new ArrayList<>());
+        }
+        return result;
+    }
+
+    /**
+     * @param session the session to assign to a lane
+     * @return the index of the lane the given session is assigned to
+     */
+    int laneOf(ServerSession session) {
+        return (session.getId().hashCode() & Integer.MAX_VALUE) % _lanes.length;
+    }
+
+    /**
+     * <p>Delivers the given message to the given subscribers, partitioned
+     * by {@link #laneOf(ServerSession) lane}.</p>
+     * <p>The given promise is completed when all the lanes have delivered
+     * the message to their subscribers.</p>
+     *
+     * @param sender     the session that sent the message
+     * @param message    the message to deliver
+     * @param partitions the subscribers of each lane
+     * @param promise    the promise to complete when the delivery is complete
+     */
+    void deliver(ServerSession sender, ServerMessage.Mutable message, List<List<ServerSessionImpl>> partitions, Promise<Boolean> promise) {
+        int pending = 0;
+        for (List<ServerSessionImpl> partition : partitions) {
+            if (!partition.isEmpty()) {
+                ++pending;
+            }
+        }
+        if (pending == 0) {
+            promise.succeed(true);
+            return;
+        }
+        Broadcast broadcast = new Broadcast(pending, promise);
+        for (int i = 0; i < partitions.size(); ++i) {
+            List<ServerSessionImpl> partition = partitions.get(i);
+            if (!partition.isEmpty()) {
+                _lanes[i].offer(new Delivery(sender, message, partition, broadcast));
+            }
+        }
+    }
+
+    /**
+     * <p>Collects the subscribers whose lane is busy, while delivering
+     * a message in the caller thread to the subscribers whose lane is idle.</p>
+     */
+    class Deferral {
+        private List<List<ServerSessionImpl>> _partitions;
+
+        /**
+         * @param session the subscriber to deliver the message to
+         * @return true if the delivery to the given subscriber has been
+         * deferred to its lane, false if it can be delivered in the caller thread
+         */
+        boolean defer(ServerSessionImpl session) {
+            int lane = laneOf(session);
+            if (_lanes[lane].isIdle()) {
+                return false;
+            }
+            if (_partitions == null) {
+                _partitions = newPartitions();
+            }
+            _partitions.get(lane).add(session);
+            return true;
+        }
+
+        /**
+         * <p>Delivers the given message to the deferred subscribers.</p>
+         *
+         * @param sender  the session that sent the message
+         * @param message the message to deliver
+         * @param promise the promise to complete when the delivery is complete
+         */
+        void deliver(ServerSession sender, ServerMessage.Mutable message, Promise<Boolean> promise) {
+            if (_partitions == null) {
+                promise.succeed(true);
+            } else {
+                BroadcastLanes.this.deliver(sender, message, _partitions, promise);
+            }
+        }
+    }
+
+    private class Lane implements Runnable {
+        private final Queue<Delivery> _deliveries = new ArrayDeque<>();
+        private boolean _active;
+
+        private synchronized boolean isIdle() {
+            return !_active;
+        }
+
+        private void offer(Delivery delivery) {
+            synchronized (this) {
+                _deliveries.offer(delivery);
+                if (_active) {
+                    return;
+                }
+                _active = true;
+            }
+            dispatch();
+        }
+
+        private void dispatch() {
+            try {
+                _executor.execute(this);
+            } catch (RejectedExecutionException x) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Could not dispatch lane, running it inline", x);
+                }
+                run();
+            }
+        }
+
+        private void resume() {
+            synchronized (this) {
+                if (_deliveries.isEmpty()) {
+                    _active = false;
+                    return;
+                }
+            }
+            dispatch();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Delivery delivery;
+                synchronized (this) {
+                    delivery = _deliveries.poll();
+                    if (delivery == null) {
+                        _active = false;
+                        return;
+                    }
+                }
+                // The next delivery is run only when this one is complete,
+                // to preserve ordering: in this loop if it completed
+                // synchronously, otherwise when it completes.
+                AtomicBoolean completed = new AtomicBoolean();
+                delivery.run(() -> {
+                    if (!completed.compareAndSet(false, true)) {
+                        resume();
+                    }
+                });
+                if (completed.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class Delivery {
+        private final ServerSession _sender;
+        private final ServerMessage.Mutable _message;
+        private final List<ServerSessionImpl> _subscribers;
+        private final Broadcast _broadcast;
+
+        private Delivery(ServerSession sender, ServerMessage.Mutable message, List<ServerSessionImpl> subscribers, Broadcast broadcast) {
+            _sender = sender;
+            _message = message;
+            _subscribers = subscribers;
+            _broadcast = broadcast;
+        }
+
+        private void run(Runnable next) {
+            Promise<Boolean> promise = Promise.complete((r, x) -> {
+                _broadcast.complete(x);
+                next.run();
+            });
+            try {
+                AsyncFoldLeft.run(_subscribers, true, (result, subscriber, loop) ->
+                        subscriber.deliver1(_sender, _message, Promise.from(b -> loop.proceed(true), loop::fail)), promise);
+            } catch (Throwable x) {
+                promise.fail(x);
+            }
+        }
+    }
+
+    private static class Broadcast {
+        private final AtomicInteger _pending;
+        private final AtomicReference<Throwable> _failure = new AtomicReference<>();
+        private final Promise<Boolean> _promise;
+
+        private Broadcast(int pending, Promise<Boolean> promise) {
+            _pending = new AtomicInteger(pending);
+            _promise = promise;
+        }
+
+        private void complete(Throwable failure) {
+            if (failure != null) {
+                _failure.compareAndSet(null, failure);
+            }
+            if (_pending.decrementAndGet() == 0) {
+                Throwable x = _failure.get();
+                if (x == null) {
+                    _promise.succeed(true);
+                } else {
+                    _promise.fail(x);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.cometd.bayeux.server.ServerMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A ring buffer of the last messages published to a channel.</p>
+ * <p>Each journaled message has a monotonic sequence number, and the slot of
+ * a message in the ring buffer is derived from its sequence number, so that
+ * messages published concurrently can be appended in any order.</p>
+ * <p>A message is available until a message with a sequence number greater
+ * by the journal capacity overwrites it.</p>
+ */
+abstract class ChannelJournal implements Closeable {
+    private final AtomicLong _sequence = new AtomicLong();
+    // Sequence numbers start from 1, so 0 marks empty slots.
+    protected final long[] _sequences;
+
+    protected ChannelJournal(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid journal capacity " + capacity);
+        }
+        _sequences = new long[capacity];
+    }
+
+    /**
+     * @return a new sequence number for a message to be journaled
+     */
+    long nextSequence() {
+        return _sequence.incrementAndGet();
+    }
+
+    /**
+     * @return the last sequence number assigned
+     */
+    long getSequence() {
+        return _sequence.get();
+    }
+
+    /**
+     * @param sequence the sequence number of the message
+     * @param message  the frozen message to append
+     */
+    synchronized void append(long sequence, ServerMessageImpl message) {
+        int slot = (int)(sequence % _sequences.length);
+        // A slower publisher must not overwrite a more recent message.
+        if (_sequences[slot] < sequence) {
+            store(slot, message);
+            _sequences[slot] = sequence;
+        }
+    }
+
+    /**
+     * @param from the sequence number of the first message to replay
+     * @return the journaled messages with sequence number greater than or equal to the given one, in order
+     */
+    List<ServerMessage> replay(long from) {
+        List<ServerMessage> result = new ArrayList<>();
+        replay(from, result, new HashSet<>());
+        return result;
+    }
+
+    /**
+     * <p>Replays the journaled messages with sequence number greater than or equal to the given one.</p>
+     * <p>Messages that have a sequence number but have not been appended yet are skipped.</p>
+     *
+     * @param from     the sequence number of the first message to replay
+     * @param messages the list to add the journaled messages to, in order
+     * @param skipped  the set to add the sequence numbers of the skipped messages to
+     * @return the last sequence number assigned
+     */
+    synchronized long replay(long from, List<ServerMessage> messages, Set<Long> skipped) {
+        long last = getSequence();
+        long first = Math.max(from, Math.max(1, last - _sequences.length + 1));
+        for (long sequence = first; sequence <= last; ++sequence) {
+            int slot = (int)(sequence % _sequences.length);
+            if (_sequences[slot] == sequence) {
+                ServerMessage message = load(slot);
+                if (message != null) {
+                    messages.add(message);
+                }
+            } else {
+                skipped.add(sequence);
+            }
+        }
+        return last;
+    }
+
+    protected abstract void store(int slot, ServerMessageImpl message);
+
+    protected abstract ServerMessage load(int slot);
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * <p>A journal that keeps the messages on the heap.</p>
+     */
+    static class Memory extends ChannelJournal {
+        private final ServerMessage[] _messages;
+
+        Memory(int capacity) {
+            super(capacity);
+            _messages = new ServerMessage[capacity];
+        }
+
+        @Override
+        protected void store(int slot, ServerMessageImpl message) {
+            _messages[slot] = message;
+        }
+
+        @Override
+        protected ServerMessage load(int slot) {
+            return _messages[slot];
+        }
+    }
+
+    /**
+     * <p>A journal that keeps the JSON of the messages in a memory-mapped file,
+     * in fixed size slots, so that a deep history does not use heap memory.</p>
+     * <p>Messages are parsed again when they are replayed, but they are not
+     * converted to JSON again when they are delivered.</p>
+     * <p>Messages larger than the slot size are kept on the heap.</p>
+     * <p>Closing the journal closes the file, but the file remains mapped until
+     * the mapped buffer is garbage collected, since there is no portable way to
+     * unmap it explicitly; on some platforms the file cannot be deleted until then.</p>
+     */
+    static class MappedFile extends ChannelJournal {
+        private static final Logger _logger = LoggerFactory.getLogger(ChannelJournal.class);
+
+        private final Map<Integer, ServerMessage> _oversized = new HashMap<>();
+        private final BayeuxServerImpl _bayeux;
+        private final FileChannel _channel;
+        private final MappedByteBuffer _buffer;
+        private final int _slotSize;
+
+        MappedFile(BayeuxServerImpl bayeux, int capacity, Path file, int slotSize) throws IOException {
+            super(capacity);
+            if (slotSize <= Integer.BYTES) {
+                throw new IllegalArgumentException("Invalid journal slot size " + slotSize);
+            }
+            if ((long)capacity * slotSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Journal too large " + capacity + "x" + slotSize);
+            }
+            _bayeux = bayeux;
+            _slotSize = slotSize;
+            _channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)capacity * slotSize);
+        }
+
+        @Override
+        protected void store(int slot, ServerMessageImpl message) {
+            byte[] bytes = message.getJSONBytes();
+            if (bytes.length > _slotSize - Integer.BYTES) {
+                _oversized.put(slot, message);
+                return;
+            }
+            _oversized.remove(slot);
+            ByteBuffer buffer = _buffer.duplicate();
+            buffer.position(slot * _slotSize);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        @Override
+        protected ServerMessage load(int slot) {
+            ServerMessage oversized = _oversized.get(slot);
+            if (oversized != null) {
+                return oversized;
+            }
+            ByteBuffer buffer = _buffer.duplicate();
+            buffer.position(slot * _slotSize);
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            String json = new String(bytes, StandardCharsets.UTF_8);
+            try {
+                ServerMessageImpl message = (ServerMessageImpl)_bayeux.getJSONContext().parse("[" + json + "]")[0];
+                message.freeze(json);
+                return message;
+            } catch (ParseException x) {
+                _logger.info("Could not parse journaled message " + json, x);
+                return null;
+            }
+        }
+
+        /**
+         * <p>Closes the journal file; the mapping is released only when
+         * the mapped buffer is garbage collected.</p>
+         */
+        @Override
+        public void close() throws IOException {
+            _channel.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Throughput and fan-out metrics of a channel.</p>
+ * <p>Metrics are enabled via the {@link BayeuxServerImpl#CHANNEL_METRICS_OPTION}
+ * option, whose value is the sample rate: with a sample rate of {@code N},
+ * one event out of {@code N}, on average, is recorded with a weight of
+ * {@code N}, so that the metrics are estimates of the actual values, and
+ * their cost, in particular that of measuring time, is paid only for
+ * sampled events.</p>
+ */
+public class ChannelMetrics {
+    private final LongAdder _publishes = new LongAdder();
+    private final LongAdder _fanOut = new LongAdder();
+    private final LongAdder _frozenBytes = new LongAdder();
+    private final LongAdder _listenerNanos = new LongAdder();
+    private final int _sampleRate;
+
+    ChannelMetrics(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate " + sampleRate);
+        }
+        _sampleRate = sampleRate;
+    }
+
+    /**
+     * @return the weight of the event to record, or 0 if the event is not sampled
+     */
+    int sample() {
+        int sampleRate = _sampleRate;
+        if (sampleRate == 1) {
+            return 1;
+        }
+        return ThreadLocalRandom.current().nextInt(sampleRate) == 0 ? sampleRate : 0;
+    }
+
+    void published(int weight) {
+        _publishes.add(weight);
+    }
+
+    void fannedOut(long subscribers, int weight) {
+        _fanOut.add(subscribers * weight);
+    }
+
+    void frozen(long bytes, int weight) {
+        _frozenBytes.add(bytes * weight);
+    }
+
+    void listenersNotified(long nanos, int weight) {
+        _listenerNanos.add(nanos * weight);
+    }
+
+    /**
+     * @return the sample rate of these metrics
+     */
+    public int getSampleRate() {
+        return _sampleRate;
+    }
+
+    /**
+     * @return the number of messages published to the channel
+     */
+    public long getPublishes() {
+        return _publishes.longValue();
+    }
+
+    /**
+     * @return the number of subscribers, including those of matching wild channels,
+     * that messages published to the channel have been delivered to
+     */
+    public long getFanOut() {
+        return _fanOut.longValue();
+    }
+
+    /**
+     * @return the number of bytes of the JSON of the messages published to the channel
+     */
+    public long getFrozenBytes() {
+        return _frozenBytes.longValue();
+    }
+
+    /**
+     * @return the time, in nanoseconds, spent notifying the listeners of the channel
+     */
+    public long getListenerTime() {
+        return _listenerNanos.longValue();
+    }
+
+    /**
+     * @return these metrics as a map, suitable for JMX
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("publishes", getPublishes());
+        result.put("fanOut", getFanOut());
+        result.put("frozenBytes", getFrozenBytes());
+        result.put("listenerTimeMillis", TimeUnit.NANOSECONDS.toMillis(getListenerTime()));
+        result.put("sampleRate", getSampleRate());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x%s", getClass().getSimpleName(), hashCode(), toMap());
+    }
+}
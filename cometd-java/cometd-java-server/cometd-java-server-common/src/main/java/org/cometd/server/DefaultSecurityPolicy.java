@@ -42,4 +42,11 @@ public class DefaultSecurityPolicy implements SecurityPolicy {
     public boolean canSubscribe(BayeuxServer server, ServerSession session, ServerChannel channel, ServerMessage message) {
         return session != null && session.isLocalSession() || !channel.isMeta();
     }
+
+    @Override
+    public boolean isCacheable() {
+        // Subclasses may override canPublish() or canSubscribe()
+        // with logic that depends on the message.
+        return getClass() == DefaultSecurityPolicy.class;
+    }
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * <p>An unbounded, array based, queue whose elements are identified by a sequence
+ * number, so that an element can be {@link #replace(long, Object, Object) replaced}
+ * in place, or {@link #remove(long, Object) removed}, in constant time.</p>
+ * <p>The sequence number of an element is assigned when the element is offered, and
+ * it does not change when elements before it are polled or removed.</p>
+ * <p>Removed elements leave a tombstone in their slot, that is skipped when polling
+ * or iterating, and that is reclaimed when it reaches the head of the queue.</p>
+ * <p>This class is not thread safe.</p>
+ *
+ * @param <E> the type of the elements
+ */
+class IndexedArrayQueue<E> extends AbstractQueue<E> {
+    private static final Object TOMBSTONE = new Object();
+
+    private Object[] _elements;
+    private int _head;
+    // The number of slots in use, including tombstones.
+    private int _size;
+    private int _tombstones;
+    // The sequence number of the head element.
+    private long _sequence;
+
+    IndexedArrayQueue() {
+        this(16);
+    }
+
+    IndexedArrayQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        _elements = new Object[size];
+    }
+
+    @Override
+    public boolean offer(E element) {
+        Objects.requireNonNull(element);
+        if (_size == _elements.length) {
+            grow();
+        }
+        _elements[index(_size)] = element;
+        ++_size;
+        return true;
+    }
+
+    private void grow() {
+        int capacity = _elements.length;
+        int newCapacity = capacity << 1;
+        if (newCapacity < 0) {
+            throw new IllegalStateException("Could not double up capacity " + capacity);
+        }
+        Object[] elements = new Object[newCapacity];
+        int length = capacity - _head;
+        System.arraycopy(_elements, _head, elements, 0, length);
+        System.arraycopy(_elements, 0, elements, length, _head);
+        _elements = elements;
+        _head = 0;
+    }
+
+    @Override
+    public E poll() {
+        if (_size == 0) {
+            return null;
+        }
+        E result = element(_head);
+        _elements[_head] = null;
+        _head = index(1);
+        --_size;
+        ++_sequence;
+        trimHead();
+        return result;
+    }
+
+    /**
+     * <p>Reclaims the tombstones at the head of this queue,
+     * so that the head element is never a tombstone.</p>
+     */
+    private void trimHead() {
+        while (_tombstones > 0 && _size > 0 && _elements[_head] == TOMBSTONE) {
+            _elements[_head] = null;
+            _head = index(1);
+            --_size;
+            ++_sequence;
+            --_tombstones;
+        }
+    }
+
+    @Override
+    public E peek() {
+        return _size == 0 ? null : element(_head);
+    }
+
+    @Override
+    public int size() {
+        return _size - _tombstones;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(_elements, null);
+        _sequence += _size;
+        _head = 0;
+        _size = 0;
+        _tombstones = 0;
+    }
+
+    /**
+     * @return the sequence number of the head element
+     */
+    long firstSequence() {
+        return _sequence;
+    }
+
+    /**
+     * @return the sequence number of the last offered element, valid only if this queue is not empty
+     */
+    long lastSequence() {
+        return _sequence + _size - 1;
+    }
+
+    /**
+     * <p>Replaces the element with the given sequence number, provided
+     * that it is still the given expected element.</p>
+     *
+     * @param sequence    the sequence number of the element to replace
+     * @param expected    the element expected at the given sequence number
+     * @param replacement the element that replaces the expected element
+     * @return whether the element has been replaced
+     */
+    boolean replace(long sequence, E expected, E replacement) {
+        long offset = sequence - _sequence;
+        if (offset < 0 || offset >= _size) {
+            return false;
+        }
+        int index = index((int)offset);
+        if (_elements[index] != expected) {
+            return false;
+        }
+        _elements[index] = Objects.requireNonNull(replacement);
+        return true;
+    }
+
+    /**
+     * @param sequence the sequence number of the element
+     * @return the element with the given sequence number, or null if it has been polled or removed
+     */
+    E get(long sequence) {
+        long offset = sequence - _sequence;
+        if (offset < 0 || offset >= _size) {
+            return null;
+        }
+        int index = index((int)offset);
+        return _elements[index] == TOMBSTONE ? null : element(index);
+    }
+
+    /**
+     * <p>Removes the element with the given sequence number, provided
+     * that it is still the given expected element.</p>
+     *
+     * @param sequence the sequence number of the element to remove
+     * @param expected the element expected at the given sequence number
+     * @return whether the element has been removed
+     */
+    boolean remove(long sequence, E expected) {
+        long offset = sequence - _sequence;
+        if (offset < 0 || offset >= _size) {
+            return false;
+        }
+        int index = index((int)offset);
+        if (_elements[index] != expected) {
+            return false;
+        }
+        bury(index);
+        return true;
+    }
+
+    private void bury(int index) {
+        _elements[index] = TOMBSTONE;
+        ++_tombstones;
+        trimHead();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int _cursor;
+            private int _last = -1;
+
+            @Override
+            public boolean hasNext() {
+                skipTombstones();
+                return _cursor < _size;
+            }
+
+            @Override
+            public E next() {
+                skipTombstones();
+                if (_cursor >= _size) {
+                    throw new NoSuchElementException();
+                }
+                _last = _cursor++;
+                return element(index(_last));
+            }
+
+            @Override
+            public void remove() {
+                if (_last < 0) {
+                    throw new IllegalStateException();
+                }
+                int size = _size;
+                bury(index(_last));
+                // Reclaiming the tombstones at the head shifts the offsets.
+                _cursor = Math.max(0, _cursor - (size - _size));
+                _last = -1;
+            }
+
+            private void skipTombstones() {
+                while (_cursor < _size && _elements[index(_cursor)] == TOMBSTONE) {
+                    ++_cursor;
+                }
+            }
+        };
+    }
+
+    private int index(int offset) {
+        return (_head + offset) & (_elements.length - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E element(int index) {
+        return (E)_elements[index];
+    }
+}
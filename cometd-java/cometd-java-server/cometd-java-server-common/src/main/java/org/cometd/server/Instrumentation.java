@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+/**
+ * <p>Instrumentation of the hot paths of the server, for example to emit
+ * events to a profiler.</p>
+ * <p>The server calls {@link #begin(Operation)} when an operation starts;
+ * implementations return a {@link Probe} if they want to observe the
+ * operation, or {@code null} if they do not, in which case the server
+ * does not gather the information about the operation.</p>
+ * <p>Implementations should decide whether to observe an operation as
+ * cheaply as possible, as they are invoked for every message.</p>
+ *
+ * @see BayeuxServerImpl#setInstrumentation(Instrumentation)
+ */
+public interface Instrumentation {
+    /**
+     * An instrumentation that does not observe any operation.
+     */
+    Instrumentation NONE = new Instrumentation() {
+    };
+
+    /**
+     * @param operation the operation that starts
+     * @return a probe to end when the operation completes, or null if the operation is not observed
+     */
+    default Probe begin(Operation operation) {
+        return null;
+    }
+
+    /**
+     * <p>The observation of an operation, ended when the operation completes.</p>
+     */
+    interface Probe {
+        /**
+         * @param sessionId the session id, or null if the operation is not related to a session
+         * @param channel   the channel, or null if the operation is not related to a channel
+         * @param count     a count specific to the operation, such as the number of subscribers of a fan-out
+         */
+        void end(String sessionId, String channel, long count);
+    }
+
+    /**
+     * <p>The operations observed by an {@link Instrumentation}.</p>
+     */
+    enum Operation {
+        /**
+         * The processing of a handshake.
+         */
+        HANDSHAKE,
+        /**
+         * The processing of a message published to a non-meta channel;
+         * the count is 1 if the message has been published, 0 otherwise.
+         */
+        PUBLISH,
+        /**
+         * The delivery of a message to the subscribers' queues;
+         * the count is the number of subscribers.
+         */
+        FAN_OUT,
+        /**
+         * The queueing of a message to a session;
+         * the count is 1 if the message has been queued, 0 otherwise.
+         */
+        ENQUEUE,
+        /**
+         * The removal of the queued messages of a session to write them;
+         * the count is the number of messages.
+         */
+        FLUSH,
+        /**
+         * A long poll, from its suspension until its resumption;
+         * the count is 1 if the long poll expired, 0 otherwise.
+         */
+        LONG_POLL,
+        /**
+         * The write of a WebSocket frame; the count is the frame length.
+         */
+        WEBSOCKET_WRITE,
+        /**
+         * The republication of a message received from another node of an Oort cloud.
+         */
+        OORT_FORWARD,
+        /**
+         * The routing of a Seti message to the locations of a user;
+         * the count is the number of locations.
+         */
+        SETI_ROUTE
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A lock-free histogram of latencies, in nanoseconds.</p>
+ * <p>Values are recorded in log-linear buckets: each power of two is divided
+ * in {@value #SUB_BUCKETS} linear buckets, so that the reported values have
+ * a relative error below 1/{@value #SUB_BUCKETS}, with a fixed footprint
+ * and without allocation when recording.</p>
+ * <p>Values larger than about 73 minutes are recorded as 73 minutes.</p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_BITS = 42;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder _sum = new LongAdder();
+    private final AtomicLong _max = new AtomicLong();
+    private Snapshot _last = new Snapshot(new long[BUCKETS], 0, 0);
+
+    /**
+     * @param nanos the latency to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        _counts.incrementAndGet(index(value));
+        _sum.add(value);
+        if (value > _max.get()) {
+            _max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * @return a snapshot of all the values recorded by this histogram
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = _counts.get(i);
+        }
+        return new Snapshot(counts, _sum.sum(), _max.get());
+    }
+
+    /**
+     * <p>Returns a snapshot of the values recorded since the previous
+     * call to this method, without resetting the histogram, so that
+     * {@link #snapshot()} keeps reporting all the values.</p>
+     * <p>The max of the interval snapshot is the upper bound of the
+     * highest non-empty bucket of the interval.</p>
+     *
+     * @return a snapshot of the values recorded in the last interval
+     */
+    public synchronized Snapshot intervalSnapshot() {
+        Snapshot snapshot = snapshot();
+        Snapshot result = snapshot.minus(_last);
+        _last = snapshot;
+        return result;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int)(value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * <p>An immutable view of the values recorded by a {@link LatencyHistogram}.</p>
+     */
+    public static class Snapshot {
+        private final long[] _counts;
+        private final long _count;
+        private final long _sum;
+        private final long _max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            _counts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            _count = count;
+            _sum = sum;
+            _max = max;
+        }
+
+        private Snapshot minus(Snapshot other) {
+            long[] counts = new long[BUCKETS];
+            int highest = -1;
+            for (int i = 0; i < BUCKETS; ++i) {
+                counts[i] = _counts[i] - other._counts[i];
+                if (counts[i] > 0) {
+                    highest = i;
+                }
+            }
+            long max = highest < 0 ? 0 : Math.min(highestValue(highest), _max);
+            return new Snapshot(counts, _sum - other._sum, max);
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            return _count;
+        }
+
+        /**
+         * @return the mean of the recorded values, in nanoseconds
+         */
+        public long getMean() {
+            return _count == 0 ? 0 : _sum / _count;
+        }
+
+        /**
+         * @return the max recorded value, in nanoseconds
+         */
+        public long getMax() {
+            return _max;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return the value, in nanoseconds, at the given percentile
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (_count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long)Math.ceil(Math.min(percentile, 100D) / 100D * _count));
+            long total = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                total += _counts[i];
+                if (total >= rank) {
+                    return Math.min(highestValue(i), _max);
+                }
+            }
+            return _max;
+        }
+
+        /**
+         * @return this snapshot as a map of count, mean, percentiles and max in microseconds, suitable for JMX
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("count", getCount());
+            result.put("meanMicros", TimeUnit.NANOSECONDS.toMicros(getMean()));
+            result.put("p50Micros", TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(50)));
+            result.put("p90Micros", TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(90)));
+            result.put("p99Micros", TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99)));
+            result.put("p999Micros", TimeUnit.NANOSECONDS.toMicros(getValueAtPercentile(99.9)));
+            result.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(getMax()));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%x%s", getClass().getSimpleName(), hashCode(), toMap());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.server.ServerMessage;
+
+/**
+ * <p>The {@link LatencyHistogram latency histograms} of the messages received
+ * by the server, from {@link BayeuxServerImpl#handle(ServerSessionImpl, ServerMessage.Mutable, org.cometd.bayeux.Promise)}
+ * until they are written by the transports, broken down by {@link Stage stage}.</p>
+ * <p>Latencies are recorded per channel pattern, configured via the
+ * {@link BayeuxServerImpl#LATENCY_HISTOGRAMS_OPTION} option, and per
+ * transport for the stages that happen after the messages are queued.
+ * A message is recorded in the histograms of the first channel pattern
+ * that matches its channel; messages whose channel does not match any
+ * pattern are not recorded.</p>
+ */
+public class LatencyMetrics {
+    private final List<ChannelId> _patterns = new ArrayList<>();
+    private final Map<String, Map<Stage, LatencyHistogram>> _channels = new LinkedHashMap<>();
+    private final ConcurrentMap<String, Map<Stage, LatencyHistogram>> _transports = new ConcurrentHashMap<>();
+
+    public LatencyMetrics(List<String> patterns) {
+        for (String pattern : patterns) {
+            if (!_channels.containsKey(pattern)) {
+                _patterns.add(new ChannelId(pattern));
+                _channels.put(pattern, newHistograms());
+            }
+        }
+    }
+
+    private static Map<Stage, LatencyHistogram> newHistograms() {
+        Map<Stage, LatencyHistogram> result = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            result.put(stage, new LatencyHistogram());
+        }
+        return result;
+    }
+
+    /**
+     * @param channelId the channel of a message
+     * @return the first channel pattern that matches the given channel, or null if no pattern matches
+     */
+    public String match(ChannelId channelId) {
+        for (int i = 0, size = _patterns.size(); i < size; ++i) {
+            ChannelId pattern = _patterns.get(i);
+            if (pattern.matches(channelId)) {
+                return pattern.getId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param pattern the channel pattern
+     * @param stage   the stage
+     * @return the histogram of the given channel pattern and stage, or null if the pattern is not configured
+     */
+    public LatencyHistogram getChannelHistogram(String pattern, Stage stage) {
+        Map<Stage, LatencyHistogram> histograms = _channels.get(pattern);
+        return histograms == null ? null : histograms.get(stage);
+    }
+
+    /**
+     * @param transport the transport name
+     * @param stage     the stage
+     * @return the histogram of the given transport and stage, or null if no latency has been recorded for the transport
+     */
+    public LatencyHistogram getTransportHistogram(String transport, Stage stage) {
+        Map<Stage, LatencyHistogram> histograms = _transports.get(transport);
+        return histograms == null ? null : histograms.get(stage);
+    }
+
+    void record(String pattern, Stage stage, long nanos) {
+        Map<Stage, LatencyHistogram> histograms = _channels.get(pattern);
+        if (histograms != null) {
+            histograms.get(stage).record(nanos);
+        }
+    }
+
+    void record(String pattern, String transport, Stage stage, long nanos) {
+        record(pattern, stage, nanos);
+        _transports.computeIfAbsent(transport, t -> newHistograms()).get(stage).record(nanos);
+    }
+
+    /**
+     * @param interval whether to return the latencies recorded since the previous interval snapshot
+     * @return the latency snapshots, keyed by channel pattern and then by stage
+     * @see LatencyHistogram#intervalSnapshot()
+     */
+    public Map<String, Map<String, Map<String, Object>>> getChannelLatencies(boolean interval) {
+        return snapshot(_channels, interval);
+    }
+
+    /**
+     * @param interval whether to return the latencies recorded since the previous interval snapshot
+     * @return the latency snapshots, keyed by transport name and then by stage
+     * @see LatencyHistogram#intervalSnapshot()
+     */
+    public Map<String, Map<String, Map<String, Object>>> getTransportLatencies(boolean interval) {
+        return snapshot(new TreeMap<>(_transports), interval);
+    }
+
+    private static Map<String, Map<String, Map<String, Object>>> snapshot(Map<String, Map<Stage, LatencyHistogram>> source, boolean interval) {
+        Map<String, Map<String, Map<String, Object>>> result = new LinkedHashMap<>();
+        source.forEach((key, histograms) -> {
+            Map<String, Map<String, Object>> stages = new LinkedHashMap<>();
+            histograms.forEach((stage, histogram) -> {
+                LatencyHistogram.Snapshot snapshot = interval ? histogram.intervalSnapshot() : histogram.snapshot();
+                if (snapshot.getCount() > 0) {
+                    stages.put(stage.name(), snapshot.toMap());
+                }
+            });
+            result.put(key, stages);
+        });
+        return result;
+    }
+
+    /**
+     * <p>The stages of the processing of a message.</p>
+     */
+    public enum Stage {
+        /**
+         * The processing of the incoming extensions.
+         */
+        EXTENSIONS,
+        /**
+         * The notification of the channel listeners.
+         */
+        LISTENERS,
+        /**
+         * The delivery of the message to the subscribers' queues.
+         */
+        FAN_OUT,
+        /**
+         * The wait in the session queue, from the beginning of the fan-out until the message is taken from the queue.
+         */
+        QUEUE,
+        /**
+         * The write of the message by the transport.
+         */
+        WRITE,
+        /**
+         * The whole processing, from the reception of the message until it is written by the transport.
+         */
+        TOTAL
+    }
+
+    /**
+     * <p>The timestamps of a message, recorded as the message is processed.</p>
+     */
+    static class Trace {
+        final long received;
+        long handled;
+        long fanOut;
+        String pattern;
+
+        Trace(long received) {
+            this.received = received;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Locale;
+
+/**
+ * <p>The policies that define the thread that notifies the
+ * {@link org.cometd.bayeux.server.ServerChannel.MessageListener}s of a channel
+ * when a message is published to that channel.</p>
+ * <p>The policy is configured per channel via
+ * {@link ServerChannelImpl#setListenerExecution(ListenerExecutionPolicy, int)}.</p>
+ */
+public enum ListenerExecutionPolicy {
+    /**
+     * <p>Listeners are notified by the thread that publishes the message,
+     * typically the thread that handled the message from the network.</p>
+     */
+    CALLER_RUNS,
+    /**
+     * <p>Listeners are notified by a thread of the server executor,
+     * and messages of the same channel may be processed concurrently.</p>
+     */
+    POOLED,
+    /**
+     * <p>Listeners are notified by a thread of the server executor,
+     * one message at a time, in the order the messages have been published.</p>
+     */
+    SERIAL;
+
+    /**
+     * @param value the policy, either a {@link ListenerExecutionPolicy} or its
+     * case-insensitive name, with either dashes or underscores
+     * @return the corresponding policy, or {@link #CALLER_RUNS} if the value is null
+     */
+    public static ListenerExecutionPolicy from(Object value) {
+        if (value == null) {
+            return CALLER_RUNS;
+        }
+        if (value instanceof ListenerExecutionPolicy) {
+            return (ListenerExecutionPolicy)value;
+        }
+        return valueOf(value.toString().trim().replace('-', '_').toUpperCase(Locale.ENGLISH));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Runs the notification of the listeners of a channel, with either
+ * the {@link ListenerExecutionPolicy#POOLED pooled} or the
+ * {@link ListenerExecutionPolicy#SERIAL serial} policy.</p>
+ * <p>A notification is complete when it calls the completion callback
+ * it is given, possibly asynchronously; with the serial policy, the next
+ * notification is run only when the previous one is complete.</p>
+ * <p>The number of pending notifications, either queued or not yet complete,
+ * is bounded; further notifications are rejected.</p>
+ */
+class ListenerExecutor {
+    private static final Logger _logger = LoggerFactory.getLogger(ListenerExecutor.class);
+
+    private final Queue<Consumer<Runnable>> _tasks = new ArrayDeque<>();
+    private final AtomicInteger _pending = new AtomicInteger();
+    private final LongAdder _rejected = new LongAdder();
+    private final BayeuxServerImpl _bayeux;
+    private final ListenerExecutionPolicy _policy;
+    private final int _maxPending;
+    private boolean _active;
+
+    ListenerExecutor(BayeuxServerImpl bayeux, ListenerExecutionPolicy policy, int maxPending) {
+        if (policy == ListenerExecutionPolicy.CALLER_RUNS) {
+            throw new IllegalArgumentException("Invalid policy " + policy);
+        }
+        _bayeux = bayeux;
+        _policy = policy;
+        _maxPending = maxPending;
+    }
+
+    ListenerExecutionPolicy getPolicy() {
+        return _policy;
+    }
+
+    int getMaxPending() {
+        return _maxPending;
+    }
+
+    /**
+     * @return the number of notifications queued or not yet complete
+     */
+    int getPending() {
+        return _pending.get();
+    }
+
+    /**
+     * @return the number of notifications rejected
+     */
+    long getRejected() {
+        return _rejected.longValue();
+    }
+
+    /**
+     * @param task the notification to run, that must call the given callback when complete
+     * @return whether the notification has been accepted
+     */
+    boolean execute(Consumer<Runnable> task) {
+        int pending = _pending.incrementAndGet();
+        if (_maxPending > 0 && pending > _maxPending) {
+            return reject(null);
+        }
+        if (_policy == ListenerExecutionPolicy.POOLED) {
+            try {
+                _bayeux.getExecutor().execute(() -> run(task, this::complete));
+                return true;
+            } catch (RejectedExecutionException x) {
+                return reject(x);
+            }
+        }
+        synchronized (this) {
+            _tasks.offer(task);
+            if (_active) {
+                return true;
+            }
+            _active = true;
+        }
+        try {
+            _bayeux.getExecutor().execute(this::drain);
+            return true;
+        } catch (RejectedExecutionException x) {
+            // Run inline, the task has already been queued.
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Could not dispatch serial listener notifications, running them inline", x);
+            }
+            drain();
+            return true;
+        }
+    }
+
+    private boolean reject(Throwable failure) {
+        _pending.decrementAndGet();
+        _rejected.increment();
+        _bayeux.listenerRejected();
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Rejected listener notification, pending {}/{}", _pending.get(), _maxPending, failure);
+        }
+        return false;
+    }
+
+    private void drain() {
+        while (true) {
+            Consumer<Runnable> task;
+            synchronized (this) {
+                task = _tasks.poll();
+                if (task == null) {
+                    _active = false;
+                    return;
+                }
+            }
+            // The next task is run only when this one is complete:
+            // in this loop if it completed synchronously, otherwise
+            // when it completes.
+            AtomicBoolean completed = new AtomicBoolean();
+            run(task, () -> {
+                complete();
+                if (!completed.compareAndSet(false, true)) {
+                    resume();
+                }
+            });
+            if (completed.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void resume() {
+        synchronized (this) {
+            if (_tasks.isEmpty()) {
+                _active = false;
+                return;
+            }
+        }
+        try {
+            _bayeux.getExecutor().execute(this::drain);
+        } catch (RejectedExecutionException x) {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Could not dispatch serial listener notifications, running them inline", x);
+            }
+            drain();
+        }
+    }
+
+    private void run(Consumer<Runnable> task, Runnable completion) {
+        AtomicBoolean once = new AtomicBoolean();
+        Runnable complete = () -> {
+            if (once.compareAndSet(false, true)) {
+                completion.run();
+            }
+        };
+        try {
+            task.accept(complete);
+        } catch (Throwable x) {
+            _logger.info("Exception while notifying listeners", x);
+            complete.run();
+        }
+    }
+
+    private void complete() {
+        _pending.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[%s,pending=%d/%d,rejected=%d]",
+                getClass().getSimpleName(),
+                hashCode(),
+                _policy,
+                getPending(),
+                _maxPending,
+                getRejected());
+    }
+}
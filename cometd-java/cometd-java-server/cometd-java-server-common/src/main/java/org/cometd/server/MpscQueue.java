@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * <p>An unbounded, lock-free, multi-producer single-consumer queue.</p>
+ * <p>Producers {@link #offer(Object) offer} elements with a single atomic
+ * exchange, without contending on a lock; the single consumer
+ * {@link #drainTo(Collection) drains} all the elements in one pass.</p>
+ * <p>An element offered by a producer may not be visible to the consumer
+ * until the producer returns from {@link #offer(Object)}.</p>
+ *
+ * @param <E> the type of the elements
+ */
+class MpscQueue<E> {
+    private final AtomicReference<Node<E>> _tail;
+    // Only accessed by the consumer.
+    private Node<E> _head;
+
+    MpscQueue() {
+        Node<E> stub = new Node<>(null);
+        _head = stub;
+        _tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * <p>Appends the given element to this queue; may be called concurrently.</p>
+     *
+     * @param element the element to append
+     */
+    void offer(E element) {
+        Node<E> node = new Node<>(element);
+        Node<E> previous = _tail.getAndSet(node);
+        Node.NEXT.lazySet(previous, node);
+    }
+
+    /**
+     * <p>Moves all the elements of this queue to the given collection.</p>
+     * <p>Must be called by a single consumer at a time.</p>
+     *
+     * @param collection the collection to drain the elements to
+     * @return the number of elements drained
+     */
+    int drainTo(Collection<? super E> collection) {
+        int result = 0;
+        Node<E> head = _head;
+        Node<E> next;
+        while ((next = head._next) != null) {
+            collection.add(next._element);
+            // The drained node becomes the new stub.
+            next._element = null;
+            head = next;
+            ++result;
+        }
+        _head = head;
+        return result;
+    }
+
+    /**
+     * <p>Must be called by the consumer.</p>
+     *
+     * @return whether this queue has no elements
+     */
+    boolean isEmpty() {
+        return _head._next == null;
+    }
+
+    private static class Node<E> {
+        // Class literals of generic classes are raw, so the updater must be raw too.
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "_next");
+
+        private E _element;
+        private volatile Node<E> _next;
+
+        private Node(E element) {
+            _element = element;
+        }
+    }
+}
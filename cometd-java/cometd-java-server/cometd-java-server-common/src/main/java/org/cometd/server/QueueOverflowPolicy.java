@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Locale;
+
+/**
+ * <p>The policies applied when a message is queued to a session whose queue is full,
+ * either because it holds {@link AbstractServerTransport#MAX_QUEUE_OPTION maxQueue}
+ * messages, or because the frozen JSON of its messages is longer than
+ * {@link AbstractServerTransport#MAX_QUEUE_BYTES_OPTION maxQueueBytes}.</p>
+ * <p>All the policies run in amortized constant time, without scanning the queue.</p>
+ * <p>The policy can be configured for the whole server via the
+ * {@link BayeuxServerImpl#QUEUE_OVERFLOW_POLICY_OPTION queueOverflowPolicy} option,
+ * and overridden per channel via {@link ServerChannelImpl#setQueueOverflowPolicy(QueueOverflowPolicy)}.</p>
+ */
+public enum QueueOverflowPolicy {
+    /**
+     * <p>The queue is not bounded, only {@link org.cometd.bayeux.server.ServerSession.QueueMaxedListener}s
+     * are notified.</p>
+     */
+    NONE,
+    /**
+     * <p>The oldest queued messages are dropped to make room for the new message.</p>
+     */
+    DROP_OLDEST,
+    /**
+     * <p>The new message is dropped.</p>
+     */
+    DROP_NEWEST,
+    /**
+     * <p>Lazy messages are shed first: the oldest queued lazy messages are
+     * evicted to make room for the new message; if that is not enough, a new
+     * lazy message is dropped, while a new non-lazy message evicts the oldest
+     * queued messages.</p>
+     */
+    DROP_LAZY_FIRST,
+    /**
+     * <p>The new message is dropped and the session, that is not consuming
+     * messages fast enough, is disconnected.</p>
+     */
+    DISCONNECT;
+
+    /**
+     * @param value the policy, either a {@link QueueOverflowPolicy} or its
+     * case-insensitive name, with either dashes or underscores
+     * @return the corresponding policy, or {@link #NONE} if the value is null
+     */
+    public static QueueOverflowPolicy from(Object value) {
+        if (value == null) {
+            return NONE;
+        }
+        if (value instanceof QueueOverflowPolicy) {
+            return (QueueOverflowPolicy)value;
+        }
+        return valueOf(value.toString().trim().replace('-', '_').toUpperCase(Locale.ENGLISH));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.server.ServerMessage;
+
+/**
+ * <p>The messages retained by a channel, in publish order.</p>
+ * <p>Messages without a retain key are retained up to the configured number
+ * of messages; messages with a retain key replace the retained message with the
+ * same key, and the configured number of messages is the max number of keys.</p>
+ * <p>The size of the retained messages is accounted both per channel and
+ * globally, see {@link BayeuxServerImpl#RETAINED_MAX_BYTES_OPTION}.</p>
+ */
+class RetainedMessages {
+    private final Map<Object, Retained> _messages = new LinkedHashMap<>();
+    private final BayeuxServerImpl _bayeux;
+    private final int _maxMessages;
+    private final long _maxBytes;
+    private long _bytes;
+    private long _sequence;
+
+    RetainedMessages(BayeuxServerImpl bayeux, int maxMessages, long maxBytes) {
+        _bayeux = bayeux;
+        _maxMessages = maxMessages;
+        _maxBytes = maxBytes;
+    }
+
+    /**
+     * <p>Retains the given frozen message, evicting the oldest
+     * retained messages if the limits would be exceeded.</p>
+     *
+     * @param key     the retain key, or null if the message is not keyed
+     * @param message the message to retain
+     * @return whether the message has been retained
+     */
+    synchronized boolean retain(Object key, ServerMessage message) {
+        long size = ServerSessionImpl.jsonLength(message);
+        if (_maxBytes > 0 && size > _maxBytes) {
+            return false;
+        }
+        long sequence = ++_sequence;
+        if (key == null) {
+            key = sequence;
+        } else {
+            // Remove and add again, to move the key to the end.
+            Retained existing = _messages.remove(key);
+            if (existing != null) {
+                release(existing);
+            }
+        }
+        while (_messages.size() >= _maxMessages || (_maxBytes > 0 && _bytes + size > _maxBytes)) {
+            evictOldest();
+        }
+        while (!_bayeux.reserveRetainedBytes(size)) {
+            if (_messages.isEmpty()) {
+                return false;
+            }
+            evictOldest();
+        }
+        if (message instanceof ServerMessageImpl) {
+            // Allows to discard the message if it has already been replayed, see SubscriptionReplay.
+            ((ServerMessageImpl)message).setRetainSequence(sequence);
+        }
+        _messages.put(key, new Retained(message, size, System.nanoTime()));
+        _bytes += size;
+        return true;
+    }
+
+    synchronized List<ServerMessage> getMessages() {
+        if (_messages.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ServerMessage> result = new ArrayList<>(_messages.size());
+        for (Retained retained : _messages.values()) {
+            result.add(retained._message);
+        }
+        return result;
+    }
+
+    /**
+     * @param messages the list to add the retained messages to, in publish order
+     * @return the sequence number of the last message retained
+     */
+    synchronized long getMessages(List<ServerMessage> messages) {
+        for (Retained retained : _messages.values()) {
+            messages.add(retained._message);
+        }
+        return _sequence;
+    }
+
+    synchronized boolean isEmpty() {
+        return _messages.isEmpty();
+    }
+
+    synchronized long getBytes() {
+        return _bytes;
+    }
+
+    /**
+     * @param now    the current time, in nanoseconds
+     * @param maxAge the max age of retained messages, in milliseconds
+     */
+    synchronized void evictOlderThan(long now, long maxAge) {
+        long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAge);
+        Iterator<Retained> iterator = _messages.values().iterator();
+        while (iterator.hasNext()) {
+            Retained retained = iterator.next();
+            // Messages are in retain order, so stop at the first young one.
+            if (now - retained._time < maxAgeNanos) {
+                break;
+            }
+            iterator.remove();
+            release(retained);
+        }
+    }
+
+    synchronized void clear() {
+        _messages.values().forEach(this::release);
+        _messages.clear();
+    }
+
+    private void evictOldest() {
+        Iterator<Retained> iterator = _messages.values().iterator();
+        Retained retained = iterator.next();
+        iterator.remove();
+        release(retained);
+    }
+
+    private void release(Retained retained) {
+        _bytes -= retained._size;
+        _bayeux.releaseRetainedBytes(retained._size);
+    }
+
+    private static class Retained {
+        private final ServerMessage _message;
+        private final long _size;
+        private final long _time;
+
+        private Retained(ServerMessage message, long size, long time) {
+            _message = message;
+            _size = size;
+            _time = time;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The default {@link SessionIdGenerator}, that generates session ids
+ * from a {@link SecureRandom} instance per thread.</p>
+ * <p>A single {@link SecureRandom} instance shared by all threads serializes
+ * the generation of session ids, which becomes a bottleneck when many clients
+ * handshake at the same time, for example after a server restart.</p>
+ * <p>Each thread uses its own, independently self-seeded, {@code SHA1PRNG}
+ * {@link SecureRandom} if available, or the default {@link SecureRandom}
+ * otherwise, so that session ids are generated without contention.
+ * The {@code SHA1PRNG} algorithm is preferred because, differently from
+ * {@code NativePRNG}, it does not share global state among instances, and
+ * it is faster than {@code DRBG}.</p>
+ */
+public class SecureSessionIdGenerator implements SessionIdGenerator {
+    private static final AtomicLong _idCount = new AtomicLong();
+    private static final ThreadLocal<SecureRandom> _random = ThreadLocal.withInitial(SecureSessionIdGenerator::newSecureRandom);
+
+    private static SecureRandom newSecureRandom() {
+        try {
+            return SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException x) {
+            return new SecureRandom();
+        }
+    }
+
+    /**
+     * @return a non-negative random long from the {@link SecureRandom} of the current thread
+     */
+    static long randomLong() {
+        long value = _random.get().nextLong();
+        return value < 0 ? -value : value;
+    }
+
+    @Override
+    public String newSessionId(String idHint) {
+        StringBuilder id = new StringBuilder(30);
+        int len = 20;
+        if (idHint != null) {
+            len += idHint.length() + 1;
+            id.append(idHint);
+            id.append('_');
+        }
+        int index = id.length();
+
+        while (id.length() < len) {
+            id.append(Long.toString(randomLong(), 36));
+        }
+
+        id.insert(index, Long.toString(_idCount.incrementAndGet(), 36));
+
+        return id.toString();
+    }
+}
@@ -16,10 +16,14 @@
 package org.cometd.server;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -42,6 +46,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ServerChannelImpl implements ServerChannel, Dumpable {
+    /**
+     * <p>The name of the message {@code ext} field that holds the journal sequence number
+     * of a published message, and that a {@code /meta/subscribe} message may carry to
+     * resume from a journal sequence number, see {@link #setJournal(int)}.</p>
+     */
+    public static final String JOURNAL_FIELD = "journal";
     private static final Logger _logger = LoggerFactory.getLogger(ServerChannel.class);
     private final BayeuxServerImpl _bayeux;
     private final ChannelId _id;
@@ -55,10 +65,25 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     private long _lazyTimeout = -1;
     private boolean _persistent;
     private boolean _broadcastToPublisher = true;
+    private volatile QueueOverflowPolicy _queueOverflowPolicy;
+    private volatile ListenerExecutor _listenerExecutor;
+    private volatile String _conflationKey;
+    private volatile RetainedMessages _retained;
+    private volatile String _retainedKey;
+    private volatile long _retainedMaxAge = -1;
+    private volatile ChannelJournal _journal;
+    private final ChannelMetrics _metrics;
+    private final Map<Authorizer.Operation, Object> _authorizationKeys = new EnumMap<>(Authorizer.Operation.class);
+    // The authorization epoch shifted left by one, plus one if cacheable, or -1 if unknown.
+    private volatile long _authorizationCacheable = -1;
 
     protected ServerChannelImpl(BayeuxServerImpl bayeux, ChannelId id) {
         _bayeux = bayeux;
         _id = id;
+        _metrics = id.isMeta() ? null : bayeux.newChannelMetrics();
+        for (Authorizer.Operation operation : Authorizer.Operation.values()) {
+            _authorizationKeys.put(operation, new AbstractMap.SimpleImmutableEntry<>(id.getId(), operation));
+        }
         setPersistent(!isBroadcast());
     }
 
@@ -248,6 +273,317 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
         setLazy(lazyTimeout > 0);
     }
 
+    /**
+     * @return the policy applied when a message of this channel is queued to a full
+     * session queue, or null if the server {@link BayeuxServerImpl#getQueueOverflowPolicy() policy} applies
+     */
+    public QueueOverflowPolicy getQueueOverflowPolicy() {
+        return _queueOverflowPolicy;
+    }
+
+    /**
+     * @param policy the policy applied when a message of this channel is queued to a full
+     * session queue, or null to apply the server {@link BayeuxServerImpl#getQueueOverflowPolicy() policy}
+     */
+    public void setQueueOverflowPolicy(QueueOverflowPolicy policy) {
+        _queueOverflowPolicy = policy;
+    }
+
+    /**
+     * @return the policy that defines the thread that notifies the message listeners of this channel
+     * @see #setListenerExecution(ListenerExecutionPolicy, int)
+     */
+    public ListenerExecutionPolicy getListenerExecutionPolicy() {
+        ListenerExecutor executor = _listenerExecutor;
+        return executor == null ? ListenerExecutionPolicy.CALLER_RUNS : executor.getPolicy();
+    }
+
+    /**
+     * <p>Sets the policy that defines the thread that notifies the
+     * {@link ServerChannel.MessageListener}s of this channel.</p>
+     * <p>With the {@link ListenerExecutionPolicy#POOLED pooled} or the
+     * {@link ListenerExecutionPolicy#SERIAL serial} policy, slow listeners do
+     * not block the thread that publishes the message, typically an I/O thread;
+     * the processing of the message, including its delivery to subscribers,
+     * continues in the thread that notified the listeners.</p>
+     * <p>Messages exceeding the given max number of pending notifications
+     * are rejected, as if a listener returned {@code false}.</p>
+     *
+     * @param policy     the listener execution policy
+     * @param maxPending the max number of notifications queued or running, or
+     *                   a non-positive value for an unbounded number of notifications
+     */
+    public void setListenerExecution(ListenerExecutionPolicy policy, int maxPending) {
+        _listenerExecutor = policy == null || policy == ListenerExecutionPolicy.CALLER_RUNS ?
+                null : new ListenerExecutor(_bayeux, policy, maxPending);
+    }
+
+    /**
+     * @return the number of messages rejected because the max number of
+     * pending listener notifications was exceeded
+     */
+    public long getListenerRejections() {
+        ListenerExecutor executor = _listenerExecutor;
+        return executor == null ? 0 : executor.getRejected();
+    }
+
+    ListenerExecutor listenerExecutor() {
+        return _listenerExecutor;
+    }
+
+    /**
+     * @return the throughput and fan-out metrics of this channel,
+     * or null if {@link BayeuxServerImpl#CHANNEL_METRICS_OPTION channel metrics}
+     * are disabled or this is a meta channel
+     */
+    public ChannelMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * @return the name of the message field holding the conflation key, or null if messages are not conflated
+     * @see #setConflationKey(String)
+     */
+    public String getConflationKey() {
+        return _conflationKey;
+    }
+
+    /**
+     * <p>Sets the name of the message field holding the conflation key.</p>
+     * <p>The field is looked up first in the message {@link ServerMessage#getExt() ext}
+     * and then in the message {@link ServerMessage#getDataAsMap() data}.</p>
+     * <p>A message of this channel that carries a conflation key replaces, in the session
+     * queue, the message with the same conflation key that has not been delivered yet,
+     * so that slow sessions only receive the most recent message for each key.</p>
+     *
+     * @param conflationKey the name of the message field holding the conflation key,
+     *                      or null to not conflate messages
+     */
+    public void setConflationKey(String conflationKey) {
+        _conflationKey = conflationKey;
+        if (conflationKey != null) {
+            _bayeux.conflating();
+        }
+    }
+
+    /**
+     * @param message the message to conflate
+     * @return the conflation key of the given message, or null if the message is not conflated
+     */
+    Object conflationKey(ServerMessage message) {
+        return fieldValue(message, _conflationKey);
+    }
+
+    /**
+     * <p>Retains the last messages published to this channel, so that they are
+     * delivered to sessions when they subscribe to this channel.</p>
+     * <p>Retained messages are delivered as they have been published, without
+     * converting them to JSON again.</p>
+     *
+     * @param maxMessages the max number of retained messages, or the max number of
+     *                    {@link #setRetainedKey(String) retain keys}, or zero to
+     *                    not retain messages and discard those already retained
+     * @param maxBytes    the max size of the retained messages, in bytes of JSON,
+     *                    or a non-positive value for no limit
+     * @see BayeuxServerImpl#RETAINED_MAX_BYTES_OPTION
+     */
+    public void setRetained(int maxMessages, long maxBytes) {
+        RetainedMessages retained = maxMessages > 0 ? new RetainedMessages(_bayeux, maxMessages, maxBytes) : null;
+        RetainedMessages existing = _retained;
+        _retained = retained;
+        if (existing != null) {
+            existing.clear();
+        }
+    }
+
+    /**
+     * @return whether this channel retains messages
+     * @see #setRetained(int, long)
+     */
+    public boolean isRetained() {
+        return _retained != null;
+    }
+
+    /**
+     * @return the name of the message field holding the retain key, or null if retained messages are not keyed
+     * @see #setRetainedKey(String)
+     */
+    public String getRetainedKey() {
+        return _retainedKey;
+    }
+
+    /**
+     * <p>Sets the name of the message field holding the retain key, looked up like
+     * the {@link #setConflationKey(String) conflation key}.</p>
+     * <p>A published message with a retain key replaces the retained message with
+     * the same retain key, so that the last message for each key is retained.</p>
+     *
+     * @param retainedKey the name of the message field holding the retain key,
+     *                    or null if retained messages are not keyed
+     */
+    public void setRetainedKey(String retainedKey) {
+        _retainedKey = retainedKey;
+    }
+
+    /**
+     * @return the max age of retained messages, in milliseconds
+     * @see #setRetainedMaxAge(long)
+     */
+    public long getRetainedMaxAge() {
+        return _retainedMaxAge;
+    }
+
+    /**
+     * @param maxAge the max age, in milliseconds, after which retained messages are
+     *               evicted by the channel sweeper, or a negative value to never evict them
+     */
+    public void setRetainedMaxAge(long maxAge) {
+        _retainedMaxAge = maxAge;
+    }
+
+    /**
+     * @return the messages retained by this channel, in publish order
+     */
+    public List<ServerMessage> getRetainedMessages() {
+        RetainedMessages retained = _retained;
+        return retained == null ? Collections.emptyList() : retained.getMessages();
+    }
+
+    /**
+     * @param messages the list to add the messages retained by this channel to, in publish order
+     * @return the sequence number of the last message retained, or 0 if this channel does not retain messages
+     */
+    long getRetainedMessages(List<ServerMessage> messages) {
+        RetainedMessages retained = _retained;
+        return retained == null ? 0 : retained.getMessages(messages);
+    }
+
+    /**
+     * @param message the frozen message published to this channel
+     */
+    void retain(ServerMessage message) {
+        RetainedMessages retained = _retained;
+        if (retained != null) {
+            retained.retain(fieldValue(message, _retainedKey), message);
+        }
+    }
+
+    /**
+     * <p>Journals the last messages published to this channel, on the heap.</p>
+     * <p>Each journaled message carries its sequence number in the
+     * {@link #JOURNAL_FIELD} field of the message {@code ext}.
+     * A client that subscribes with the {@link #JOURNAL_FIELD} field in the
+     * {@code /meta/subscribe} message {@code ext}, either a sequence number or
+     * an object mapping channel names to sequence numbers, receives in one batch
+     * the journaled messages from that sequence number included.</p>
+     * <p>Journaled channels are not removed by the channel sweeper.</p>
+     *
+     * @param capacity the max number of journaled messages, or zero to not journal messages
+     * @throws IOException if the previous journal cannot be closed
+     */
+    public void setJournal(int capacity) throws IOException {
+        setJournal(capacity > 0 ? new ChannelJournal.Memory(capacity) : null);
+    }
+
+    /**
+     * <p>Journals the last messages published to this channel in a memory-mapped file,
+     * so that a deep history does not use heap memory, see {@link #setJournal(int)}.</p>
+     * <p>The file is made of {@code capacity} slots of {@code slotSize} bytes each;
+     * messages whose JSON does not fit in a slot are kept on the heap.</p>
+     *
+     * @param capacity the max number of journaled messages
+     * @param file     the journal file
+     * @param slotSize the size of a slot of the journal file, in bytes
+     * @throws IOException if the journal file cannot be mapped, or the previous journal cannot be closed
+     */
+    public void setJournal(int capacity, Path file, int slotSize) throws IOException {
+        setJournal(new ChannelJournal.MappedFile(_bayeux, capacity, file, slotSize));
+    }
+
+    private void setJournal(ChannelJournal journal) throws IOException {
+        ChannelJournal existing = _journal;
+        _journal = journal;
+        if (existing != null) {
+            existing.close();
+        }
+    }
+
+    /**
+     * @return whether this channel journals messages
+     * @see #setJournal(int)
+     */
+    public boolean isJournaled() {
+        return _journal != null;
+    }
+
+    /**
+     * @return the sequence number of the last journaled message, or 0 if this channel does not journal messages
+     */
+    public long getJournalSequence() {
+        ChannelJournal journal = _journal;
+        return journal == null ? 0 : journal.getSequence();
+    }
+
+    /**
+     * @param from the sequence number of the first message to return
+     * @return the journaled messages from the given sequence number included, in order
+     */
+    public List<ServerMessage> getJournalMessages(long from) {
+        ChannelJournal journal = _journal;
+        return journal == null ? Collections.emptyList() : journal.replay(from);
+    }
+
+    /**
+     * @param from     the sequence number of the first message to replay
+     * @param messages the list to add the journaled messages from the given sequence number included to, in order
+     * @param skipped  the set to add the sequence numbers of the messages not journaled yet to
+     * @return the last journal sequence number assigned, or 0 if this channel does not journal messages
+     */
+    long getJournalMessages(long from, List<ServerMessage> messages, Set<Long> skipped) {
+        ChannelJournal journal = _journal;
+        return journal == null ? 0 : journal.replay(from, messages, skipped);
+    }
+
+    /**
+     * <p>Assigns the journal sequence number to the given message, before it is frozen.</p>
+     *
+     * @param message the message published to this channel
+     * @return the journal sequence number, or 0 if this channel does not journal messages
+     */
+    long journalSequence(ServerMessage.Mutable message) {
+        ChannelJournal journal = _journal;
+        if (journal == null) {
+            return 0;
+        }
+        long sequence = journal.nextSequence();
+        message.getExt(true).put(JOURNAL_FIELD, sequence);
+        return sequence;
+    }
+
+    /**
+     * @param sequence the journal sequence number of the message
+     * @param message  the frozen message published to this channel
+     */
+    void journal(long sequence, ServerMessage message) {
+        ChannelJournal journal = _journal;
+        if (journal != null && message instanceof ServerMessageImpl) {
+            journal.append(sequence, (ServerMessageImpl)message);
+        }
+    }
+
+    private static Object fieldValue(ServerMessage message, String field) {
+        if (field == null) {
+            return null;
+        }
+        Map<String, Object> ext = message.getExt();
+        Object key = ext == null ? null : ext.get(field);
+        if (key == null) {
+            Object data = message.getData();
+            key = data instanceof Map ? ((Map<?, ?>)data).get(field) : null;
+        }
+        return key;
+    }
+
     @Override
     public void setPersistent(boolean persistent) {
         resetSweeperPasses();
@@ -338,7 +674,20 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
             }
         }
 
-        if (isMeta() || isPersistent()) {
+        RetainedMessages retained = _retained;
+        if (retained != null) {
+            long maxAge = _retainedMaxAge;
+            if (maxAge >= 0) {
+                retained.evictOlderThan(System.nanoTime(), maxAge);
+            }
+            // Channels with retained messages are not swept.
+            if (!retained.isEmpty()) {
+                resetSweeperPasses();
+                return;
+            }
+        }
+
+        if (isMeta() || isPersistent() || isJournaled()) {
             return;
         }
 
@@ -370,6 +719,22 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
                 ((ServerSessionImpl)subscriber).unsubscribedFrom(this);
             }
             _subscribers.clear();
+            if (!_authorizers.isEmpty()) {
+                _bayeux.invalidateAuthorizations();
+            }
+            RetainedMessages retained = _retained;
+            if (retained != null) {
+                retained.clear();
+            }
+            ChannelJournal journal = _journal;
+            _journal = null;
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException x) {
+                    _logger.info("Could not close journal of " + this, x);
+                }
+            }
         }
 
         _listeners.clear();
@@ -400,11 +765,14 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
     @Override
     public void addAuthorizer(Authorizer authorizer) {
         _authorizers.add(authorizer);
+        _bayeux.invalidateAuthorizations();
     }
 
     @Override
     public void removeAuthorizer(Authorizer authorizer) {
-        _authorizers.remove(authorizer);
+        if (_authorizers.remove(authorizer)) {
+            _bayeux.invalidateAuthorizations();
+        }
     }
 
     @Override
@@ -416,6 +784,35 @@ public class ServerChannelImpl implements ServerChannel, Dumpable {
         return _authorizers;
     }
 
+    /**
+     * @param operation the authorized operation
+     * @return the key of the cached authorizations of the given operation on this channel
+     */
+    Object getAuthorizationKey(Authorizer.Operation operation) {
+        return _authorizationKeys.get(operation);
+    }
+
+    /**
+     * @param epoch the current authorization epoch
+     * @return 1 if the authorizations of this channel are cacheable, 0 if they are not,
+     * or -1 if the cacheability is unknown for the given epoch
+     */
+    int getAuthorizationCacheable(long epoch) {
+        long cacheable = _authorizationCacheable;
+        if (cacheable < 0 || cacheable >>> 1 != epoch) {
+            return -1;
+        }
+        return (int)(cacheable & 1);
+    }
+
+    /**
+     * @param epoch     the authorization epoch when the cacheability was computed
+     * @param cacheable whether the authorizations of this channel are cacheable
+     */
+    void setAuthorizationCacheable(long epoch, boolean cacheable) {
+        _authorizationCacheable = epoch << 1 | (cacheable ? 1 : 0);
+    }
+
     @Override
     public void dump(Appendable out, String indent) throws IOException {
         List<Object> children = new ArrayList<>();
@@ -33,9 +33,13 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
     private String _json;
     private transient ServerMessage.Mutable _associated;
     private transient boolean _handled;
-    private transient byte[] _jsonBytes;
+    private transient volatile byte[] _jsonBytes;
+    private transient volatile int _jsonLength = -1;
     private transient BayeuxContext _context;
     private transient ServerTransport _transport;
+    private transient LatencyMetrics.Trace _trace;
+    private transient long _retainSequence;
+    private transient Object _conflationKey;
 
     @Override
     public ServerMessage.Mutable getAssociated() {
@@ -83,12 +87,32 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
         _handled = handled;
     }
 
+    LatencyMetrics.Trace getTrace() {
+        return _trace;
+    }
+
+    void setTrace(LatencyMetrics.Trace trace) {
+        _trace = trace;
+    }
+
+    long getRetainSequence() {
+        return _retainSequence;
+    }
+
+    void setRetainSequence(long sequence) {
+        _retainSequence = sequence;
+    }
+
+    Object getConflationKey() {
+        return _conflationKey;
+    }
+
+    void setConflationKey(Object conflationKey) {
+        _conflationKey = conflationKey;
+    }
+
     protected void freeze(String json) {
         _json = json;
-        // A message can be queued to different sessions, each with
-        // different transports. WebSocket transports write only strings, not
-        // bytes so these will be wasted, but only if all transports write strings.
-        _jsonBytes = json.getBytes(StandardCharsets.UTF_8);
     }
 
     protected boolean isFrozen() {
@@ -99,8 +123,71 @@ public class ServerMessageImpl extends HashMapMessage implements ServerMessage.M
         return _json;
     }
 
+    /**
+     * <p>Returns the UTF-8 bytes of the JSON representation of this message,
+     * if this message is frozen, otherwise {@code null}.</p>
+     * <p>A message can be queued to different sessions, each with different
+     * transports. WebSocket transports only write strings, so the bytes are
+     * only produced, and then cached, when a transport needs them.</p>
+     *
+     * @return the JSON bytes of this message, or null if this message is not frozen
+     */
     public byte[] getJSONBytes() {
-        return _jsonBytes;
+        byte[] bytes = _jsonBytes;
+        if (bytes == null) {
+            String json = _json;
+            if (json != null) {
+                // Concurrent calls may encode more than once, but
+                // the result is the same, so no locking is needed.
+                bytes = json.getBytes(StandardCharsets.UTF_8);
+                _jsonBytes = bytes;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * <p>Returns the length of the UTF-8 bytes of the JSON representation
+     * of this message, without encoding it, if this message is frozen,
+     * otherwise 0.</p>
+     *
+     * @return the length of the JSON bytes of this message, or 0 if this message is not frozen
+     */
+    int getJSONLength() {
+        int length = _jsonLength;
+        if (length < 0) {
+            byte[] bytes = _jsonBytes;
+            if (bytes != null) {
+                length = bytes.length;
+            } else {
+                String json = _json;
+                if (json == null) {
+                    return 0;
+                }
+                length = utf8Length(json);
+            }
+            _jsonLength = length;
+        }
+        return length;
+    }
+
+    private static int utf8Length(String string) {
+        int length = 0;
+        for (int i = 0, size = string.length(); i < size; ++i) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                ++i;
+            } else {
+                // Unpaired surrogates are encoded as '?'.
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
     }
 
     @Override
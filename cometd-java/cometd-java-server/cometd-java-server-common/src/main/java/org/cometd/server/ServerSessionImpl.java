@@ -16,23 +16,27 @@
 package org.cometd.server;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.Session;
+import org.cometd.bayeux.server.Authorizer;
 import org.cometd.bayeux.server.LocalSession;
 import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerMessage;
@@ -49,24 +53,44 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ServerSessionImpl implements ServerSession, Dumpable {
-    private static final AtomicLong _idCount = new AtomicLong();
-
     private static final Logger _logger = LoggerFactory.getLogger(ServerSession.class);
+    private static final int MAX_CACHED_AUTHORIZATIONS = 64;
     private final BayeuxServerImpl _bayeux;
     private final String _id;
     private final List<ServerSessionListener> _listeners = new CopyOnWriteArrayList<>();
     private final List<Extension> _extensions = new CopyOnWriteArrayList<>();
-    private final Queue<ServerMessage> _queue = new ArrayDeque<>();
+    private final AtomicInteger _opaqueExtensions = new AtomicInteger();
+    private final IndexedArrayQueue<ServerMessage> _queue = new IndexedArrayQueue<>();
+    private final Map<Object, Conflated> _conflated = new HashMap<>();
+    // The sequence numbers of the queued lazy messages, oldest first.
+    private final Sequences _lazySequences = new Sequences();
+    private final Map<Object, CachedAuthorization> _authorizations = new ConcurrentHashMap<>();
+    private final Map<String, SubscriptionReplay> _replays = new ConcurrentHashMap<>();
+    private SpillBuffer _spill;
+    private final MpscQueue<ServerMessage> _inbox;
+    private final AtomicInteger _queueListeners = new AtomicInteger();
     private final LocalSessionImpl _localSession;
     private final AttributesMap _attributes = new AttributesMap();
     private final Set<ServerChannelImpl> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<>());
     private final LazyTask _lazyTask = new LazyTask();
-    private AbstractServerTransport.Scheduler _scheduler = new Scheduler.None(0);
+    private final CoalesceTask _coalesceTask = new CoalesceTask();
+    private volatile AbstractServerTransport.Scheduler _scheduler = new Scheduler.None(0);
     private ServerTransport _transport;
     private ServerTransport _advisedTransport;
     private Object _endPoint;
     private State _state = State.NEW;
     private int _maxQueue = -1;
+    private long _maxQueueBytes = -1;
+    private long _queueBytes;
+    private volatile long _droppedMessages;
+    private volatile long _conflatedMessages;
+    private volatile long _attributesVersion;
+    private volatile int _queueHighWaterMark;
+    private volatile long _lastFlushTime;
+    private volatile long _lastQueueLatency;
+    private volatile long _maxQueueLatency;
+    private long _enqueueTime;
+    private volatile Instrumentation.Probe _longPollProbe;
     private long _transientTimeout = -1;
     private long _transientInterval = -1;
     private long _timeout = -1;
@@ -74,12 +98,17 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     private long _maxInterval = -1;
     private long _maxProcessing = -1;
     private long _maxLazy = -1;
+    private long _coalesceWindow = -1;
+    private long _coalesceInterval;
+    private volatile long _arrivalTime;
+    private volatile long _arrivalInterval = Long.MAX_VALUE;
     private boolean _metaConnectDelivery;
-    private int _batch;
+    private volatile int _batch;
     private String _userAgent;
     private long _messageTime;
     private long _expireTime;
-    private boolean _nonLazyMessages;
+    private volatile int _expirationBucket = -1;
+    private volatile boolean _nonLazyMessages;
     private boolean _broadcastToPublisher;
     private boolean _allowMessageDeliveryDuringHandshake;
     private String _browserId;
@@ -91,23 +120,8 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     public ServerSessionImpl(BayeuxServerImpl bayeux, LocalSessionImpl localSession, String idHint) {
         _bayeux = bayeux;
         _localSession = localSession;
-
-        StringBuilder id = new StringBuilder(30);
-        int len = 20;
-        if (idHint != null) {
-            len += idHint.length() + 1;
-            id.append(idHint);
-            id.append('_');
-        }
-        int index = id.length();
-
-        while (id.length() < len) {
-            id.append(Long.toString(_bayeux.randomLong(), 36));
-        }
-
-        id.insert(index, Long.toString(_idCount.incrementAndGet(), 36));
-
-        _id = id.toString();
+        _id = _bayeux.getSessionIdGenerator().newSessionId(idHint);
+        _inbox = _bayeux.isMpscSessionQueue() ? new MpscQueue<>() : null;
 
         _broadcastToPublisher = _bayeux.isBroadcastToPublisher();
     }
@@ -186,11 +200,16 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     @Override
     public void addExtension(Extension extension) {
         _extensions.add(extension);
+        if (!(extension instanceof Extension.Transparent)) {
+            _opaqueExtensions.incrementAndGet();
+        }
     }
 
     @Override
     public void removeExtension(Extension extension) {
-        _extensions.remove(extension);
+        if (_extensions.remove(extension) && !(extension instanceof Extension.Transparent)) {
+            _opaqueExtensions.decrementAndGet();
+        }
     }
 
     @Override
@@ -236,17 +255,51 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     protected void deliver1(ServerSession sender, ServerMessage.Mutable mutable, Promise<Boolean> promise) {
+        if (!_replays.isEmpty()) {
+            SubscriptionReplay replay = _replays.get(mutable.getChannel());
+            if (replay != null && !replay.filter(mutable, () -> deliverUnfiltered(sender, mutable, Promise.noop()))) {
+                // Deferred until the replay is complete, or already replayed.
+                promise.succeed(false);
+                return;
+            }
+        }
+        deliverUnfiltered(sender, mutable, promise);
+    }
+
+    /**
+     * <p>Delivers the given message without filtering it by the {@link SubscriptionReplay replays} of this session.</p>
+     */
+    void deliverUnfiltered(ServerSession sender, ServerMessage.Mutable mutable, Promise<Boolean> promise) {
         if (sender == this && !isBroadcastToPublisher() && ChannelId.isBroadcast(mutable.getChannel())) {
             promise.succeed(false);
+        } else if (!mutable.isMeta() && _opaqueExtensions.get() == 0) {
+            // No extension needs to process this message, so the
+            // same frozen message can be queued to all sessions.
+            _bayeux.freeze(mutable);
+            notifyListeners(sender, mutable, promise);
         } else {
             extendOutgoing(sender, mutable, Promise.from(message -> {
                 if (message == null) {
                     promise.succeed(false);
                 } else {
                     _bayeux.freeze(message);
-                    AsyncFoldLeft.run(_listeners, true, (result, listener, loop) -> {
-                        if (listener instanceof MessageListener) {
-                            notifyOnMessage((MessageListener)listener, sender, message, _bayeux.resolveLoop(loop));
+                    notifyListeners(sender, message, promise);
+                }
+            }, promise::fail));
+        }
+    }
+
+    private void notifyListeners(ServerSession sender, ServerMessage.Mutable message, Promise<Boolean> promise) {
+        Iterator<ServerSessionListener> iterator = _listeners.iterator();
+        while (iterator.hasNext()) {
+            ServerSessionListener listener = iterator.next();
+            if (listener instanceof MessageListener) {
+                MessageListener messageListener = (MessageListener)listener;
+                if (!Synchronous.isListener(messageListener)) {
+                    // Notify the rest of the listeners asynchronously.
+                    AsyncFoldLeft.run(Synchronous.remaining(listener, iterator), true, (result, l, loop) -> {
+                        if (l instanceof MessageListener) {
+                            notifyOnMessage((MessageListener)l, sender, message, _bayeux.resolveLoop(loop));
                         } else {
                             loop.proceed(result);
                         }
@@ -257,20 +310,30 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                             promise.succeed(false);
                         }
                     }, promise::fail));
+                    return;
                 }
-            }, promise::fail));
+                if (!notifyOnMessage(messageListener, sender, message)) {
+                    promise.succeed(false);
+                    return;
+                }
+            }
         }
+        deliver2(sender, message, promise);
     }
 
     private void deliver2(ServerSession sender, ServerMessage.Mutable message, Promise<Boolean> promise) {
+        Instrumentation.Probe probe = _bayeux.getInstrumentation().begin(Instrumentation.Operation.ENQUEUE);
         Boolean wakeup = enqueueMessage(sender, message);
+        if (probe != null) {
+            probe.end(getId(), message.getChannel(), wakeup == null ? 0 : 1);
+        }
         if (wakeup == null) {
             promise.succeed(false);
         } else {
             if (wakeup) {
                 if (message.isLazy()) {
                     flushLazy(message);
-                } else {
+                } else if (!flushCoalesced()) {
                     flush();
                 }
             }
@@ -279,31 +342,277 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     private Boolean enqueueMessage(ServerSession sender, ServerMessage.Mutable message) {
+        Object conflationKey = _bayeux.conflationKey(message);
+        MpscQueue<ServerMessage> inbox = _inbox;
+        if (inbox != null && conflationKey == null && _queueListeners.get() == 0 && _maxQueue <= 0 && _maxQueueBytes <= 0 && _bayeux.getSessionSpillThreshold() <= 0 && !_bayeux.isSessionMetrics()) {
+            // No listener needs to observe the queue, so the
+            // message can be queued without acquiring the lock.
+            inbox.offer(message);
+            if (!message.isLazy()) {
+                _nonLazyMessages = true;
+            }
+            // Read the batch after setting the flag, see endBatch().
+            return _batch == 0;
+        }
+        boolean disconnect = false;
         synchronized (getLock()) {
+            drainInbox();
+            if (conflationKey != null && conflate(sender, conflationKey, message)) {
+                return _batch == 0;
+            }
             for (ServerSessionListener listener : _listeners) {
                 if (listener instanceof QueueMaxedListener) {
                     int maxQueueSize = _maxQueue;
-                    if (maxQueueSize > 0 && _queue.size() >= maxQueueSize) {
+                    if (maxQueueSize > 0 && queueSize() >= maxQueueSize) {
+                        // The listener may inspect or modify the queue.
+                        unspill();
                         if (!notifyQueueMaxed((QueueMaxedListener)listener, this, _queue, sender, message)) {
                             return null;
                         }
                     }
                 }
             }
-            addMessage(message);
-            for (ServerSessionListener listener : _listeners) {
-                if (listener instanceof QueueListener) {
-                    notifyQueued((QueueListener)listener, sender, message);
+            resyncQueue();
+            boolean rejected = false;
+            if (isQueueFull(message)) {
+                int drops = 0;
+                switch (queueOverflowPolicy(message)) {
+                    case DROP_NEWEST:
+                        rejected = true;
+                        break;
+                    case DISCONNECT:
+                        rejected = true;
+                        disconnect = true;
+                        break;
+                    case DROP_LAZY_FIRST:
+                        drops += evictLazy(message);
+                        if (isQueueFull(message)) {
+                            if (message.isLazy()) {
+                                rejected = true;
+                            } else {
+                                drops += evictOldest(message);
+                            }
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        drops += evictOldest(message);
+                        break;
+                    default:
+                        break;
+                }
+                if (rejected) {
+                    ++drops;
+                }
+                if (drops > 0) {
+                    _droppedMessages += drops;
+                    _bayeux.queueOverflowed(drops, disconnect);
+                    if (_logger.isDebugEnabled()) {
+                        _logger.debug("Queue overflow, dropped {} message(s){} for {}", drops, disconnect ? " and disconnecting" : "", this);
+                    }
                 }
             }
-            return _batch == 0;
+            if (!rejected) {
+                addMessage(message);
+                // Spilled messages are not conflated until they are restored.
+                if (conflationKey != null && !isSpilling()) {
+                    _conflated.put(conflationKey, new Conflated(_queue.lastSequence(), message));
+                }
+                for (ServerSessionListener listener : _listeners) {
+                    if (listener instanceof QueueListener) {
+                        notifyQueued((QueueListener)listener, sender, message);
+                    }
+                }
+                return _batch == 0;
+            }
+        }
+        if (disconnect) {
+            destroyScheduler();
+            _bayeux.removeServerSession(this, false);
         }
+        return null;
+    }
+
+    /**
+     * <p>Replaces in place the queued message with the same conflation key, if any.</p>
+     * <p>Must be called with the lock held.</p>
+     *
+     * @param sender        the session that sends the message
+     * @param conflationKey the conflation key of the message
+     * @param message       the message to queue
+     * @return whether the message replaced a queued message
+     */
+    private boolean conflate(ServerSession sender, Object conflationKey, ServerMessage message) {
+        Conflated conflated = _conflated.get(conflationKey);
+        if (conflated == null) {
+            return false;
+        }
+        ServerMessage replaced = conflated._message;
+        // The queued message may have been delivered or removed.
+        if (!_queue.replace(conflated._sequence, replaced, message)) {
+            return false;
+        }
+        conflated._message = message;
+        if (!replaced.isLazy()) {
+            indexLazy(conflated._sequence, message);
+        }
+        _queueBytes += jsonLength(message) - jsonLength(replaced);
+        _nonLazyMessages |= !message.isLazy();
+        ++_conflatedMessages;
+        for (ServerSessionListener listener : _listeners) {
+            if (listener instanceof QueueListener) {
+                notifyReplaced((QueueListener)listener, sender, replaced, message);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>Must be called with the lock held.</p>
+     *
+     * @param message the message to queue
+     * @return whether queueing the given message would exceed the queue bounds
+     */
+    private boolean isQueueFull(ServerMessage message) {
+        int maxQueue = _maxQueue;
+        if (maxQueue > 0 && queueSize() >= maxQueue) {
+            return true;
+        }
+        long maxQueueBytes = _maxQueueBytes;
+        return maxQueueBytes > 0 && _queueBytes + jsonLength(message) > maxQueueBytes;
+    }
+
+    /**
+     * <p>Resets the queue accounting if the queue is empty, since
+     * the queue may have been modified via {@link #getQueue()}.</p>
+     * <p>Must be called with the lock held.</p>
+     */
+    private void resyncQueue() {
+        if (queueSize() == 0) {
+            _queueBytes = 0;
+            _conflated.clear();
+            _lazySequences.clear();
+        }
+    }
+
+    /**
+     * <p>Evicts the oldest queued lazy messages until there is room for the given message.</p>
+     * <p>Each lazy message is indexed and evicted at most once, so this costs
+     * amortized constant time per message.</p>
+     * <p>Must be called with the lock held.</p>
+     *
+     * @param message the message to queue
+     * @return the number of messages evicted
+     */
+    private int evictLazy(ServerMessage message) {
+        int drops = 0;
+        while (!_lazySequences.isEmpty() && isQueueFull(message)) {
+            long sequence = _lazySequences.poll();
+            ServerMessage lazy = _queue.get(sequence);
+            // The lazy message may have been delivered,
+            // evicted, or replaced by a non-lazy message.
+            if (lazy != null && lazy.isLazy() && _queue.remove(sequence, lazy)) {
+                _queueBytes -= jsonLength(lazy);
+                ++drops;
+            }
+        }
+        return drops;
+    }
+
+    /**
+     * <p>Indexes the given queued message, if it is lazy, so that it
+     * can be evicted first by {@link QueueOverflowPolicy#DROP_LAZY_FIRST}.</p>
+     * <p>Must be called with the lock held.</p>
+     *
+     * @param sequence the sequence number of the queued message
+     * @param message  the queued message
+     */
+    private void indexLazy(long sequence, ServerMessage message) {
+        if (!message.isLazy() || (_maxQueue <= 0 && _maxQueueBytes <= 0)) {
+            return;
+        }
+        // Forget the lazy messages that have already been polled.
+        long first = _queue.firstSequence();
+        while (!_lazySequences.isEmpty() && _lazySequences.peek() < first) {
+            _lazySequences.poll();
+        }
+        _lazySequences.offer(sequence);
+    }
+
+    /**
+     * <p>Evicts the oldest queued messages until there is room for the given message.</p>
+     * <p>Each message is evicted at most once, so this costs amortized constant time per message.</p>
+     * <p>Must be called with the lock held.</p>
+     *
+     * @param message the message to queue
+     * @return the number of messages evicted
+     */
+    private int evictOldest(ServerMessage message) {
+        int drops = 0;
+        while (queueSize() > 0 && isQueueFull(message)) {
+            // Spilled messages are more recent than the in-memory ones.
+            _queueBytes -= _queue.isEmpty() ? _spill.poll() : jsonLength(_queue.poll());
+            ++drops;
+        }
+        return drops;
+    }
+
+    private QueueOverflowPolicy queueOverflowPolicy(ServerMessage message) {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.getChannel(message.getChannel());
+        QueueOverflowPolicy policy = channel == null ? null : channel.getQueueOverflowPolicy();
+        return policy == null ? _bayeux.getQueueOverflowPolicy() : policy;
+    }
+
+    /**
+     * @param message the message
+     * @return the length of the UTF-8 bytes of the JSON of the given message, or 0 if it is not frozen
+     */
+    static long jsonLength(ServerMessage message) {
+        return message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getJSONLength() : 0;
     }
 
     protected void extendOutgoing(ServerSession sender, ServerMessage.Mutable message, Promise<ServerMessage.Mutable> promise) {
-        List<Extension> extensions = new ArrayList<>(_extensions);
-        Collections.reverse(extensions);
+        ServerMessage.Mutable result = message;
+        ListIterator<Extension> iterator = Synchronous.reverse(_extensions);
+        while (iterator.hasPrevious()) {
+            Extension extension = iterator.previous();
+            if (extension instanceof Extension.Transparent && !result.isMeta()) {
+                continue;
+            }
+            if (!Synchronous.isOutgoing(extension)) {
+                // Process the rest of the extensions asynchronously.
+                extendOutgoing(sender, result, Synchronous.remainingReversed(extension, iterator), promise);
+                return;
+            }
+            try {
+                if (result.isMeta()) {
+                    if (!extension.sendMeta(sender, this, result)) {
+                        promise.succeed(null);
+                        return;
+                    }
+                } else {
+                    ServerMessage m = extension.send(sender, this, result);
+                    if (m == null) {
+                        promise.succeed(null);
+                        return;
+                    } else if (m instanceof ServerMessage.Mutable) {
+                        result = (ServerMessage.Mutable)m;
+                    } else {
+                        _logger.info("Exception reported by extension " + extension, new IllegalArgumentException());
+                    }
+                }
+            } catch (Throwable x) {
+                _logger.info("Exception thrown by extension " + extension, x);
+            }
+        }
+        promise.succeed(result);
+    }
+
+    private void extendOutgoing(ServerSession sender, ServerMessage.Mutable message, List<Extension> extensions, Promise<ServerMessage.Mutable> promise) {
         AsyncFoldLeft.run(extensions, message, (result, extension, loop) -> {
+            if (extension instanceof Extension.Transparent && !result.isMeta()) {
+                loop.proceed(result);
+                return;
+            }
             try {
                 extension.outgoing(sender, this, result, Promise.from(m -> {
                     if (m != null) {
@@ -343,6 +652,15 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }
     }
 
+    private boolean notifyOnMessage(MessageListener listener, ServerSession sender, ServerMessage message) {
+        try {
+            return listener.onMessage(this, sender, message);
+        } catch (Throwable x) {
+            _logger.info("Exception thrown by listener " + listener, x);
+            return true;
+        }
+    }
+
     private void notifyQueued(QueueListener listener, ServerSession session, ServerMessage message) {
         try {
             listener.queued(session, message);
@@ -351,15 +669,27 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }
     }
 
+    private void notifyReplaced(QueueListener listener, ServerSession session, ServerMessage replaced, ServerMessage message) {
+        try {
+            listener.replaced(session, replaced, message);
+        } catch (Throwable x) {
+            _logger.info("Exception while invoking listener " + listener, x);
+        }
+    }
+
     protected boolean handshake(ServerMessage.Mutable message) {
         AbstractServerTransport transport = message == null ? null : (AbstractServerTransport)message.getServerTransport();
         if (transport != null) {
             _maxQueue = transport.getOption(AbstractServerTransport.MAX_QUEUE_OPTION, -1);
+            _maxQueueBytes = transport.getOption(AbstractServerTransport.MAX_QUEUE_BYTES_OPTION, -1L);
             _maxProcessing = transport.getOption(AbstractServerTransport.MAX_PROCESSING_OPTION, -1);
             if (_maxProcessing > 0) {
                 _maxProcessing = TimeUnit.MILLISECONDS.toNanos(_maxProcessing);
             }
             _maxLazy = transport.getMaxLazyTimeout();
+            _coalesceWindow = TimeUnit.MICROSECONDS.toNanos(transport.getOption(AbstractServerTransport.COALESCE_WINDOW_OPTION, -1L));
+            long coalesceRate = transport.getOption(AbstractServerTransport.COALESCE_RATE_OPTION, 1000L);
+            _coalesceInterval = coalesceRate > 0 ? TimeUnit.SECONDS.toNanos(1) / coalesceRate : 0;
         }
 
         synchronized (getLock()) {
@@ -431,6 +761,9 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     @Override
     public void addListener(ServerSessionListener listener) {
         _listeners.add(listener);
+        if (listener instanceof QueueListener || listener instanceof QueueMaxedListener) {
+            _queueListeners.incrementAndGet();
+        }
     }
 
     @Override
@@ -443,9 +776,134 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     public Queue<ServerMessage> getQueue() {
+        synchronized (getLock()) {
+            drainInbox();
+            unspill();
+        }
         return _queue;
     }
 
+    /**
+     * <p>Must be called with the lock held.</p>
+     *
+     * @return the number of queued messages, including the spilled ones
+     */
+    private int queueSize() {
+        SpillBuffer spill = _spill;
+        return _queue.size() + (spill == null ? 0 : spill.size());
+    }
+
+    /**
+     * <p>Spills the given message if the in-memory queue exceeded the
+     * {@link BayeuxServerImpl#SESSION_SPILL_THRESHOLD_OPTION spill threshold}.</p>
+     * <p>Must be called with the lock held.</p>
+     *
+     * @param message the message to queue
+     * @return whether the message has been spilled
+     */
+    private boolean spill(ServerMessage message) {
+        int threshold = _bayeux.getSessionSpillThreshold();
+        if (threshold <= 0) {
+            return false;
+        }
+        SpillBuffer spill = _spill;
+        boolean spilling = spill != null && !spill.isEmpty();
+        if (!spilling && _queue.size() < threshold) {
+            return false;
+        }
+        if (!(message instanceof ServerMessageImpl) || ((ServerMessageImpl)message).getJSON() == null) {
+            // Only frozen messages can be spilled, restore
+            // the spilled messages to keep the queue order.
+            unspill();
+            return false;
+        }
+        if (spill == null) {
+            spill = _spill = _bayeux.newSpillBuffer();
+        }
+        spill.offer((ServerMessageImpl)message);
+        return true;
+    }
+
+    /**
+     * <p>Must be called with the lock held.</p>
+     *
+     * @return whether there are spilled messages
+     */
+    private boolean isSpilling() {
+        SpillBuffer spill = _spill;
+        return spill != null && !spill.isEmpty();
+    }
+
+    /**
+     * <p>Moves the spilled messages back to the in-memory queue.</p>
+     * <p>Messages that cannot be restored are dropped.</p>
+     * <p>Must be called with the lock held.</p>
+     */
+    private void unspill() {
+        SpillBuffer spill = _spill;
+        if (spill == null) {
+            return;
+        }
+        int drops = 0;
+        while (!spill.isEmpty()) {
+            int length = spill.peekLength();
+            try {
+                ServerMessageImpl message = spill.take();
+                _queue.add(message);
+                indexLazy(_queue.lastSequence(), message);
+                Object conflationKey = _bayeux.conflationKey(message);
+                if (conflationKey != null) {
+                    _conflated.put(conflationKey, new Conflated(_queue.lastSequence(), message));
+                }
+            } catch (ParseException x) {
+                _logger.info("Could not restore spilled message for " + this, x);
+                _queueBytes -= length;
+                ++drops;
+            }
+        }
+        if (drops > 0) {
+            _droppedMessages += drops;
+            _bayeux.queueOverflowed(drops, false);
+        }
+    }
+
+    /**
+     * @return the number of queued messages spilled out of the heap
+     * @see BayeuxServerImpl#SESSION_SPILL_THRESHOLD_OPTION
+     */
+    public int getSpilledMessages() {
+        synchronized (getLock()) {
+            SpillBuffer spill = _spill;
+            return spill == null ? 0 : spill.size();
+        }
+    }
+
+    /**
+     * <p>Moves the messages queued without holding the lock to the queue.</p>
+     * <p>Must be called with the lock held.</p>
+     */
+    private void drainInbox() {
+        MpscQueue<ServerMessage> inbox = _inbox;
+        if (inbox != null) {
+            inbox.drainTo(_queue);
+        }
+    }
+
+    /**
+     * @return the number of messages dropped by the {@link QueueOverflowPolicy queue overflow policy}
+     */
+    public long getDroppedMessages() {
+        return _droppedMessages;
+    }
+
+    /**
+     * @return the number of queued messages replaced by newer messages with the same conflation key
+     * @see ServerChannelImpl#setConflationKey(String)
+     */
+    public long getConflatedMessages() {
+        return _conflatedMessages;
+    }
+
     public boolean hasNonLazyMessages() {
         synchronized (getLock()) {
             return _nonLazyMessages;
@@ -454,14 +912,118 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
 
     protected void addMessage(ServerMessage message) {
         synchronized (getLock()) {
-            _queue.add(message);
+            drainInbox();
+            if (!spill(message)) {
+                _queue.add(message);
+                indexLazy(_queue.lastSequence(), message);
+            }
+            _queueBytes += jsonLength(message);
             _nonLazyMessages |= !message.isLazy();
+            if (_bayeux.isSessionMetrics()) {
+                queued();
+            }
+        }
+    }
+
+    /**
+     * <p>Records the queue metrics after a message has been queued.</p>
+     * <p>Must be called with the lock held.</p>
+     */
+    private void queued() {
+        int size = queueSize();
+        if (size == 1) {
+            _enqueueTime = System.nanoTime();
         }
+        if (size > _queueHighWaterMark) {
+            _queueHighWaterMark = size;
+        }
+    }
+
+    /**
+     * <p>Records the queue metrics when the queued messages are taken to be written.</p>
+     * <p>Must be called with the lock held.</p>
+     */
+    private void flushed() {
+        long latency = System.nanoTime() - _enqueueTime;
+        _lastQueueLatency = latency;
+        if (latency > _maxQueueLatency) {
+            _maxQueueLatency = latency;
+        }
+        _lastFlushTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the number of queued messages
+     */
+    public int getQueueSize() {
+        synchronized (getLock()) {
+            drainInbox();
+            return queueSize();
+        }
+    }
+
+    /**
+     * @return the size in bytes of the JSON of the queued messages
+     */
+    public long getQueueBytes() {
+        synchronized (getLock()) {
+            return _queueBytes;
+        }
+    }
+
+    /**
+     * @return the max number of messages that have been queued at the same time,
+     * or 0 if {@link BayeuxServerImpl#SESSION_METRICS_OPTION session metrics} are disabled
+     */
+    public int getQueueHighWaterMark() {
+        return _queueHighWaterMark;
+    }
+
+    /**
+     * @return the time, in milliseconds since the epoch, at which queued messages
+     * have last been taken to be written, or 0 if no messages have been taken or
+     * if {@link BayeuxServerImpl#SESSION_METRICS_OPTION session metrics} are disabled
+     */
+    public long getLastFlushTime() {
+        return _lastFlushTime;
+    }
+
+    /**
+     * @return the time, in nanoseconds, the oldest message taken by the last flush waited in the queue
+     * @see #getLastFlushTime()
+     */
+    public long getLastQueueLatency() {
+        return _lastQueueLatency;
+    }
+
+    /**
+     * @return the max time, in nanoseconds, the oldest message taken by a flush waited in the queue
+     * @see #getLastFlushTime()
+     */
+    public long getMaxQueueLatency() {
+        return _maxQueueLatency;
     }
 
     public List<ServerMessage> takeQueue(List<ServerMessage.Mutable> replies) {
+        Instrumentation.Probe probe = _bayeux.getInstrumentation().begin(Instrumentation.Operation.FLUSH);
+        List<ServerMessage> result = takeQueue1(replies);
+        if (probe != null) {
+            probe.end(getId(), null, result.size());
+        }
+        return result;
+    }
+
+    private List<ServerMessage> takeQueue1(List<ServerMessage.Mutable> replies) {
         List<ServerMessage> copy = Collections.emptyList();
         synchronized (getLock()) {
+            if (_inbox != null) {
+                // Clear the flag before draining, so that a message queued
+                // concurrently is either drained or sets the flag again.
+                _nonLazyMessages = false;
+                drainInbox();
+            }
+            unspill();
+
             // Always call listeners, even if the queue is
             // empty since they may add messages to the queue.
             for (ServerSessionListener listener : _listeners) {
@@ -472,12 +1034,20 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
 
             int size = _queue.size();
             if (size > 0) {
+                if (_bayeux.isSessionMetrics()) {
+                    flushed();
+                }
                 copy = new ArrayList<>(size);
                 copy.addAll(_queue);
                 _queue.clear();
             }
+            _queueBytes = 0;
+            _conflated.clear();
+            _lazySequences.clear();
 
-            _nonLazyMessages = false;
+            if (_inbox == null) {
+                _nonLazyMessages = false;
+            }
         }
         return copy;
     }
@@ -491,6 +1061,7 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     public void notifySuspended(ServerMessage message, long timeout) {
+        _longPollProbe = _bayeux.getInstrumentation().begin(Instrumentation.Operation.LONG_POLL);
         for (ServerSessionListener listener : _listeners) {
             if (listener instanceof ServerSession.HeartBeatListener) {
                 ((HeartBeatListener)listener).onSuspended(this, message, timeout);
@@ -499,6 +1070,11 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     public void notifyResumed(ServerMessage message, boolean timeout) {
+        Instrumentation.Probe probe = _longPollProbe;
+        if (probe != null) {
+            _longPollProbe = null;
+            probe.end(getId(), Channel.META_CONNECT, timeout ? 1 : 0);
+        }
         for (ServerSessionListener listener : _listeners) {
             if (listener instanceof ServerSession.HeartBeatListener) {
                 ((HeartBeatListener)listener).onResumed(this, message, timeout);
@@ -508,7 +1084,9 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
 
     @Override
     public void removeListener(ServerSessionListener listener) {
-        _listeners.remove(listener);
+        if (_listeners.remove(listener) && (listener instanceof QueueListener || listener instanceof QueueMaxedListener)) {
+            _queueListeners.decrementAndGet();
+        }
     }
 
     public List<ServerSessionListener> getListeners() {
@@ -567,7 +1145,14 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
 
     public void flush() {
         Scheduler scheduler;
-        synchronized (getLock()) {
+        if (_inbox == null) {
+            synchronized (getLock()) {
+                _lazyTask.cancel();
+                scheduler = _scheduler;
+            }
+        } else {
+            // Do not contend on the lock with the consumer, at
+            // worst a concurrently scheduled lazy task will flush again.
             _lazyTask.cancel();
             scheduler = _scheduler;
         }
@@ -603,6 +1188,38 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }
     }
 
+    /**
+     * <p>Delays the flush of a non-lazy message by the coalesce window, if the
+     * rate of messages delivered to this session is high, so that a burst of
+     * messages is written in fewer frames.</p>
+     * <p>The rate is estimated with a moving average of the interval between
+     * messages; concurrent deliveries may race to update it, which only makes
+     * the estimate less precise.</p>
+     *
+     * @return whether the flush has been delayed
+     */
+    private boolean flushCoalesced() {
+        long window = _coalesceWindow;
+        if (window <= 0 || _localSession != null) {
+            return false;
+        }
+        long coalesceInterval = _coalesceInterval;
+        if (coalesceInterval > 0) {
+            long now = System.nanoTime();
+            // Cap the interval, so that the average recovers
+            // quickly when a burst follows an idle period.
+            long interval = Math.min(now - _arrivalTime, 2 * coalesceInterval);
+            _arrivalTime = now;
+            long average = _arrivalInterval;
+            average = average == Long.MAX_VALUE ? interval : average + (interval - average) / 8;
+            _arrivalInterval = average;
+            if (average >= coalesceInterval) {
+                return false;
+            }
+        }
+        return _coalesceTask.schedule(window);
+    }
+
     public void destroyScheduler() {
         Scheduler oldScheduler;
         synchronized (getLock()) {
@@ -627,6 +1244,7 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
                 long maxInterval = calculateMaxInterval(getServerTransport().getMaxInterval());
                 _expireTime = Math.max(_expireTime, now + TimeUnit.MILLISECONDS.toNanos(maxInterval));
             }
+            trackExpiration();
         }
         if (_logger.isDebugEnabled()) {
             _logger.debug("{} expiration for {}", metaConnect ? "Cancelled" : "Delayed", this);
@@ -647,6 +1265,7 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
             if (metaConnectCycle == 0 || metaConnectCycle == getMetaConnectCycle()) {
                 scheduled = true;
                 _expireTime = now + TimeUnit.MILLISECONDS.toNanos(interval + maxInterval);
+                trackExpiration();
             }
         }
         if (_logger.isDebugEnabled()) {
@@ -654,6 +1273,30 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }
     }
 
+    /**
+     * <p>Notifies the server of the time this session should be swept,
+     * either because it expired or because it is processing for too long.</p>
+     * <p>Must be called with the lock held.</p>
+     */
+    private void trackExpiration() {
+        if (isLocalSession() || _state == State.DISCONNECTED || _state == State.EXPIRED) {
+            return;
+        }
+        long deadline = _expireTime;
+        if (deadline == 0 && _maxProcessing > 0) {
+            deadline = _messageTime + _maxProcessing;
+        }
+        _bayeux.trackExpiration(this, deadline);
+    }
+
+    int getExpirationBucket() {
+        return _expirationBucket;
+    }
+
+    void setExpirationBucket(int bucket) {
+        _expirationBucket = bucket;
+    }
+
     long getMetaConnectCycle() {
         synchronized (getLock()) {
             return _scheduler.getMetaConnectCycle();
@@ -688,12 +1331,62 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     public Object removeAttribute(String name) {
         Object old = getAttribute(name);
         _attributes.removeAttribute(name);
+        attributesChanged();
         return old;
     }
 
     @Override
     public void setAttribute(String name, Object value) {
         _attributes.setAttribute(name, value);
+        attributesChanged();
+    }
+
+    private void attributesChanged() {
+        // Authorizations may depend on the session attributes.
+        ++_attributesVersion;
+        _authorizations.clear();
+    }
+
+    /**
+     * @return a number that changes when the session attributes change
+     */
+    long getAttributesVersion() {
+        return _attributesVersion;
+    }
+
+    /**
+     * @param key   the authorization key
+     * @param epoch the current authorization epoch
+     * @param now   the current time, in nanoseconds
+     * @return the cached authorization result, or null if there is no valid cached result
+     */
+    Authorizer.Result getCachedAuthorization(Object key, long epoch, long now) {
+        CachedAuthorization cached = _authorizations.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached._epoch != epoch || cached._version != _attributesVersion || now - cached._expiration >= 0) {
+            _authorizations.remove(key, cached);
+            return null;
+        }
+        return cached._result;
+    }
+
+    /**
+     * @param key        the authorization key
+     * @param result     the authorization result to cache
+     * @param epoch      the authorization epoch when the authorization started
+     * @param version    the attributes version when the authorization started
+     * @param expiration the expiration time, in nanoseconds
+     */
+    void cacheAuthorization(Object key, Authorizer.Result result, long epoch, long version, long expiration) {
+        if (version != _attributesVersion) {
+            return;
+        }
+        if (_authorizations.size() >= MAX_CACHED_AUTHORIZATIONS) {
+            _authorizations.clear();
+        }
+        _authorizations.put(key, new CachedAuthorization(result, epoch, version, expiration));
     }
 
     @Override
@@ -723,7 +1416,30 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
     }
 
     protected void extendIncoming(ServerMessage.Mutable message, Promise<Boolean> promise) {
-        AsyncFoldLeft.run(_extensions, true, (result, extension, loop) -> {
+        Iterator<Extension> iterator = _extensions.iterator();
+        while (iterator.hasNext()) {
+            Extension extension = iterator.next();
+            if (!Synchronous.isIncoming(extension)) {
+                // Process the rest of the extensions asynchronously.
+                extendIncoming(message, Synchronous.remaining(extension, iterator), promise);
+                return;
+            }
+            boolean result = true;
+            try {
+                result = message.isMeta() ? extension.rcvMeta(this, message) : extension.rcv(this, message);
+            } catch (Throwable x) {
+                _logger.info("Exception thrown by extension " + extension, x);
+            }
+            if (!result) {
+                promise.succeed(false);
+                return;
+            }
+        }
+        promise.succeed(true);
+    }
+
+    private void extendIncoming(ServerMessage.Mutable message, List<Extension> extensions, Promise<Boolean> promise) {
+        AsyncFoldLeft.run(extensions, true, (result, extension, loop) -> {
             if (result) {
                 try {
                     extension.incoming(this, message, Promise.from(loop::proceed, failure -> {
@@ -845,6 +1561,12 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         synchronized (getLock()) {
             result = isHandshook();
             _state = timeout ? State.EXPIRED : State.DISCONNECTED;
+            _bayeux.trackExpiration(this, 0);
+            // Return the segments to the pool, the spilled
+            // messages will not be delivered anymore.
+            if (_spill != null) {
+                _spill.clear();
+            }
         }
         if (result) {
             for (ServerChannelImpl channel : subscriptions) {
@@ -907,6 +1629,48 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
 
     protected void unsubscribedFrom(ServerChannelImpl channel) {
         subscriptions.remove(channel);
+        _replays.remove(channel.getId());
+    }
+
+    /**
+     * <p>Starts the replay of the messages of the given channel,
+     * before this session subscribes to the channel.</p>
+     *
+     * @param channel the channel whose messages are replayed
+     * @param replay  the replay
+     */
+    void startReplay(ServerChannelImpl channel, SubscriptionReplay replay) {
+        _replays.put(channel.getId(), replay);
+    }
+
+    /**
+     * <p>Completes the replay of the messages of the given channel,
+     * after the snapshot of the messages has been delivered.</p>
+     * <p>Once complete, the replay is removed, so that the messages
+     * of the channel are not filtered anymore.</p>
+     *
+     * @param channel the channel whose messages were replayed
+     * @param replay  the replay to complete
+     * @param last    the last sequence number of the snapshot
+     * @param skipped the sequence numbers not greater than the last that the snapshot skipped
+     * @see SubscriptionReplay#complete(long, Set)
+     */
+    void completeReplay(ServerChannelImpl channel, SubscriptionReplay replay, long last, Set<Long> skipped) {
+        replay.complete(last, skipped);
+        _replays.remove(channel.getId(), replay);
+    }
+
+    /**
+     * <p>Cancels the replay of the messages of the given channel,
+     * when this session could not subscribe to the channel.</p>
+     *
+     * @param channel the channel whose messages were to be replayed
+     * @param replay  the replay to cancel
+     */
+    void cancelReplay(ServerChannelImpl channel, SubscriptionReplay replay) {
+        if (_replays.remove(channel.getId(), replay)) {
+            replay.complete(0, Collections.emptySet());
+        }
     }
 
     public long calculateTimeout(long defaultTimeout) {
@@ -1023,6 +1787,99 @@ public class ServerSessionImpl implements ServerSession, Dumpable {
         }
     }
 
+    private class CoalesceTask implements Runnable {
+        private final AtomicBoolean _scheduled = new AtomicBoolean();
+
+        @Override
+        public void run() {
+            // Reset before flushing, so that messages
+            // queued after the flush schedule a new task.
+            _scheduled.set(false);
+            flush();
+        }
+
+        private boolean schedule(long window) {
+            if (_scheduled.compareAndSet(false, true)) {
+                org.eclipse.jetty.util.thread.Scheduler scheduler = _bayeux.getScheduler();
+                try {
+                    scheduler.schedule(this, window, TimeUnit.NANOSECONDS);
+                } catch (RuntimeException x) {
+                    // Stopped scheduler, flush immediately.
+                    _scheduled.set(false);
+                    return false;
+                }
+            }
+            // The flush will happen when the scheduled task runs.
+            return true;
+        }
+    }
+
+    private static class CachedAuthorization {
+        private final Authorizer.Result _result;
+        private final long _epoch;
+        private final long _version;
+        private final long _expiration;
+
+        private CachedAuthorization(Authorizer.Result result, long epoch, long version, long expiration) {
+            _result = result;
+            _epoch = epoch;
+            _version = version;
+            _expiration = expiration;
+        }
+    }
+
+    private static class Conflated {
+        private final long _sequence;
+        private ServerMessage _message;
+
+        private Conflated(long sequence, ServerMessage message) {
+            _sequence = sequence;
+            _message = message;
+        }
+    }
+
+    /**
+     * <p>A FIFO of sequence numbers, that does not box them.</p>
+     */
+    private static class Sequences {
+        private long[] _sequences = new long[16];
+        private int _head;
+        private int _size;
+
+        private boolean isEmpty() {
+            return _size == 0;
+        }
+
+        private long peek() {
+            return _sequences[_head];
+        }
+
+        private long poll() {
+            long result = _sequences[_head];
+            _head = (_head + 1) & (_sequences.length - 1);
+            --_size;
+            return result;
+        }
+
+        private void offer(long sequence) {
+            if (_size == _sequences.length) {
+                long[] sequences = new long[_size << 1];
+                int length = _size - _head;
+                System.arraycopy(_sequences, _head, sequences, 0, length);
+                System.arraycopy(_sequences, 0, sequences, length, _head);
+                _sequences = sequences;
+                _head = 0;
+            }
+            _sequences[(_head + _size) & (_sequences.length - 1)] = sequence;
+            ++_size;
+        }
+
+        private void clear() {
+            _head = 0;
+            _size = 0;
+        }
+    }
+
     private enum State {
         NEW, HANDSHAKEN, CONNECTED, DISCONNECTED, EXPIRED
     }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A hashed timing wheel that tracks the expiration of {@link ServerSessionImpl}s.</p>
+ * <p>Each session is filed in the bucket corresponding to its expiration deadline,
+ * and it is moved to another bucket when its deadline changes, which are O(1)
+ * operations.</p>
+ * <p>Sweeping only visits the buckets whose time has come since the previous sweep,
+ * rather than all the sessions, so that only the sessions that are possibly expired
+ * are checked.
+ * Sessions whose deadline is more than a wheel revolution in the future are visited,
+ * but not swept, once per revolution.</p>
+ */
+class SessionExpirationWheel {
+    private final Set<ServerSessionImpl>[] _buckets;
+    private final long _tickNanos;
+    private long _lastTick;
+
+    /**
+     * @param tick the duration of a wheel tick, in milliseconds
+     * @param size the number of buckets of the wheel
+     */
+    @SuppressWarnings("unchecked")
+    SessionExpirationWheel(long tick, int size) {
+        _tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tick));
+        _buckets = (Set<ServerSessionImpl>[])new Set<?>[size];
+        for (int i = 0; i < size; ++i) {
+            _buckets[i] = ConcurrentHashMap.newKeySet();
+        }
+        _lastTick = Math.floorDiv(System.nanoTime(), _tickNanos);
+    }
+
+    /**
+     * <p>Files the given session in the bucket of the given deadline.</p>
+     * <p>Must be called with the session lock held.</p>
+     *
+     * @param session  the session to file
+     * @param deadline the {@link System#nanoTime()} based expiration deadline
+     */
+    void schedule(ServerSessionImpl session, long deadline) {
+        // File the session in the bucket after the one of the deadline,
+        // so that the session is certainly expired when the bucket is swept.
+        int bucket = (int)Math.floorMod(Math.floorDiv(deadline, _tickNanos) + 1, (long)_buckets.length);
+        int oldBucket = session.getExpirationBucket();
+        if (oldBucket != bucket) {
+            if (oldBucket >= 0) {
+                _buckets[oldBucket].remove(session);
+            }
+            session.setExpirationBucket(bucket);
+            _buckets[bucket].add(session);
+        }
+    }
+
+    /**
+     * <p>Removes the given session from this wheel.</p>
+     * <p>Must be called with the session lock held.</p>
+     *
+     * @param session the session to remove
+     */
+    void cancel(ServerSessionImpl session) {
+        int bucket = session.getExpirationBucket();
+        if (bucket >= 0) {
+            session.setExpirationBucket(-1);
+            _buckets[bucket].remove(session);
+        }
+    }
+
+    /**
+     * <p>Sweeps the sessions in the buckets whose time has come since the last sweep.</p>
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return the number of sessions visited
+     */
+    int sweep(long now) {
+        long tick = Math.floorDiv(now, _tickNanos);
+        long fromTick;
+        synchronized (this) {
+            // Do not visit the same bucket twice.
+            fromTick = Math.max(_lastTick + 1, tick - _buckets.length + 1);
+            _lastTick = tick;
+        }
+        int visited = 0;
+        for (long t = fromTick; t <= tick; ++t) {
+            int bucket = (int)Math.floorMod(t, (long)_buckets.length);
+            for (ServerSessionImpl session : _buckets[bucket]) {
+                ++visited;
+                if (session.getExpirationBucket() != bucket) {
+                    // The session was concurrently moved to another bucket.
+                    _buckets[bucket].remove(session);
+                    // The session may have been concurrently moved back
+                    // to this bucket before it was removed, so it must be
+                    // filed again; a stale entry left here if it moves away
+                    // again is removed when this bucket is next swept.
+                    if (session.getExpirationBucket() != bucket) {
+                        continue;
+                    }
+                    _buckets[bucket].add(session);
+                }
+                session.sweep(now);
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * <p>Removes all the sessions from this wheel.</p>
+     */
+    void clear() {
+        for (Set<ServerSessionImpl> bucket : _buckets) {
+            for (ServerSessionImpl session : bucket) {
+                session.setExpirationBucket(-1);
+            }
+            bucket.clear();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+/**
+ * <p>A strategy to generate session ids.</p>
+ * <p>Session ids are the credentials that authenticate the messages of a
+ * session, so they must be unique and not predictable.</p>
+ *
+ * @see BayeuxServerImpl#setSessionIdGenerator(SessionIdGenerator)
+ * @see SecureSessionIdGenerator
+ */
+public interface SessionIdGenerator {
+    /**
+     * <p>Generates a new session id.</p>
+     * <p>This method is called concurrently by many threads,
+     * for example when many clients handshake at the same time.</p>
+     *
+     * @param idHint the prefix of the session id, or null
+     * @return a new session id
+     */
+    String newSessionId(String idHint);
+}
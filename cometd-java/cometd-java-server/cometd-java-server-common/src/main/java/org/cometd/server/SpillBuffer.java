@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.cometd.bayeux.server.ServerMessage;
+
+/**
+ * <p>A FIFO of frozen messages stored as their JSON bytes, in buffer
+ * segments taken from a {@link Pool}, typically off-heap.</p>
+ * <p>Spilled messages are parsed back, and frozen with their original
+ * JSON, when they are {@link #take() taken}; their laziness and their
+ * latency trace, if any, are restored as well.</p>
+ * <p>This class is not thread safe.</p>
+ */
+class SpillBuffer {
+    private static final int LAZY = 0x8000_0000;
+    private static final int TRACED = 0x4000_0000;
+    private static final int LENGTH = ~(LAZY | TRACED);
+
+    private final Deque<ByteBuffer> _segments = new ArrayDeque<>();
+    // Traces are sampled, so they are rare and kept on the heap.
+    private final Queue<LatencyMetrics.Trace> _traces = new ArrayDeque<>();
+    private final Pool _pool;
+    private final JSONContextServer _jsonContext;
+    private int _readPosition;
+    private int _size;
+
+    SpillBuffer(Pool pool, JSONContextServer jsonContext) {
+        _pool = pool;
+        _jsonContext = jsonContext;
+    }
+
+    /**
+     * @param message the frozen message to spill
+     */
+    void offer(ServerMessageImpl message) {
+        byte[] bytes = message.getJSONBytes();
+        int length = Integer.BYTES + bytes.length;
+        ByteBuffer segment = _segments.peekLast();
+        if (segment == null || segment.remaining() < length) {
+            segment = _pool.acquire(length);
+            _segments.offerLast(segment);
+        }
+        int header = bytes.length;
+        if (message.isLazy()) {
+            header |= LAZY;
+        }
+        LatencyMetrics.Trace trace = message.getTrace();
+        if (trace != null) {
+            header |= TRACED;
+            _traces.offer(trace);
+        }
+        segment.putInt(header);
+        segment.put(bytes);
+        ++_size;
+    }
+
+    /**
+     * @return the JSON length of the oldest spilled message, or -1 if there are no spilled messages
+     */
+    int peekLength() {
+        if (_size == 0) {
+            return -1;
+        }
+        return _segments.peekFirst().getInt(_readPosition) & LENGTH;
+    }
+
+    /**
+     * <p>Discards the oldest spilled message.</p>
+     *
+     * @return the JSON length of the discarded message, or -1 if there are no spilled messages
+     */
+    int poll() {
+        if (_size == 0) {
+            return -1;
+        }
+        ByteBuffer segment = _segments.peekFirst();
+        int header = segment.getInt(_readPosition);
+        int length = header & LENGTH;
+        if ((header & TRACED) != 0) {
+            _traces.poll();
+        }
+        _readPosition += Integer.BYTES + length;
+        --_size;
+        release(segment);
+        return length;
+    }
+
+    /**
+     * <p>Removes the oldest spilled message.</p>
+     * <p>The message is removed even if it cannot be parsed.</p>
+     *
+     * @return the oldest spilled message, or null if there are no spilled messages
+     * @throws ParseException if the spilled message cannot be parsed
+     */
+    ServerMessageImpl take() throws ParseException {
+        if (_size == 0) {
+            return null;
+        }
+        ByteBuffer segment = _segments.peekFirst();
+        int header = segment.getInt(_readPosition);
+        int length = header & LENGTH;
+        ByteBuffer slice = segment.duplicate();
+        slice.position(_readPosition + Integer.BYTES);
+        byte[] bytes = new byte[length];
+        slice.get(bytes);
+        LatencyMetrics.Trace trace = (header & TRACED) != 0 ? _traces.poll() : null;
+        _readPosition += Integer.BYTES + length;
+        --_size;
+        release(segment);
+
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        ServerMessageImpl message = (ServerMessageImpl)_jsonContext.parse("[" + json + "]")[0];
+        message.freeze(json);
+        message.setLazy((header & LAZY) != 0);
+        message.setTrace(trace);
+        return message;
+    }
+
+    private void release(ByteBuffer segment) {
+        if (_readPosition < segment.position()) {
+            return;
+        }
+        // The segment has been entirely read.
+        _readPosition = 0;
+        _segments.pollFirst();
+        _pool.release(segment);
+    }
+
+    void clear() {
+        ByteBuffer segment;
+        while ((segment = _segments.pollFirst()) != null) {
+            _pool.release(segment);
+        }
+        _traces.clear();
+        _readPosition = 0;
+        _size = 0;
+    }
+
+    boolean isEmpty() {
+        return _size == 0;
+    }
+
+    int size() {
+        return _size;
+    }
+
+    /**
+     * <p>A pool of buffer segments shared by all sessions.</p>
+     * <p>Segments are allocated off-heap up to the configured max bytes,
+     * then on the heap, so that spilled messages are always stored
+     * compactly and in order, even when the off-heap memory is exhausted.</p>
+     */
+    static class Pool {
+        private final Queue<ByteBuffer> _segments = new ConcurrentLinkedQueue<>();
+        private final AtomicLong _directBytes = new AtomicLong();
+        private final AtomicLong _usedBytes = new AtomicLong();
+        private final int _segmentSize;
+        private final long _maxDirectBytes;
+
+        Pool(int segmentSize, long maxDirectBytes) {
+            if (segmentSize <= Integer.BYTES) {
+                throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+            }
+            _segmentSize = segmentSize;
+            _maxDirectBytes = maxDirectBytes;
+        }
+
+        /**
+         * @param length the min capacity of the segment
+         * @return a cleared segment
+         */
+        ByteBuffer acquire(int length) {
+            ByteBuffer segment = null;
+            if (length <= _segmentSize) {
+                segment = _segments.poll();
+                if (segment == null && reserve()) {
+                    segment = ByteBuffer.allocateDirect(_segmentSize);
+                }
+            }
+            if (segment == null) {
+                segment = ByteBuffer.allocate(Math.max(length, _segmentSize));
+            }
+            _usedBytes.addAndGet(segment.capacity());
+            return segment;
+        }
+
+        private boolean reserve() {
+            while (true) {
+                long direct = _directBytes.get();
+                long updated = direct + _segmentSize;
+                if (_maxDirectBytes > 0 && updated > _maxDirectBytes) {
+                    return false;
+                }
+                if (_directBytes.compareAndSet(direct, updated)) {
+                    return true;
+                }
+            }
+        }
+
+        void release(ByteBuffer segment) {
+            _usedBytes.addAndGet(-segment.capacity());
+            // Heap segments are left to the garbage collector.
+            if (segment.isDirect()) {
+                segment.clear();
+                _segments.offer(segment);
+            }
+        }
+
+        /**
+         * @return the bytes of the segments in use
+         */
+        long getUsedBytes() {
+            return _usedBytes.get();
+        }
+
+        /**
+         * @return the bytes of the off-heap segments allocated
+         */
+        long getDirectBytes() {
+            return _directBytes.get();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.cometd.bayeux.server.ServerMessage;
+
+/**
+ * <p>Tracks the replay of the retained or journaled messages of a channel
+ * to a session that subscribes to that channel.</p>
+ * <p>The replay starts before the session is subscribed, so that messages
+ * delivered live while the snapshot of the retained or journaled messages
+ * is taken and delivered are deferred until the replay is complete.</p>
+ * <p>Once the replay is complete, the deferred messages are delivered in order,
+ * but discarded if their sequence number is not greater than the last sequence
+ * number of the snapshot, because they have either been replayed or been evicted
+ * before the snapshot was taken, unless they were skipped by the snapshot because
+ * they were not journaled yet.</p>
+ */
+class SubscriptionReplay {
+    private final boolean _journal;
+    private List<Deferred> _deferred = new ArrayList<>();
+    private long _last = Long.MAX_VALUE;
+    private Set<Long> _skipped = Collections.emptySet();
+
+    /**
+     * @param journal whether the replayed messages are journaled messages, rather than retained messages
+     */
+    SubscriptionReplay(boolean journal) {
+        _journal = journal;
+    }
+
+    /**
+     * @param message the message delivered live
+     * @return the sequence number of the given message, or 0 if it has none
+     */
+    private long sequenceOf(ServerMessage message) {
+        if (_journal) {
+            Map<String, Object> ext = message.getExt();
+            Object sequence = ext == null ? null : ext.get(ServerChannelImpl.JOURNAL_FIELD);
+            return sequence instanceof Number ? ((Number)sequence).longValue() : 0;
+        }
+        return message instanceof ServerMessageImpl ? ((ServerMessageImpl)message).getRetainSequence() : 0;
+    }
+
+    /**
+     * <p>Filters a message delivered live to the session.</p>
+     *
+     * @param message  the message delivered live
+     * @param delivery the unfiltered delivery of the message, to run later if the replay is not complete
+     * @return true if the message must be delivered now, false if it has been deferred or discarded
+     */
+    synchronized boolean filter(ServerMessage message, Runnable delivery) {
+        if (_deferred != null) {
+            _deferred.add(new Deferred(message, delivery));
+            return false;
+        }
+        return !isReplayed(message);
+    }
+
+    /**
+     * <p>Completes the replay, and runs the deferred deliveries
+     * of the messages that have not been replayed.</p>
+     * <p>Messages delivered live while the deferred deliveries run
+     * are deferred as well, and run after them, so that they cannot
+     * overtake them.</p>
+     *
+     * @param last    the last sequence number of the snapshot
+     * @param skipped the sequence numbers not greater than the last that the snapshot skipped
+     */
+    void complete(long last, Set<Long> skipped) {
+        synchronized (this) {
+            _last = last;
+            _skipped = skipped;
+        }
+        while (true) {
+            List<Deferred> deferred;
+            synchronized (this) {
+                deferred = _deferred;
+                if (deferred.isEmpty()) {
+                    _deferred = null;
+                    return;
+                }
+                _deferred = new ArrayList<>();
+            }
+            for (Deferred entry : deferred) {
+                if (!isReplayed(entry._message)) {
+                    entry._delivery.run();
+                }
+            }
+        }
+    }
+
+    private boolean isReplayed(ServerMessage message) {
+        long sequence = sequenceOf(message);
+        return sequence > 0 && sequence <= _last && !_skipped.contains(sequence);
+    }
+
+    private static class Deferred {
+        private final ServerMessage _message;
+        private final Runnable _delivery;
+
+        private Deferred(ServerMessage message, Runnable delivery) {
+            _message = message;
+            _delivery = delivery;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+
+/**
+ * <p>Detects extensions and listeners that are synchronous, that is that do not
+ * override the asynchronous callback method, so that the default implementation
+ * of the asynchronous method just calls the blocking method and completes the
+ * promise.</p>
+ * <p>The blocking methods of synchronous extensions and listeners can therefore
+ * be called directly, without the allocation of promises and loop objects.</p>
+ * <p>The detection is performed once per class.</p>
+ */
+final class Synchronous {
+    private static final ClassValue<Boolean> SERVER_INCOMING = new DefaultMethod(BayeuxServer.Extension.class, "incoming", ServerSession.class, ServerMessage.Mutable.class, Promise.class);
+    private static final ClassValue<Boolean> SERVER_OUTGOING = new DefaultMethod(BayeuxServer.Extension.class, "outgoing", ServerSession.class, ServerSession.class, ServerMessage.Mutable.class, Promise.class);
+    private static final ClassValue<Boolean> SESSION_INCOMING = new DefaultMethod(ServerSession.Extension.class, "incoming", ServerSession.class, ServerMessage.Mutable.class, Promise.class);
+    private static final ClassValue<Boolean> SESSION_OUTGOING = new DefaultMethod(ServerSession.Extension.class, "outgoing", ServerSession.class, ServerSession.class, ServerMessage.Mutable.class, Promise.class);
+    private static final ClassValue<Boolean> CHANNEL_LISTENER = new DefaultMethod(ServerChannel.MessageListener.class, "onMessage", ServerSession.class, ServerChannel.class, ServerMessage.Mutable.class, Promise.class);
+    private static final ClassValue<Boolean> SESSION_LISTENER = new DefaultMethod(ServerSession.MessageListener.class, "onMessage", ServerSession.class, ServerSession.class, ServerMessage.class, Promise.class);
+
+    private Synchronous() {
+    }
+
+    static boolean isIncoming(BayeuxServer.Extension extension) {
+        return SERVER_INCOMING.get(extension.getClass());
+    }
+
+    static boolean isOutgoing(BayeuxServer.Extension extension) {
+        return SERVER_OUTGOING.get(extension.getClass());
+    }
+
+    static boolean isIncoming(ServerSession.Extension extension) {
+        return SESSION_INCOMING.get(extension.getClass());
+    }
+
+    static boolean isOutgoing(ServerSession.Extension extension) {
+        return SESSION_OUTGOING.get(extension.getClass());
+    }
+
+    static boolean isListener(ServerChannel.MessageListener listener) {
+        return CHANNEL_LISTENER.get(listener.getClass());
+    }
+
+    static boolean isListener(ServerSession.MessageListener listener) {
+        return SESSION_LISTENER.get(listener.getClass());
+    }
+
+    /**
+     * @param list the list to iterate in reverse order
+     * @param <T> the type of the list elements
+     * @return an iterator positioned at the end of a snapshot of the given list
+     */
+    static <T> ListIterator<T> reverse(List<T> list) {
+        // Move to the end rather than using listIterator(size()),
+        // which is not safe if the list is concurrently modified.
+        ListIterator<T> iterator = list.listIterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+        return iterator;
+    }
+
+    /**
+     * @param current the current element
+     * @param iterator the iterator over the elements after the current one
+     * @param <T> the type of the elements
+     * @return a list with the current element and the remaining elements
+     */
+    static <T> List<T> remaining(T current, Iterator<T> iterator) {
+        List<T> result = new ArrayList<>();
+        result.add(current);
+        iterator.forEachRemaining(result::add);
+        return result;
+    }
+
+    /**
+     * @param current the current element
+     * @param iterator the reverse iterator over the elements before the current one
+     * @param <T> the type of the elements
+     * @return a list with the current element and the previous elements, in reverse order
+     */
+    static <T> List<T> remainingReversed(T current, ListIterator<T> iterator) {
+        List<T> result = new ArrayList<>();
+        result.add(current);
+        while (iterator.hasPrevious()) {
+            result.add(iterator.previous());
+        }
+        return result;
+    }
+
+    private static class DefaultMethod extends ClassValue<Boolean> {
+        private final Class<?> type;
+        private final String name;
+        private final Class<?>[] parameterTypes;
+
+        private DefaultMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+            this.type = type;
+            this.name = name;
+            this.parameterTypes = parameterTypes;
+        }
+
+        @Override
+        protected Boolean computeValue(Class<?> klass) {
+            try {
+                Method method = klass.getMethod(name, parameterTypes);
+                return method.getDeclaringClass() == type;
+            } catch (Throwable x) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Scheduler} based on a hashed timing wheel.</p>
+ * <p>This scheduler is tuned for a large number of short-lived timers that are
+ * mostly cancelled before they expire, such as the timers for {@code /meta/connect}
+ * messages held by the server, or for lazy messages.</p>
+ * <p>Scheduling a task is an append to a concurrent queue, and cancelling a task
+ * is a compare-and-set, while {@link java.util.concurrent.ScheduledThreadPoolExecutor}
+ * needs to insert and remove the task from a heap, under a lock.</p>
+ * <p>The price to pay is the precision: time advances in ticks, so tasks may
+ * run up to one tick later than their expiration time.</p>
+ * <p>Expired tasks are run by the scheduler thread, so they must not block.</p>
+ * <p>This scheduler can be configured via {@link BayeuxServerImpl#setScheduler(Scheduler)}.</p>
+ */
+public class TimingWheelScheduler extends AbstractLifeCycle implements Scheduler {
+    private static final Logger _logger = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    private final Queue<Timeout> _scheduled = new ConcurrentLinkedQueue<>();
+    private final String _name;
+    private final boolean _daemon;
+    private final long _tickNanos;
+    private final Bucket[] _wheel;
+    private volatile Thread _thread;
+
+    public TimingWheelScheduler() {
+        this(null, false);
+    }
+
+    public TimingWheelScheduler(String name, boolean daemon) {
+        this(name, daemon, 20, 512);
+    }
+
+    /**
+     * @param name      the name of the scheduler thread
+     * @param daemon    whether the scheduler thread is a daemon thread
+     * @param tick      the duration of a wheel tick, in milliseconds
+     * @param wheelSize the number of buckets of the wheel, rounded up to a power of 2
+     */
+    public TimingWheelScheduler(String name, boolean daemon, long tick, int wheelSize) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Invalid tick " + tick);
+        }
+        if (wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("Invalid wheel size " + wheelSize);
+        }
+        _name = name == null ? "TimingWheelScheduler-" + hashCode() : name;
+        _daemon = daemon;
+        _tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        _wheel = new Bucket[size];
+        for (int i = 0; i < size; ++i) {
+            _wheel[i] = new Bucket();
+        }
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public boolean isDaemon() {
+        return _daemon;
+    }
+
+    /**
+     * @return the duration of a wheel tick, in milliseconds
+     */
+    public long getTick() {
+        return TimeUnit.NANOSECONDS.toMillis(_tickNanos);
+    }
+
+    /**
+     * @return the number of buckets of the wheel
+     */
+    public int getWheelSize() {
+        return _wheel.length;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        Thread thread = new Thread(new Ticker(System.nanoTime()), _name);
+        thread.setDaemon(_daemon);
+        _thread = thread;
+        thread.start();
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        Thread thread = _thread;
+        _thread = null;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+        // Pending tasks are discarded, like ScheduledExecutorScheduler does.
+        _scheduled.clear();
+        for (Bucket bucket : _wheel) {
+            bucket.clear();
+        }
+        super.doStop();
+    }
+
+    @Override
+    public Task schedule(Runnable task, long delay, TimeUnit units) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + units.toNanos(Math.max(0, delay)));
+        _scheduled.offer(timeout);
+        return timeout;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[%s,tick=%dms,wheel=%d]", getClass().getSimpleName(), hashCode(), getState(), getTick(), getWheelSize());
+    }
+
+    private class Ticker implements Runnable {
+        private final long _startTime;
+        private long _tick;
+
+        private Ticker(long startTime) {
+            _startTime = startTime;
+        }
+
+        @Override
+        public void run() {
+            while (_thread == Thread.currentThread()) {
+                long deadline = _startTime + (_tick + 1) * _tickNanos;
+                long now = System.nanoTime();
+                while (now - deadline < 0) {
+                    LockSupport.parkNanos(deadline - now);
+                    if (_thread != Thread.currentThread()) {
+                        return;
+                    }
+                    now = System.nanoTime();
+                }
+                ++_tick;
+                transfer();
+                _wheel[(int)(_tick & (_wheel.length - 1))].expire(this);
+            }
+        }
+
+        /**
+         * <p>Moves the newly scheduled tasks into their wheel bucket.</p>
+         */
+        private void transfer() {
+            Timeout timeout;
+            while ((timeout = _scheduled.poll()) != null) {
+                if (timeout.isCancelled()) {
+                    continue;
+                }
+                // Round up to the next tick, so that tasks never run early.
+                long ticks = (timeout._deadline - _startTime + _tickNanos - 1) / _tickNanos;
+                ticks = Math.max(ticks, _tick);
+                timeout._rounds = (ticks - _tick) / _wheel.length;
+                _wheel[(int)(ticks & (_wheel.length - 1))].add(timeout);
+            }
+        }
+
+        private void run(Timeout timeout) {
+            try {
+                timeout._task.run();
+            } catch (Throwable x) {
+                _logger.info("Exception while running task " + timeout._task, x);
+            }
+        }
+    }
+
+    /**
+     * <p>A bucket of the wheel, only accessed by the scheduler thread.</p>
+     */
+    private static class Bucket {
+        private Timeout _head;
+
+        private void add(Timeout timeout) {
+            timeout._next = _head;
+            _head = timeout;
+        }
+
+        private void expire(Ticker ticker) {
+            Timeout previous = null;
+            Timeout timeout = _head;
+            while (timeout != null) {
+                Timeout next = timeout._next;
+                boolean remove = true;
+                if (timeout._rounds > 0) {
+                    if (timeout.isCancelled()) {
+                        timeout._next = null;
+                    } else {
+                        --timeout._rounds;
+                        remove = false;
+                    }
+                } else {
+                    timeout._next = null;
+                    if (timeout.expire()) {
+                        ticker.run(timeout);
+                    }
+                }
+                if (remove) {
+                    if (previous == null) {
+                        _head = next;
+                    } else {
+                        previous._next = next;
+                    }
+                } else {
+                    previous = timeout;
+                }
+                timeout = next;
+            }
+        }
+
+        private void clear() {
+            _head = null;
+        }
+    }
+
+    private static class Timeout implements Task {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "_state");
+
+        private final long _deadline;
+        private Runnable _task;
+        private volatile int _state;
+        // Only accessed by the scheduler thread.
+        private long _rounds;
+        private Timeout _next;
+
+        private Timeout(Runnable task, long deadline) {
+            _task = task;
+            _deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                // Do not retain the task until the scheduler
+                // thread discards this cancelled timeout.
+                _task = null;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean expire() {
+            return STATE.compareAndSet(this, PENDING, EXPIRED);
+        }
+
+        private boolean isCancelled() {
+            return _state == CANCELLED;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%x[state=%d]", getClass().getSimpleName(), hashCode(), _state);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.cometd.bayeux.ChannelId;
+
+/**
+ * <p>A segment trie that indexes wild channels (for example {@code /foo/*}
+ * and {@code /foo/**}) by the segments of their {@link ChannelId#getParent() parent}.</p>
+ * <p>Resolving the wild channels that match a non-wild channel such as {@code /foo/bar/baz}
+ * requires a single walk of the trie along the segments {@code foo}, {@code bar} and {@code baz},
+ * stopping as soon as there are no more wild channels down the path, rather than one lookup
+ * in the channels map for each of the {@link ChannelId#getWilds() wild names}.</p>
+ * <p>Lookups are lock-free, while mutations (that only happen when wild channels are
+ * added or removed) are serialized.</p>
+ */
+class WildChannelTrie {
+    private final Node root = new Node(null, null);
+
+    /**
+     * @param channel the wild channel to add to this trie
+     */
+    void add(ServerChannelImpl channel) {
+        ChannelId channelId = channel.getChannelId();
+        synchronized (root) {
+            Node node = root;
+            for (int i = 0, depth = channelId.depth() - 1; i < depth; ++i) {
+                node = node.child(channelId.getSegment(i));
+            }
+            if (channelId.isDeepWild()) {
+                node.deepWild = channel;
+            } else {
+                node.wild = channel;
+            }
+        }
+    }
+
+    /**
+     * @param channel the wild channel to remove from this trie
+     */
+    void remove(ServerChannelImpl channel) {
+        ChannelId channelId = channel.getChannelId();
+        synchronized (root) {
+            Node node = root;
+            for (int i = 0, depth = channelId.depth() - 1; i < depth; ++i) {
+                node = node.children.get(channelId.getSegment(i));
+                if (node == null) {
+                    return;
+                }
+            }
+            if (channelId.isDeepWild()) {
+                if (node.deepWild == channel) {
+                    node.deepWild = null;
+                }
+            } else {
+                if (node.wild == channel) {
+                    node.wild = null;
+                }
+            }
+            // Prune the nodes that do not lead to wild channels anymore.
+            while (node.parent != null && node.isEmpty()) {
+                node.parent.children.remove(node.segment, node);
+                node = node.parent;
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (root) {
+            root.children.clear();
+            root.wild = null;
+            root.deepWild = null;
+        }
+    }
+
+    /**
+     * <p>Returns the wild channels that match the given non-wild channel,
+     * in the same order of {@link ChannelId#getWilds()}, that is from the
+     * shallow wild channel to the deep wild channels with the longest prefix
+     * to the root deep wild channel {@code /**}.</p>
+     *
+     * @param channelId the non-wild channel to match
+     * @return the wild channels that match the given channel
+     */
+    List<ServerChannelImpl> match(ChannelId channelId) {
+        List<ServerChannelImpl> result = new ArrayList<>(4);
+        Node node = root;
+        for (int i = 0, depth = channelId.depth(); i < depth; ++i) {
+            ServerChannelImpl deepWild = node.deepWild;
+            if (deepWild != null) {
+                result.add(0, deepWild);
+            }
+            if (i == depth - 1) {
+                ServerChannelImpl wild = node.wild;
+                if (wild != null) {
+                    result.add(0, wild);
+                }
+                break;
+            }
+            node = node.children.get(channelId.getSegment(i));
+            if (node == null) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static class Node {
+        private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<>();
+        private final Node parent;
+        private final String segment;
+        private volatile ServerChannelImpl wild;
+        private volatile ServerChannelImpl deepWild;
+
+        private Node(Node parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+        }
+
+        private Node child(String segment) {
+            return children.computeIfAbsent(segment, s -> new Node(this, s));
+        }
+
+        private boolean isEmpty() {
+            return wild == null && deepWild == null && children.isEmpty();
+        }
+    }
+}
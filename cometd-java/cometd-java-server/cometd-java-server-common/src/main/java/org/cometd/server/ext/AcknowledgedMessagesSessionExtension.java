@@ -127,6 +127,21 @@ public class AcknowledgedMessagesSessionExtension implements Extension, ServerSe
         }
     }
 
+    @Override
+    public void replaced(ServerSession sender, ServerMessage replaced, ServerMessage message) {
+        synchronized (_session.getLock()) {
+            if (_queue.replace(replaced, message)) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Replaced at batch {} {} for {}", _queue.getBatch(), message, _session);
+                }
+            } else {
+                // The replaced message belongs to a batch that
+                // may have been sent already, so store the message.
+                queued(sender, message);
+            }
+        }
+    }
+
     @Override
     public boolean sendMeta(ServerSession sender, ServerSession to, Mutable message) {
         String channel = message.getChannel();
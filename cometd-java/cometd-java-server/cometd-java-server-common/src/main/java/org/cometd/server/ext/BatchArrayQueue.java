@@ -300,6 +300,35 @@ public class BatchArrayQueue<T> implements Queue<T> {
         }
     }
 
+    /**
+     * <p>Replaces the given element with the given replacement,
+     * provided that the element belongs to the current batch.</p>
+     *
+     * @param element     the element to replace
+     * @param replacement the replacement element
+     * @return whether the element has been replaced
+     */
+    public boolean replace(T element, T replacement) {
+        synchronized (lock) {
+            int cursor = tail;
+            while (cursor != head) {
+                --cursor;
+                if (cursor < 0) {
+                    cursor = elements.length - 1;
+                }
+                // Elements of previous batches may have been sent already.
+                if (batches[cursor] != batch) {
+                    return false;
+                }
+                if (elements[cursor] == element) {
+                    elements[cursor] = Objects.requireNonNull(replacement);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     public void exportMessagesToBatch(Queue<T> target, long batch) {
         synchronized (lock) {
             int cursor = head;
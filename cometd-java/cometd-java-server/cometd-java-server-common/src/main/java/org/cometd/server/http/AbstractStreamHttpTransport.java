@@ -151,6 +151,7 @@ public abstract class AbstractStreamHttpTransport extends AbstractHttpTransport
     protected void write(Context context, List<ServerMessage> messages, Promise<Void> promise) {
         HttpServletRequest request = context.request;
         HttpServletResponse response = context.response;
+        long begin = getBayeux().getLatencyMetrics() == null ? 0 : System.nanoTime();
         try {
             ServerSessionImpl session = context.session;
             List<ServerMessage.Mutable> replies = context.replies;
@@ -204,6 +205,9 @@ public abstract class AbstractStreamHttpTransport extends AbstractHttpTransport
             }
 
             endWrite(response, output);
+            if (begin != 0) {
+                getBayeux().messagesWritten(this, messages, begin);
+            }
             promise.succeed(null);
             writeComplete(context, messages);
         } catch (Throwable x) {
@@ -300,6 +300,7 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
         private final Context context;
         private final List<ServerMessage> messages;
         private final Promise<Void> promise;
+        private final long begin;
         private int messageIndex;
         private int replyIndex;
         private boolean needsComma;
@@ -309,6 +310,7 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
             this.context = context;
             this.messages = messages;
             this.promise = promise;
+            this.begin = getBayeux().getLatencyMetrics() == null ? 0 : System.nanoTime();
         }
 
         @Override
@@ -358,6 +360,9 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
                         break;
                     }
                     case COMPLETE: {
+                        if (begin != 0) {
+                            getBayeux().messagesWritten(AsyncJSONTransport.this, messages, begin);
+                        }
                         promise.succeed(null);
                         writeComplete(context, messages);
                         return;
@@ -15,9 +15,14 @@
  */
 package org.cometd.server.jmx;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.ChannelIdCache;
 import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
 import org.eclipse.jetty.jmx.ObjectMBean;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
@@ -52,6 +57,40 @@ public class BayeuxServerImplMBean extends ObjectMBean {
         return new TreeSet<>(bayeux.getKnownTransportNames());
     }
 
+    @ManagedAttribute(value = "The number of ChannelId cache hits", readonly = true)
+    public long getChannelIdCacheHits() {
+        return ChannelIdCache.getDefault().getHits();
+    }
+
+    @ManagedAttribute(value = "The number of ChannelId cache misses", readonly = true)
+    public long getChannelIdCacheMisses() {
+        return ChannelIdCache.getDefault().getMisses();
+    }
+
+    @ManagedAttribute(value = "The number of ChannelId cache evictions", readonly = true)
+    public long getChannelIdCacheEvictions() {
+        return ChannelIdCache.getDefault().getEvictions();
+    }
+
+    @ManagedAttribute(value = "The number of ChannelIds cached", readonly = true)
+    public int getChannelIdCacheSize() {
+        return ChannelIdCache.getDefault().getSize();
+    }
+
+    @ManagedAttribute(value = "The ids of the sessions that dropped messages due to queue overflow, with the number of messages dropped", readonly = true)
+    public Map<String, Long> getShedSessions() {
+        Map<String, Long> result = new TreeMap<>();
+        for (ServerSession session : bayeux.getSessions()) {
+            if (session instanceof ServerSessionImpl) {
+                long dropped = ((ServerSessionImpl)session).getDroppedMessages();
+                if (dropped > 0) {
+                    result.put(session.getId(), dropped);
+                }
+            }
+        }
+        return result;
+    }
+
     // Replicated here because ConcurrentMap.KeySet is not serializable
     @ManagedAttribute(value = "The configuration option names", readonly = true)
     public Set<String> getOptionNames() {
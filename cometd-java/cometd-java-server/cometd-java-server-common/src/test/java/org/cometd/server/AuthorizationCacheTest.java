@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.Authorizer;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.authorizer.GrantAuthorizer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class AuthorizationCacheTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testCacheableAuthorizerIsInvokedOnce() throws Exception {
+        startBayeux(60000);
+        CountingAuthorizer authorizer = new CountingAuthorizer(true);
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/auth").getReference();
+        channel.addAuthorizer(authorizer);
+        ServerSessionImpl session = newServerSession();
+
+        for (int i = 0; i < 10; ++i) {
+            Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        }
+
+        Assertions.assertEquals(1, authorizer.count.get());
+        Assertions.assertEquals(1, _bayeux.getAuthorizationCacheMisses());
+        Assertions.assertEquals(9, _bayeux.getAuthorizationCacheHits());
+    }
+
+    @Test
+    public void testNonCacheableAuthorizerIsAlwaysInvoked() throws Exception {
+        startBayeux(60000);
+        CountingAuthorizer authorizer = new CountingAuthorizer(false);
+        _bayeux.createChannelIfAbsent("/auth/*").getReference().addAuthorizer(authorizer);
+        _bayeux.createChannelIfAbsent("/auth/channel").getReference().addAuthorizer(GrantAuthorizer.GRANT_PUBLISH);
+        ServerSessionImpl session = newServerSession();
+
+        for (int i = 0; i < 3; ++i) {
+            Assertions.assertTrue(publish(session, "/auth/channel").isSuccessful());
+        }
+
+        Assertions.assertEquals(3, authorizer.count.get());
+        Assertions.assertEquals(0, _bayeux.getAuthorizationCacheHits());
+    }
+
+    @Test
+    public void testCacheInvalidation() throws Exception {
+        startBayeux(60000);
+        CountingAuthorizer authorizer = new CountingAuthorizer(true);
+        _bayeux.createChannelIfAbsent("/auth").getReference().addAuthorizer(authorizer);
+        ServerSessionImpl session = newServerSession();
+
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertEquals(1, authorizer.count.get());
+
+        // Changing the session attributes invalidates the cache.
+        session.setAttribute("role", "guest");
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertEquals(2, authorizer.count.get());
+
+        // Adding an authorizer invalidates the cache.
+        _bayeux.createChannelIfAbsent("/*").getReference().addAuthorizer(new Authorizer() {
+            @Override
+            public Result authorize(Operation operation, ChannelId channel, ServerSession session, ServerMessage message) {
+                return Result.deny("denied");
+            }
+
+            @Override
+            public boolean isCacheable() {
+                return true;
+            }
+        });
+        Assertions.assertFalse(publish(session, "/auth").isSuccessful());
+        Assertions.assertFalse(publish(session, "/auth").isSuccessful());
+    }
+
+    @Test
+    public void testNonCacheableWildAuthorizerDisablesCache() throws Exception {
+        startBayeux(60000);
+        CountingAuthorizer authorizer = new CountingAuthorizer(true);
+        _bayeux.createChannelIfAbsent("/auth").getReference().addAuthorizer(authorizer);
+        ServerSessionImpl session = newServerSession();
+
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertEquals(1, authorizer.count.get());
+
+        // The channel cacheability is recomputed when an authorizer is added.
+        CountingAuthorizer wild = new CountingAuthorizer(false);
+        _bayeux.createChannelIfAbsent("/**").getReference().addAuthorizer(wild);
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertEquals(3, authorizer.count.get());
+        Assertions.assertEquals(2, wild.count.get());
+    }
+
+    @Test
+    public void testCachedAuthorizationExpires() throws Exception {
+        long ttl = 500;
+        startBayeux(ttl);
+        CountingAuthorizer authorizer = new CountingAuthorizer(true);
+        _bayeux.createChannelIfAbsent("/auth").getReference().addAuthorizer(authorizer);
+        ServerSessionImpl session = newServerSession();
+
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertEquals(1, authorizer.count.get());
+
+        Thread.sleep(2 * ttl);
+
+        Assertions.assertTrue(publish(session, "/auth").isSuccessful());
+        Assertions.assertEquals(2, authorizer.count.get());
+    }
+
+    private void startBayeux(long ttl) throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.AUTHORIZATION_CACHE_TTL_OPTION, ttl);
+        _bayeux.start();
+    }
+
+    private ServerMessage.Mutable publish(ServerSessionImpl session, String channel) throws Exception {
+        ServerMessage.Mutable message = _bayeux.newMessage();
+        message.setChannel(channel);
+        message.setClientId(session.getId());
+        message.setData("data");
+        CompletableFuture<ServerMessage.Mutable> reply = new CompletableFuture<>();
+        _bayeux.handle(session, message, Promise.from(reply::complete, reply::completeExceptionally));
+        return reply.get(5, TimeUnit.SECONDS);
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+
+    private static class CountingAuthorizer implements Authorizer {
+        private final AtomicInteger count = new AtomicInteger();
+        private final boolean cacheable;
+
+        private CountingAuthorizer(boolean cacheable) {
+            this.cacheable = cacheable;
+        }
+
+        @Override
+        public Result authorize(Operation operation, ChannelId channel, ServerSession session, ServerMessage message) {
+            if (operation == Operation.PUBLISH) {
+                count.incrementAndGet();
+                return Result.grant();
+            }
+            return Result.ignore();
+        }
+
+        @Override
+        public boolean isCacheable() {
+            return cacheable;
+        }
+    }
+}
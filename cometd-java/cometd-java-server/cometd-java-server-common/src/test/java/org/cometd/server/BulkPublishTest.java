@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BulkPublishTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testBulkPublishFlushesEachSessionOnce() throws Exception {
+        ServerSessionImpl sessionA = newServerSession();
+        ServerSessionImpl sessionB = newServerSession();
+        ServerSessionImpl sessionWild = newServerSession();
+        _bayeux.createChannelIfAbsent("/bulk/a").getReference().subscribe(sessionA);
+        _bayeux.createChannelIfAbsent("/bulk/b").getReference().subscribe(sessionB);
+        _bayeux.createChannelIfAbsent("/bulk/*").getReference().subscribe(sessionWild);
+        List<List<Object>> framesA = frames(sessionA);
+        List<List<Object>> framesB = frames(sessionB);
+        List<List<Object>> framesWild = frames(sessionWild);
+
+        List<ServerMessage.Mutable> messages = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            messages.add(newMessage(i % 2 == 0 ? "/bulk/a" : "/bulk/b", i));
+        }
+        LocalSession publisher = _bayeux.newLocalSession("bulk");
+        publisher.handshake();
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        _bayeux.publish(publisher, messages, Promise.from(result::complete, result::completeExceptionally));
+
+        Assertions.assertTrue(result.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(Collections.singletonList(Arrays.asList(0, 2, 4, 6, 8)), framesA);
+        Assertions.assertEquals(Collections.singletonList(Arrays.asList(1, 3, 5, 7, 9)), framesB);
+        Assertions.assertEquals(Collections.singletonList(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)), framesWild);
+    }
+
+    @Test
+    public void testBulkPublishWithRejectedMessage() throws Exception {
+        ServerSessionImpl session = newServerSession();
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/bulk").getReference();
+        channel.subscribe(session);
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                return !Integer.valueOf(1).equals(message.getData());
+            }
+        });
+        List<List<Object>> frames = frames(session);
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        _bayeux.publish(null, Arrays.asList(newMessage("/bulk", 0), newMessage("/bulk", 1), newMessage("/bulk", 2)),
+                Promise.from(result::complete, result::completeExceptionally));
+
+        Assertions.assertFalse(result.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(Collections.singletonList(Arrays.asList(0, 2)), frames);
+    }
+
+    @Test
+    public void testBulkPublishToWildChannelThrows() {
+        Assertions.assertThrows(IllegalStateException.class, () ->
+                _bayeux.publish(null, Collections.singletonList(newMessage("/bulk/*", 0)), Promise.noop()));
+    }
+
+    private ServerMessage.Mutable newMessage(String channel, Object data) {
+        ServerMessage.Mutable message = _bayeux.newMessage();
+        message.setChannel(channel);
+        message.setData(data);
+        return message;
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+
+    private List<List<Object>> frames(ServerSessionImpl session) {
+        List<List<Object>> frames = Collections.synchronizedList(new ArrayList<>());
+        session.setScheduler(new AbstractServerTransport.Scheduler() {
+            @Override
+            public void schedule() {
+                List<Object> frame = new ArrayList<>();
+                session.takeQueue(Collections.emptyList()).forEach(message -> frame.add(message.getData()));
+                if (!frame.isEmpty()) {
+                    frames.add(frame);
+                }
+            }
+        });
+        return frames;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.HashMapMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ChannelJournalTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testJournalSequenceNumbers() throws Exception {
+        ServerChannelImpl channel = newChannel("/journal");
+        channel.setJournal(3);
+
+        List<ServerMessage> messages = subscribe("/journal", null);
+        for (int i = 0; i < 5; ++i) {
+            channel.publish(null, "data" + i, Promise.noop());
+        }
+
+        Assertions.assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), sequences(messages));
+        Assertions.assertEquals(5, channel.getJournalSequence());
+        // Older messages have been overwritten.
+        Assertions.assertEquals(Arrays.asList(3L, 4L, 5L), sequences(channel.getJournalMessages(1)));
+        Assertions.assertEquals(Arrays.asList(4L, 5L), sequences(channel.getJournalMessages(4)));
+        Assertions.assertTrue(channel.getJournalMessages(6).isEmpty());
+    }
+
+    @Test
+    public void testResumeOnSubscribe() throws Exception {
+        ServerChannelImpl channel = newChannel("/journal");
+        channel.setJournal(16);
+        for (int i = 0; i < 5; ++i) {
+            channel.publish(null, "data" + i, Promise.noop());
+        }
+
+        List<ServerMessage> messages = subscribe("/journal", 3L);
+        Assertions.assertEquals(Arrays.asList("data2", "data3", "data4"), data(messages));
+
+        Map<String, Object> resume = new HashMap<>();
+        resume.put("/journal", 5L);
+        messages = subscribe("/journal", resume);
+        Assertions.assertEquals(Collections.singletonList("data4"), data(messages));
+
+        // Without resume, nothing is delivered.
+        messages = subscribe("/journal", null);
+        Assertions.assertTrue(messages.isEmpty());
+    }
+
+    @Test
+    public void testResumeDeliversMessagePublishedDuringSubscribeOnce() throws Exception {
+        ServerChannelImpl channel = newChannel("/journal");
+        channel.setJournal(16);
+        for (int i = 0; i < 5; ++i) {
+            channel.publish(null, "data" + i, Promise.noop());
+        }
+
+        // Publish a message after the subscriber has been added,
+        // but before the journaled messages are replayed.
+        channel.addListener(new ServerChannel.SubscriptionListener() {
+            @Override
+            public void subscribed(ServerSession session, ServerChannel channel, ServerMessage message) {
+                channel.publish(null, "data5", Promise.noop());
+            }
+        });
+
+        List<ServerMessage> messages = subscribe("/journal", 4L);
+        Assertions.assertEquals(Arrays.asList("data3", "data4", "data5"), data(messages));
+    }
+
+    @Test
+    public void testResumeSkipsMessagesNotJournaledYet() throws Exception {
+        ServerChannelImpl channel = newChannel("/journal");
+        channel.setJournal(16);
+        // The first message has a sequence number, but is not journaled yet.
+        ServerMessage.Mutable late = _bayeux.newMessage();
+        late.setChannel("/journal");
+        late.setData("late");
+        long sequence = channel.journalSequence(late);
+        channel.publish(null, "data", Promise.noop());
+
+        LocalSession session = _bayeux.newLocalSession("journal");
+        session.handshake();
+        List<ServerMessage> messages = subscribe(session, "/journal", 1L);
+        Assertions.assertEquals(Collections.singletonList("data"), data(messages));
+
+        // The late message is delivered when it is journaled.
+        _bayeux.freeze(late);
+        channel.journal(sequence, late);
+        ServerSessionImpl subscriber = (ServerSessionImpl)session.getServerSession();
+        subscriber.deliver1(null, late, Promise.noop());
+        Assertions.assertEquals(Arrays.asList("data", "late"), data(messages));
+    }
+
+    @Test
+    public void testMappedFileJournal(@TempDir Path dir) throws Exception {
+        ServerChannelImpl channel = newChannel("/journal");
+        channel.setJournal(4, dir.resolve("journal.bin"), 128);
+
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 20; ++i) {
+            large.append("0123456789");
+        }
+        for (int i = 0; i < 5; ++i) {
+            channel.publish(null, "data" + i, Promise.noop());
+        }
+        channel.publish(null, large.toString(), Promise.noop());
+
+        List<ServerMessage> journaled = channel.getJournalMessages(1);
+        Assertions.assertEquals(Arrays.asList("data2", "data3", "data4", large.toString()), data(journaled));
+        Assertions.assertEquals(Arrays.asList(3L, 4L, 5L, 6L), sequences(journaled));
+        // Journaled messages are frozen with the original JSON.
+        ServerMessageImpl message = (ServerMessageImpl)journaled.get(0);
+        Assertions.assertNotNull(message.getJSON());
+
+        List<ServerMessage> messages = subscribe("/journal", 5L);
+        Assertions.assertEquals(Arrays.asList("data4", large.toString()), data(messages));
+
+        channel.remove();
+        Assertions.assertFalse(channel.isJournaled());
+    }
+
+    @Test
+    public void testJournaledChannelIsNotSwept() throws Exception {
+        ServerChannelImpl channel = newChannel("/journal");
+        channel.setJournal(4);
+        for (int i = 0; i < 5; ++i) {
+            _bayeux.sweep();
+        }
+        Assertions.assertNotNull(_bayeux.getChannel("/journal"));
+    }
+
+    private ServerChannelImpl newChannel(String channelName) {
+        return (ServerChannelImpl)_bayeux.createChannelIfAbsent(channelName).getReference();
+    }
+
+    private List<ServerMessage> subscribe(String channelName, Object resume) {
+        LocalSession session = _bayeux.newLocalSession("journal");
+        session.handshake();
+        return subscribe(session, channelName, resume);
+    }
+
+    private List<ServerMessage> subscribe(LocalSession session, String channelName, Object resume) {
+        List<ServerMessage> messages = new ArrayList<>();
+        session.getServerSession().addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                messages.add(message);
+                return true;
+            }
+        });
+        Message.Mutable subscribe = new HashMapMessage();
+        if (resume != null) {
+            subscribe.getExt(true).put(ServerChannelImpl.JOURNAL_FIELD, resume);
+        }
+        session.getChannel(channelName).subscribe(subscribe, (channel, message) -> {}, null);
+        return messages;
+    }
+
+    private List<Object> sequences(List<ServerMessage> messages) {
+        return messages.stream()
+                .map(message -> ((Number)message.getExt().get(ServerChannelImpl.JOURNAL_FIELD)).longValue())
+                .collect(Collectors.toList());
+    }
+
+    private List<Object> data(List<ServerMessage> messages) {
+        return messages.stream()
+                .map(ServerMessage::getData)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ChannelMetricsTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testMetricsDisabledByDefault() throws Exception {
+        _bayeux.start();
+
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/disabled").getReference();
+        channel.publish(null, "data", Promise.noop());
+
+        Assertions.assertNull(channel.getMetrics());
+        Assertions.assertTrue(_bayeux.getHotChannels(10).isEmpty());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.CHANNEL_METRICS_OPTION, 1);
+        _bayeux.start();
+
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/metrics").getReference();
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                try {
+                    Thread.sleep(1);
+                    return true;
+                } catch (InterruptedException x) {
+                    throw new RuntimeException(x);
+                }
+            }
+        });
+        int subscribers = 3;
+        for (int i = 0; i < subscribers; ++i) {
+            channel.subscribe(newServerSession());
+        }
+        ServerChannelImpl wildChannel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/*").getReference();
+        wildChannel.subscribe(newServerSession());
+
+        int count = 5;
+        for (int i = 0; i < count; ++i) {
+            channel.publish(null, "data", Promise.noop());
+        }
+
+        ChannelMetrics metrics = channel.getMetrics();
+        Assertions.assertEquals(count, metrics.getPublishes());
+        Assertions.assertEquals(count * (subscribers + 1), metrics.getFanOut());
+        Assertions.assertTrue(metrics.getFrozenBytes() > count * "data".length());
+        Assertions.assertTrue(metrics.getListenerTime() >= TimeUnit.MILLISECONDS.toNanos(count));
+        Assertions.assertEquals(0, wildChannel.getMetrics().getPublishes());
+        Assertions.assertNull(((ServerChannelImpl)_bayeux.getChannel("/meta/handshake")).getMetrics());
+    }
+
+    @Test
+    public void testHotChannels() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.CHANNEL_METRICS_OPTION, 1);
+        _bayeux.start();
+
+        int channels = 10;
+        for (int i = 1; i <= channels; ++i) {
+            ServerChannel channel = _bayeux.createChannelIfAbsent("/hot/" + i).getReference();
+            for (int j = 0; j < i; ++j) {
+                channel.publish(null, "data", Promise.noop());
+            }
+        }
+        // Channels without publishes are not reported.
+        _bayeux.createChannelIfAbsent("/cold");
+
+        Map<String, Map<String, Object>> hot = _bayeux.getHotChannels(3);
+        Assertions.assertEquals(3, hot.size());
+        Assertions.assertEquals(new ArrayList<>(Arrays.asList("/hot/10", "/hot/9", "/hot/8")), new ArrayList<>(hot.keySet()));
+        Assertions.assertEquals(10L, hot.get("/hot/10").get("publishes"));
+        Assertions.assertEquals(channels, _bayeux.getHotChannels(100).size());
+    }
+
+    @Test
+    public void testSampledMetrics() throws Exception {
+        int sampleRate = 16;
+        _bayeux.setOption(BayeuxServerImpl.CHANNEL_METRICS_OPTION, sampleRate);
+        _bayeux.start();
+
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/sampled").getReference();
+        channel.subscribe(newServerSession());
+        int count = 20_000;
+        for (int i = 0; i < count; ++i) {
+            channel.publish(null, "data", Promise.noop());
+        }
+
+        ChannelMetrics metrics = channel.getMetrics();
+        Assertions.assertEquals(sampleRate, metrics.getSampleRate());
+        long publishes = metrics.getPublishes();
+        Assertions.assertEquals(0, publishes % sampleRate);
+        // The estimate is within a generous tolerance of the actual value.
+        Assertions.assertTrue(Math.abs(publishes - count) < count / 4, "publishes=" + publishes);
+        long fanOut = metrics.getFanOut();
+        Assertions.assertTrue(Math.abs(fanOut - count) < count / 4, "fanOut=" + fanOut);
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
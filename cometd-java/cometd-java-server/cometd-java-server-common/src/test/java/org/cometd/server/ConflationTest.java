@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.ext.AcknowledgedMessagesSessionExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ConflationTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux.start();
+        _bayeux.createChannelIfAbsent("/quotes", channel -> ((ServerChannelImpl)channel).setConflationKey("symbol"));
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testConflationByDataField() {
+        ServerSessionImpl session = newServerSession();
+
+        session.deliver(null, "/quotes", quote("A", 1), Promise.noop());
+        session.deliver(null, "/quotes", quote("B", 1), Promise.noop());
+        session.deliver(null, "/quotes", quote("A", 2), Promise.noop());
+        session.deliver(null, "/quotes", quote("A", 3), Promise.noop());
+        session.deliver(null, "/quotes", quote("B", 2), Promise.noop());
+        session.deliver(null, "/quotes", quote("C", 1), Promise.noop());
+
+        // Conflated messages keep the position of the message they replace.
+        Assertions.assertEquals(Arrays.asList("A3", "B2", "C1"), quotes(session.takeQueue(Collections.emptyList())));
+        Assertions.assertEquals(3, session.getConflatedMessages());
+    }
+
+    @Test
+    public void testConflationKeyComputedOncePerBroadcast() {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.getChannel("/quotes");
+        ServerSessionImpl session1 = newServerSession();
+        channel.subscribe(session1);
+        ServerSessionImpl session2 = newServerSession();
+        channel.subscribe(session2);
+
+        channel.publish(null, quote("A", 1), Promise.noop());
+        channel.publish(null, quote("A", 2), Promise.noop());
+
+        List<ServerMessage> queue1 = session1.takeQueue(Collections.emptyList());
+        List<ServerMessage> queue2 = session2.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(Collections.singletonList("A2"), quotes(queue1));
+        Assertions.assertEquals(Collections.singletonList("A2"), quotes(queue2));
+        // The same frozen message, with the same conflation key, is queued to all sessions.
+        ServerMessageImpl message = (ServerMessageImpl)queue1.get(0);
+        Assertions.assertSame(message, queue2.get(0));
+        Assertions.assertNotNull(message.getConflationKey());
+    }
+
+    @Test
+    public void testConflationByExtField() {
+        ServerSessionImpl session = newServerSession();
+
+        for (int i = 0; i < 3; ++i) {
+            ServerMessage.Mutable message = _bayeux.newMessage();
+            message.setChannel("/quotes");
+            message.setData("price" + i);
+            message.getExt(true).put("symbol", "A");
+            session.deliver(null, message, Promise.noop());
+        }
+        // Messages without the conflation key are not conflated.
+        session.deliver(null, "/quotes", "news", Promise.noop());
+        session.deliver(null, "/quotes", "news", Promise.noop());
+
+        List<Object> data = session.takeQueue(Collections.emptyList()).stream()
+                .map(ServerMessage::getData)
+                .collect(Collectors.toList());
+        Assertions.assertEquals(Arrays.asList("price2", "news", "news"), data);
+    }
+
+    @Test
+    public void testDeliveredMessagesAreNotConflated() {
+        ServerSessionImpl session = newServerSession();
+
+        session.deliver(null, "/quotes", quote("A", 1), Promise.noop());
+        Assertions.assertEquals(Collections.singletonList("A1"), quotes(session.takeQueue(Collections.emptyList())));
+
+        session.deliver(null, "/quotes", quote("A", 2), Promise.noop());
+        session.deliver(null, "/quotes", quote("A", 3), Promise.noop());
+        Assertions.assertEquals(Collections.singletonList("A3"), quotes(session.takeQueue(Collections.emptyList())));
+    }
+
+    @Test
+    public void testRemovedMessagesAreNotConflated() {
+        ServerSessionImpl session = newServerSession();
+
+        session.deliver(null, "/quotes", quote("A", 1), Promise.noop());
+        session.deliver(null, "/quotes", quote("B", 1), Promise.noop());
+        session.getQueue().poll();
+        session.deliver(null, "/quotes", quote("A", 2), Promise.noop());
+
+        Assertions.assertEquals(Arrays.asList("B1", "A2"), quotes(session.takeQueue(Collections.emptyList())));
+    }
+
+    @Test
+    public void testLazyMessageReplacedByNonLazyMessage() {
+        ServerSessionImpl session = newServerSession();
+
+        ServerMessage.Mutable lazy = _bayeux.newMessage();
+        lazy.setChannel("/quotes");
+        lazy.setData(quote("A", 1));
+        lazy.setLazy(true);
+        session.deliver(null, lazy, Promise.noop());
+        Assertions.assertFalse(session.hasNonLazyMessages());
+
+        session.deliver(null, "/quotes", quote("A", 2), Promise.noop());
+        Assertions.assertTrue(session.hasNonLazyMessages());
+        Assertions.assertEquals(1, session.getQueue().size());
+    }
+
+    @Test
+    public void testConflationWithAcknowledgedMessages() {
+        ServerSessionImpl session = newServerSession();
+        AcknowledgedMessagesSessionExtension extension = new AcknowledgedMessagesSessionExtension(session);
+        session.addExtension(extension);
+
+        session.deliver(null, "/quotes", quote("A", 1), Promise.noop());
+        session.deliver(null, "/quotes", quote("B", 1), Promise.noop());
+        session.deliver(null, "/quotes", quote("A", 2), Promise.noop());
+
+        ServerMessage.Mutable reply = _bayeux.newMessage();
+        reply.setId("1");
+        reply.setChannel(Channel.META_CONNECT);
+        extension.sendMeta(null, session, reply);
+        Assertions.assertEquals(Arrays.asList("A2", "B1"), quotes(session.takeQueue(Collections.singletonList(reply))));
+
+        // Unacknowledged messages belong to a sent batch, so they are not replaced.
+        session.deliver(null, "/quotes", quote("A", 3), Promise.noop());
+        session.deliver(null, "/quotes", quote("A", 4), Promise.noop());
+
+        reply = _bayeux.newMessage();
+        reply.setId("2");
+        reply.setChannel(Channel.META_CONNECT);
+        extension.sendMeta(null, session, reply);
+        Assertions.assertEquals(Arrays.asList("A2", "B1", "A4"), quotes(session.takeQueue(Collections.singletonList(reply))));
+    }
+
+    private Map<String, Object> quote(String symbol, int price) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("symbol", symbol);
+        data.put("price", price);
+        return data;
+    }
+
+    private List<String> quotes(List<ServerMessage> messages) {
+        return messages.stream()
+                .map(ServerMessage::getDataAsMap)
+                .map(data -> "" + data.get("symbol") + data.get("price"))
+                .collect(Collectors.toList());
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class FlushCoalescingTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testLowRateFlushesImmediately() throws Exception {
+        startBayeux(TimeUnit.SECONDS.toMicros(10), 1000);
+        ServerSessionImpl session = newServerSession();
+        BlockingQueue<Integer> frames = new LinkedBlockingQueue<>();
+        session.setScheduler(new FrameScheduler(session, frames));
+
+        for (int i = 0; i < 5; ++i) {
+            session.deliver(null, "/foo", "data" + i, Promise.noop());
+            // Each message is flushed before deliver() returns.
+            Assertions.assertEquals(1, frames.poll());
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testHighRateFlushesAreCoalesced() throws Exception {
+        long window = TimeUnit.MILLISECONDS.toMicros(500);
+        startBayeux(window, 1000);
+        ServerSessionImpl session = newServerSession();
+        BlockingQueue<Integer> frames = new LinkedBlockingQueue<>();
+        session.setScheduler(new FrameScheduler(session, frames));
+
+        int count = 1000;
+        for (int i = 0; i < count; ++i) {
+            session.deliver(null, "/foo", "data" + i, Promise.noop());
+        }
+
+        // Only the first messages, until the rate is detected,
+        // are flushed immediately, the others within the window.
+        int flushed = 0;
+        int framesCount = 0;
+        while (flushed < count) {
+            Integer frame = frames.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(frame);
+            flushed += frame;
+            ++framesCount;
+        }
+        Assertions.assertTrue(framesCount < 20, "frames: " + framesCount);
+    }
+
+    @Test
+    public void testNonPositiveRateAlwaysCoalesces() throws Exception {
+        long window = TimeUnit.MILLISECONDS.toMicros(200);
+        startBayeux(window, 0);
+        ServerSessionImpl session = newServerSession();
+        BlockingQueue<Integer> frames = new LinkedBlockingQueue<>();
+        session.setScheduler(new FrameScheduler(session, frames));
+
+        long begin = System.nanoTime();
+        session.deliver(null, "/foo", "data1", Promise.noop());
+        session.deliver(null, "/foo", "data2", Promise.noop());
+        Assertions.assertNull(frames.poll());
+
+        Assertions.assertEquals(2, frames.poll(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin);
+        Assertions.assertTrue(elapsed >= window, "elapsed: " + elapsed);
+    }
+
+    private void startBayeux(long coalesceWindow, long coalesceRate) throws Exception {
+        _bayeux.setOption(AbstractServerTransport.COALESCE_WINDOW_OPTION, coalesceWindow);
+        _bayeux.setOption(AbstractServerTransport.COALESCE_RATE_OPTION, coalesceRate);
+        _bayeux.start();
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        ServerMessageImpl handshake = (ServerMessageImpl)_bayeux.newMessage();
+        handshake.setServerTransport(_bayeux.getTransport(_bayeux.getAllowedTransports().get(0)));
+        _bayeux.addServerSession(session, handshake);
+        session.handshake(handshake);
+        session.connected();
+        return session;
+    }
+
+    private static class FrameScheduler implements AbstractServerTransport.Scheduler {
+        private final ServerSessionImpl _session;
+        private final BlockingQueue<Integer> _frames;
+
+        private FrameScheduler(ServerSessionImpl session, BlockingQueue<Integer> frames) {
+            _session = session;
+            _frames = frames;
+        }
+
+        @Override
+        public void schedule() {
+            int size = _session.takeQueue(Collections.emptyList()).size();
+            if (size > 0) {
+                _frames.offer(size);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class IndexedArrayQueueTest {
+    @Test
+    public void testRemovedElementsAreSkipped() {
+        IndexedArrayQueue<String> queue = new IndexedArrayQueue<>(4);
+        for (String element : Arrays.asList("e0", "e1", "e2", "e3", "e4", "e5")) {
+            queue.offer(element);
+        }
+        long first = queue.firstSequence();
+
+        Assertions.assertTrue(queue.remove(first + 1, "e1"));
+        Assertions.assertTrue(queue.remove(first + 4, "e4"));
+        // Already removed.
+        Assertions.assertFalse(queue.remove(first + 1, "e1"));
+        Assertions.assertNull(queue.get(first + 1));
+        Assertions.assertEquals(4, queue.size());
+        Assertions.assertEquals(Arrays.asList("e0", "e2", "e3", "e5"), new ArrayList<>(queue));
+
+        // The sequence numbers do not change when elements are removed.
+        Assertions.assertEquals("e5", queue.get(first + 5));
+        Assertions.assertTrue(queue.replace(first + 5, "e5", "E5"));
+
+        Assertions.assertEquals("e0", queue.poll());
+        // The tombstone at the head is skipped.
+        Assertions.assertEquals("e2", queue.peek());
+        Assertions.assertEquals("e2", queue.poll());
+        Assertions.assertEquals("e3", queue.poll());
+        Assertions.assertEquals("E5", queue.poll());
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        IndexedArrayQueue<String> queue = new IndexedArrayQueue<>();
+        for (String element : Arrays.asList("e0", "e1", "e2", "e3", "e4")) {
+            queue.offer(element);
+        }
+        long first = queue.firstSequence();
+        Assertions.assertTrue(queue.remove(first + 1, "e1"));
+
+        Iterator<String> iterator = queue.iterator();
+        Assertions.assertEquals("e0", iterator.next());
+        // Removing the head reclaims the following tombstone.
+        iterator.remove();
+        Assertions.assertEquals("e2", iterator.next());
+        Assertions.assertEquals("e3", iterator.next());
+        iterator.remove();
+        Assertions.assertEquals("e4", iterator.next());
+        Assertions.assertFalse(iterator.hasNext());
+
+        Assertions.assertEquals(Arrays.asList("e2", "e4"), new ArrayList<>(queue));
+        Assertions.assertEquals("e4", queue.get(first + 4));
+    }
+}
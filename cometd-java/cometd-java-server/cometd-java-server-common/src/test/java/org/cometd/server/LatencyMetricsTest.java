@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.bayeux.server.ServerTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyMetricsTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; ++i) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(10_000, snapshot.getCount());
+        Assertions.assertEquals(TimeUnit.MICROSECONDS.toNanos(10_000), snapshot.getMax());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(5_000), snapshot.getValueAtPercentile(50));
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(9_900), snapshot.getValueAtPercentile(99));
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(5_000), snapshot.getMean());
+    }
+
+    @Test
+    public void testHistogramIntervalSnapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+        Assertions.assertEquals(1, histogram.intervalSnapshot().getCount());
+
+        for (int i = 0; i < 10; ++i) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        LatencyHistogram.Snapshot interval = histogram.intervalSnapshot();
+        Assertions.assertEquals(10, interval.getCount());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(10), interval.getMax());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(10), interval.getMean());
+        Assertions.assertEquals(0, histogram.intervalSnapshot().getCount());
+
+        // The cumulative snapshot is not affected by the interval snapshots.
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(11, snapshot.getCount());
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), snapshot.getMax());
+    }
+
+    @Test
+    public void testLatenciesDisabledByDefault() throws Exception {
+        _bayeux.start();
+
+        Assertions.assertNull(_bayeux.getLatencyMetrics());
+        Assertions.assertTrue(_bayeux.getChannelLatencies(false).isEmpty());
+    }
+
+    @Test
+    public void testLatenciesByStage() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.LATENCY_HISTOGRAMS_OPTION, "/chat/**, /**");
+        _bayeux.start();
+
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/chat/room").getReference();
+        long listenerDelay = 10;
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                try {
+                    Thread.sleep(listenerDelay);
+                    return true;
+                } catch (InterruptedException x) {
+                    throw new RuntimeException(x);
+                }
+            }
+        });
+        ServerSessionImpl publisher = newServerSession();
+        ServerSessionImpl subscriber = newServerSession();
+        channel.subscribe(subscriber);
+
+        ServerMessageImpl message = (ServerMessageImpl)_bayeux.newMessage();
+        message.setChannel(channel.getId());
+        message.setClientId(publisher.getId());
+        message.setData("data");
+        _bayeux.handle(publisher, message, Promise.noop());
+
+        long queueDelay = 20;
+        Thread.sleep(queueDelay);
+        List<ServerMessage> messages = subscriber.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(1, messages.size());
+        ServerTransport transport = _bayeux.getTransport(_bayeux.getAllowedTransports().get(0));
+        _bayeux.messagesWritten(transport, messages, System.nanoTime());
+
+        Map<String, Map<String, Map<String, Object>>> latencies = _bayeux.getChannelLatencies(false);
+        Assertions.assertEquals(2, latencies.size());
+        // The message matches the first pattern only.
+        Assertions.assertTrue(latencies.get("/**").isEmpty());
+        Map<String, Map<String, Object>> stages = latencies.get("/chat/**");
+        for (LatencyMetrics.Stage stage : LatencyMetrics.Stage.values()) {
+            Assertions.assertEquals(1L, stages.get(stage.name()).get("count"), stage.name());
+        }
+        long listenersMicros = (Long)stages.get(LatencyMetrics.Stage.LISTENERS.name()).get("maxMicros");
+        Assertions.assertTrue(listenersMicros >= TimeUnit.MILLISECONDS.toMicros(listenerDelay));
+        long queueMicros = (Long)stages.get(LatencyMetrics.Stage.QUEUE.name()).get("maxMicros");
+        Assertions.assertTrue(queueMicros >= TimeUnit.MILLISECONDS.toMicros(queueDelay));
+        long totalMicros = (Long)stages.get(LatencyMetrics.Stage.TOTAL.name()).get("maxMicros");
+        Assertions.assertTrue(totalMicros >= TimeUnit.MILLISECONDS.toMicros(listenerDelay + queueDelay));
+
+        Map<String, Map<String, Object>> transportStages = _bayeux.getTransportLatencies(false).get(transport.getName());
+        Assertions.assertEquals(3, transportStages.size());
+        Assertions.assertEquals(1L, transportStages.get(LatencyMetrics.Stage.TOTAL.name()).get("count"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assertions.assertTrue(Math.abs(actual - expected) <= expected / 16, "expected=" + expected + ", actual=" + actual);
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ListenerExecutionTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testCallerRuns() {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/caller").getReference();
+        Assertions.assertEquals(ListenerExecutionPolicy.CALLER_RUNS, channel.getListenerExecutionPolicy());
+        List<Thread> threads = new ArrayList<>();
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                threads.add(Thread.currentThread());
+                return true;
+            }
+        });
+
+        channel.publish(null, "data", Promise.noop());
+
+        Assertions.assertEquals(1, threads.size());
+        Assertions.assertSame(Thread.currentThread(), threads.get(0));
+    }
+
+    @Test
+    public void testSerialPreservesOrderOffThread() throws Exception {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/serial").getReference();
+        channel.setListenerExecution(ListenerExecutionPolicy.SERIAL, 0);
+        int count = 100;
+        List<Object> data = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(count);
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                // Only one notification at a time, no need to synchronize.
+                data.add(message.getData());
+                threads.add(Thread.currentThread());
+                latch.countDown();
+                return true;
+            }
+        });
+        ServerSessionImpl subscriber = newServerSession();
+        channel.subscribe(subscriber);
+
+        for (int i = 0; i < count; ++i) {
+            channel.publish(null, i, Promise.noop());
+        }
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; ++i) {
+            Assertions.assertEquals(i, data.get(i));
+            Assertions.assertNotSame(Thread.currentThread(), threads.get(i));
+        }
+        // The delivery to subscribers happens after the listeners have been notified.
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        List<Object> delivered = new ArrayList<>();
+        while (delivered.size() < count && System.nanoTime() < end) {
+            subscriber.takeQueue(new ArrayList<>()).forEach(message -> delivered.add(message.getData()));
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(data, delivered);
+    }
+
+    @Test
+    public void testSerialWaitsForAsyncListenerCompletion() throws Exception {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/serial").getReference();
+        channel.setListenerExecution(ListenerExecutionPolicy.SERIAL, 2);
+        BlockingQueue<Promise<Boolean>> notifications = new LinkedBlockingQueue<>();
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public void onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message, Promise<Boolean> promise) {
+                // Complete the notification later.
+                notifications.offer(promise);
+            }
+        });
+        ServerSessionImpl subscriber = newServerSession();
+        channel.subscribe(subscriber);
+
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        channel.publish(null, 0, Promise.from(first::complete, first::completeExceptionally));
+        CompletableFuture<Boolean> second = new CompletableFuture<>();
+        channel.publish(null, 1, Promise.from(second::complete, second::completeExceptionally));
+
+        Promise<Boolean> notification = notifications.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(notification);
+        // The second notification must wait for the first to complete.
+        Assertions.assertNull(notifications.poll(500, TimeUnit.MILLISECONDS));
+
+        // The pending notifications are bounded until they complete.
+        CompletableFuture<Boolean> third = new CompletableFuture<>();
+        channel.publish(null, 2, Promise.from(third::complete, third::completeExceptionally));
+        Assertions.assertFalse(third.get(5, TimeUnit.SECONDS));
+
+        notification.succeed(true);
+        Assertions.assertTrue(first.get(5, TimeUnit.SECONDS));
+        notification = notifications.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(notification);
+        notification.succeed(true);
+        Assertions.assertTrue(second.get(5, TimeUnit.SECONDS));
+
+        List<ServerMessage> messages = subscriber.takeQueue(new ArrayList<>());
+        Assertions.assertEquals(2, messages.size());
+        Assertions.assertEquals(0, messages.get(0).getData());
+        Assertions.assertEquals(1, messages.get(1).getData());
+    }
+
+    @Test
+    public void testPooledRejectsWhenMaxPendingExceeded() throws Exception {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/pooled").getReference();
+        channel.setListenerExecution(ListenerExecutionPolicy.POOLED, 1);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                entered.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException x) {
+                    throw new RuntimeException(x);
+                }
+                return true;
+            }
+        });
+
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        channel.publish(null, "first", Promise.from(first::complete, first::completeExceptionally));
+        Assertions.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Boolean> second = new CompletableFuture<>();
+        channel.publish(null, "second", Promise.from(second::complete, second::completeExceptionally));
+        Assertions.assertFalse(second.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, channel.getListenerRejections());
+        Assertions.assertEquals(1, _bayeux.getListenerRejections());
+
+        release.countDown();
+        Assertions.assertTrue(first.get(5, TimeUnit.SECONDS));
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
@@ -20,6 +20,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.client.ClientSession;
@@ -212,6 +214,60 @@ public class MessageProcessingOrderTest {
         Assertions.assertEquals(expected, new ArrayList<>(events));
     }
 
+    @Test
+    public void testProcessingOrderMixedSynchronousAsynchronous() throws Exception {
+        Queue<String> events = new ConcurrentLinkedQueue<>();
+
+        LocalSession session = _bayeux.newLocalSession("s0");
+        session.handshake();
+
+        String channelName = "/foo/bar";
+
+        // Synchronous and asynchronous extensions and listeners are interleaved.
+        _bayeux.addExtension(new NamedServerExtension(events, "a"));
+        _bayeux.addExtension(new NamedServerExtension(events, "b") {
+            @Override
+            public void incoming(ServerSession from, ServerMessage.Mutable message, Promise<Boolean> promise) {
+                new Thread(() -> promise.succeed(rcv(from, message))).start();
+            }
+
+            @Override
+            public void outgoing(ServerSession from, ServerSession to, ServerMessage.Mutable message, Promise<Boolean> promise) {
+                new Thread(() -> promise.succeed(send(from, to, message))).start();
+            }
+        });
+        _bayeux.addExtension(new NamedServerExtension(events, "c"));
+        ServerChannel channel = _bayeux.createChannelIfAbsent(channelName).getReference();
+        channel.addListener(new ServerListener(events));
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public void onMessage(ServerSession sender, ServerChannel channel, ServerMessage.Mutable message, Promise<Boolean> promise) {
+                new Thread(() -> {
+                    events.offer("async.chn.lst");
+                    promise.succeed(true);
+                }).start();
+            }
+        });
+        channel.addListener(new ServerListener(events));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        session.getChannel(channelName).publish("data", message -> latch.countDown());
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        List<String> expected = Arrays.asList(
+                "a.srv.ext.rcv",
+                "b.srv.ext.rcv",
+                "c.srv.ext.rcv",
+                "srv.chn.lst",
+                "async.chn.lst",
+                "srv.chn.lst",
+                "c.srv.ext.snd",
+                "b.srv.ext.snd",
+                "a.srv.ext.snd"
+        );
+        Assertions.assertEquals(expected, new ArrayList<>(events));
+    }
+
     private static class ClientListener implements ClientSessionChannel.MessageListener {
         private final Queue<String> events;
         private final String id;
@@ -298,6 +354,30 @@ public class MessageProcessingOrderTest {
         }
     }
 
+    private static class NamedServerExtension implements BayeuxServer.Extension {
+        private final Queue<String> events;
+        private final String id;
+
+        private NamedServerExtension(Queue<String> events, String id) {
+            this.events = events;
+            this.id = id;
+        }
+
+        @Override
+        public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+            events.offer(id + ".srv.ext.rcv");
+            return true;
+        }
+
+        @Override
+        public boolean send(ServerSession from, ServerSession to, ServerMessage.Mutable message) {
+            if (!message.isPublishReply()) {
+                events.offer(id + ".srv.ext.snd");
+            }
+            return true;
+        }
+    }
+
     private static class ServerSessionExtension implements ServerSession.Extension {
         private final Queue<String> events;
         private final String id;
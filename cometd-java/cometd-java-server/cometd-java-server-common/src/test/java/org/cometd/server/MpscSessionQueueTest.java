@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MpscSessionQueueTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.setOption(BayeuxServerImpl.MPSC_SESSION_QUEUE_OPTION, true);
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testConcurrentProducersSingleConsumer() throws Exception {
+        ServerSessionImpl session = newServerSession();
+        int producers = 4;
+        int count = 10_000;
+        CountDownLatch latch = new CountDownLatch(producers);
+        for (int p = 0; p < producers; ++p) {
+            int producer = p;
+            new Thread(() -> {
+                for (int i = 0; i < count; ++i) {
+                    session.deliver(null, "/foo", producer + "_" + i, Promise.noop());
+                }
+                latch.countDown();
+            }).start();
+        }
+
+        int[] next = new int[producers];
+        int total = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (total < producers * count && System.nanoTime() < deadline) {
+            List<ServerMessage> messages = session.takeQueue(Collections.emptyList());
+            for (ServerMessage message : messages) {
+                String[] parts = ((String)message.getData()).split("_");
+                int producer = Integer.parseInt(parts[0]);
+                // Messages from the same producer are in order.
+                Assertions.assertEquals(next[producer]++, Integer.parseInt(parts[1]));
+            }
+            total += messages.size();
+        }
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(producers * count, total);
+        // A producer may set the flag after its last message has been
+        // taken, which only causes a spurious wakeup; take it again.
+        Assertions.assertTrue(session.takeQueue(Collections.emptyList()).isEmpty());
+        Assertions.assertFalse(session.hasNonLazyMessages());
+    }
+
+    @Test
+    public void testNonLazyMessages() {
+        ServerSessionImpl session = newServerSession();
+        Assertions.assertFalse(session.hasNonLazyMessages());
+
+        ServerMessage.Mutable lazy = _bayeux.newMessage();
+        lazy.setChannel("/foo");
+        lazy.setData("lazy");
+        lazy.setLazy(true);
+        session.deliver(null, lazy, Promise.noop());
+        Assertions.assertFalse(session.hasNonLazyMessages());
+
+        session.deliver(null, "/foo", "data", Promise.noop());
+        Assertions.assertTrue(session.hasNonLazyMessages());
+
+        List<ServerMessage> messages = session.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(2, messages.size());
+        Assertions.assertFalse(session.hasNonLazyMessages());
+    }
+
+    @Test
+    public void testQueueListenersSeeAllMessages() {
+        ServerSessionImpl session = newServerSession();
+        // Queued before the listeners are added.
+        session.deliver(null, "/foo", "data0", Promise.noop());
+
+        AtomicInteger queued = new AtomicInteger();
+        ServerSession.QueueListener queueListener = (sender, message) -> queued.incrementAndGet();
+        session.addListener(queueListener);
+        List<Integer> maxedSizes = new ArrayList<>();
+        session.addListener((ServerSession.QueueMaxedListener)(s, queue, sender, message) -> {
+            maxedSizes.add(queue.size());
+            return true;
+        });
+        List<Integer> dequeuedSizes = new ArrayList<>();
+        session.addListener((ServerSession.DeQueueListener)(s, queue) -> dequeuedSizes.add(queue.size()));
+
+        session.deliver(null, "/foo", "data1", Promise.noop());
+        session.deliver(null, "/foo", "data2", Promise.noop());
+
+        Assertions.assertEquals(2, queued.get());
+        Assertions.assertEquals(3, session.getQueue().size());
+
+        List<ServerMessage> messages = session.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(3, messages.size());
+        Assertions.assertEquals("data0", messages.get(0).getData());
+        Assertions.assertEquals(Collections.singletonList(3), dequeuedSizes);
+        // No max queue configured.
+        Assertions.assertTrue(maxedSizes.isEmpty());
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MulticastTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testMulticastExtendsAndFreezesOnce() throws Exception {
+        _bayeux.start();
+        AtomicInteger outgoing = new AtomicInteger();
+        _bayeux.addExtension(new BayeuxServer.Extension() {
+            @Override
+            public boolean send(ServerSession from, ServerSession to, ServerMessage.Mutable message) {
+                Assertions.assertNull(to);
+                outgoing.incrementAndGet();
+                return true;
+            }
+        });
+        List<ServerSessionImpl> sessions = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            sessions.add(newServerSession());
+        }
+
+        ServerMessage.Mutable message = newMessage();
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        _bayeux.multicast(null, sessions, message, Promise.from(result::complete, result::completeExceptionally));
+
+        Assertions.assertTrue(result.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, outgoing.get());
+        for (ServerSessionImpl session : sessions) {
+            List<ServerMessage> queue = session.takeQueue(Collections.emptyList());
+            Assertions.assertEquals(1, queue.size());
+            Assertions.assertSame(message, queue.get(0));
+        }
+    }
+
+    @Test
+    public void testMulticastRejectedByExtension() throws Exception {
+        _bayeux.start();
+        _bayeux.addExtension(new BayeuxServer.Extension() {
+            @Override
+            public boolean send(ServerSession from, ServerSession to, ServerMessage.Mutable message) {
+                return false;
+            }
+        });
+        ServerSessionImpl session = newServerSession();
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        _bayeux.multicast(null, Collections.singletonList(session), newMessage(), Promise.from(result::complete, result::completeExceptionally));
+
+        Assertions.assertFalse(result.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(session.takeQueue(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testMulticastInParallel() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.BROADCAST_PARALLEL_THRESHOLD_OPTION, 100);
+        _bayeux.start();
+        List<ServerSessionImpl> sessions = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            sessions.add(newServerSession());
+        }
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        _bayeux.multicast(null, sessions, newMessage(), Promise.from(result::complete, result::completeExceptionally));
+
+        Assertions.assertTrue(result.get(5, TimeUnit.SECONDS));
+        for (ServerSessionImpl session : sessions) {
+            Assertions.assertEquals(1, session.takeQueue(Collections.emptyList()).size());
+        }
+    }
+
+    private ServerMessage.Mutable newMessage() {
+        ServerMessage.Mutable message = _bayeux.newMessage();
+        message.setChannel("/multicast");
+        message.setData("data");
+        return message;
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ParallelBroadcastTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.setOption(BayeuxServerImpl.BROADCAST_PARALLEL_THRESHOLD_OPTION, 16);
+        _bayeux.setOption(BayeuxServerImpl.BROADCAST_PARALLELISM_OPTION, 4);
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testParallelBroadcastPreservesOrder() throws Exception {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        List<ServerSessionImpl> sessions = new ArrayList<>();
+        for (int i = 0; i < 64; ++i) {
+            ServerSessionImpl session = newServerSession();
+            channel.subscribe(session);
+            sessions.add(session);
+        }
+
+        int count = 32;
+        List<CompletableFuture<Boolean>> completions = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            CompletableFuture<Boolean> completion = new CompletableFuture<>();
+            // Publish without waiting for the previous publish to complete.
+            channel.publish(null, i, Promise.complete((r, x) -> {
+                if (x == null) {
+                    completion.complete(r);
+                } else {
+                    completion.completeExceptionally(x);
+                }
+            }));
+            completions.add(completion);
+        }
+        for (CompletableFuture<Boolean> completion : completions) {
+            Assertions.assertTrue(completion.get(5, TimeUnit.SECONDS));
+        }
+
+        for (ServerSessionImpl session : sessions) {
+            List<ServerMessage> messages = session.takeQueue(new ArrayList<>());
+            Assertions.assertEquals(count, messages.size());
+            for (int i = 0; i < count; ++i) {
+                Assertions.assertEquals(i, messages.get(i).getData());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelBroadcastDeliversOnceAndSkipsPublisher() throws Exception {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        channel.setBroadcastToPublisher(false);
+        ServerChannelImpl wildChannel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+        List<ServerSessionImpl> sessions = new ArrayList<>();
+        for (int i = 0; i < 32; ++i) {
+            ServerSessionImpl session = newServerSession();
+            channel.subscribe(session);
+            if (i % 2 == 0) {
+                wildChannel.subscribe(session);
+            }
+            sessions.add(session);
+        }
+
+        ServerSessionImpl publisher = sessions.get(0);
+        CompletableFuture<Boolean> completion = new CompletableFuture<>();
+        channel.publish(publisher, "data", Promise.from(completion::complete, completion::completeExceptionally));
+        Assertions.assertTrue(completion.get(5, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(0, publisher.getQueue().size());
+        for (ServerSessionImpl session : sessions.subList(1, sessions.size())) {
+            Assertions.assertEquals(1, session.getQueue().size());
+        }
+    }
+
+    @Test
+    public void testInlineDeliveryDoesNotOvertakeLaneDelivery() throws Exception {
+        // Run the lanes manually, to control when they deliver.
+        Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        _bayeux.stop();
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.setExecutor(tasks::offer);
+        _bayeux.setOption(BayeuxServerImpl.BROADCAST_PARALLEL_THRESHOLD_OPTION, 4);
+        _bayeux.setOption(BayeuxServerImpl.BROADCAST_PARALLELISM_OPTION, 1);
+        _bayeux.start();
+
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerChannelImpl smallChannel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/baz").getReference();
+        List<ServerSessionImpl> sessions = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            ServerSessionImpl session = newServerSession();
+            channel.subscribe(session);
+            sessions.add(session);
+        }
+        ServerSessionImpl session = sessions.get(0);
+        smallChannel.subscribe(session);
+
+        // Delivered via the lane.
+        channel.publish(null, 1, Promise.noop());
+        Assertions.assertEquals(0, session.getQueue().size());
+
+        // The subscriber count drops below the threshold.
+        for (ServerSessionImpl s : sessions.subList(1, sessions.size())) {
+            channel.unsubscribe(s);
+        }
+        channel.publish(null, 2, Promise.noop());
+        // A small channel sharing the subscriber.
+        smallChannel.publish(null, 3, Promise.noop());
+        // A multicast to the subscriber.
+        ServerMessage.Mutable message = _bayeux.newMessage();
+        message.setChannel("/qux");
+        message.setData(4);
+        _bayeux.multicast(null, Collections.singletonList(session), message, Promise.noop());
+        Assertions.assertEquals(0, session.getQueue().size());
+
+        // The lane runs only once, delivering all the queued messages.
+        Assertions.assertEquals(1, tasks.size());
+        tasks.poll().run();
+        Assertions.assertTrue(tasks.isEmpty());
+        Assertions.assertEquals(4, session.getQueue().size());
+        List<ServerMessage> messages = session.takeQueue(new ArrayList<>());
+        for (int i = 0; i < 4; ++i) {
+            Assertions.assertEquals(i + 1, messages.get(i).getData());
+        }
+
+        // The lane is idle, the delivery happens in the caller thread.
+        smallChannel.publish(null, 5, Promise.noop());
+        Assertions.assertTrue(tasks.isEmpty());
+        Assertions.assertEquals(1, session.getQueue().size());
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
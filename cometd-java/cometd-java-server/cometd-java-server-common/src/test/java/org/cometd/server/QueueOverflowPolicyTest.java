@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class QueueOverflowPolicyTest {
+    private BayeuxServerImpl _bayeux;
+
+    private void start(Object policy, long maxQueue, long maxQueueBytes) throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.setOption(BayeuxServerImpl.QUEUE_OVERFLOW_POLICY_OPTION, policy);
+        _bayeux.setOption(AbstractServerTransport.MAX_QUEUE_OPTION, maxQueue);
+        _bayeux.setOption(AbstractServerTransport.MAX_QUEUE_BYTES_OPTION, maxQueueBytes);
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        if (_bayeux != null) {
+            _bayeux.stop();
+        }
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        start("drop-oldest", 3, -1);
+        ServerSessionImpl session = newServerSession();
+
+        for (int i = 0; i < 5; ++i) {
+            session.deliver(null, "/foo", "data" + i, Promise.noop());
+        }
+
+        Assertions.assertEquals(Arrays.asList("data2", "data3", "data4"), data(session));
+        Assertions.assertEquals(2, session.getDroppedMessages());
+        Assertions.assertEquals(2, _bayeux.getQueueOverflowDrops());
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        start(QueueOverflowPolicy.DROP_NEWEST, 3, -1);
+        ServerSessionImpl session = newServerSession();
+
+        for (int i = 0; i < 5; ++i) {
+            session.deliver(null, "/foo", "data" + i, Promise.noop());
+        }
+
+        Assertions.assertEquals(Arrays.asList("data0", "data1", "data2"), data(session));
+        Assertions.assertEquals(2, session.getDroppedMessages());
+    }
+
+    @Test
+    public void testDropLazyFirst() throws Exception {
+        start("drop-lazy-first", 3, -1);
+        ServerSessionImpl session = newServerSession();
+
+        session.deliver(null, "/foo", "data0", Promise.noop());
+        session.deliver(null, lazyMessage("/foo", "lazy0"), Promise.noop());
+        session.deliver(null, "/foo", "data1", Promise.noop());
+        // The queue is full, the queued lazy message is evicted first.
+        session.deliver(null, lazyMessage("/foo", "lazy1"), Promise.noop());
+        Assertions.assertEquals(Arrays.asList("data0", "data1", "lazy1"), queued(session));
+        session.deliver(null, "/foo", "data2", Promise.noop());
+        Assertions.assertEquals(Arrays.asList("data0", "data1", "data2"), queued(session));
+        // No lazy message is queued, a lazy message is dropped.
+        session.deliver(null, lazyMessage("/foo", "lazy2"), Promise.noop());
+        // A non-lazy message evicts the oldest.
+        session.deliver(null, "/foo", "data3", Promise.noop());
+
+        Assertions.assertEquals(Arrays.asList("data1", "data2", "data3"), data(session));
+        Assertions.assertEquals(4, session.getDroppedMessages());
+    }
+
+    @Test
+    public void testDisconnect() throws Exception {
+        start("disconnect", 2, -1);
+        ServerSessionImpl session = newServerSession();
+
+        for (int i = 0; i < 3; ++i) {
+            session.deliver(null, "/foo", "data" + i, Promise.noop());
+        }
+
+        Assertions.assertNull(_bayeux.getSession(session.getId()));
+        Assertions.assertEquals(1, _bayeux.getQueueOverflowDisconnects());
+    }
+
+    @Test
+    public void testMaxQueueBytes() throws Exception {
+        start("drop-oldest", -1, 150);
+        ServerSessionImpl session = newServerSession();
+
+        String data = "0123456789012345678901234567890123456789";
+        for (int i = 0; i < 10; ++i) {
+            session.deliver(null, "/foo", data + i, Promise.noop());
+        }
+
+        List<ServerMessage> messages = session.takeQueue(Collections.emptyList());
+        int length = messages.stream().mapToInt(m -> ((ServerMessageImpl)m).getJSON().length()).sum();
+        Assertions.assertTrue(length <= 150);
+        Assertions.assertFalse(messages.isEmpty());
+        Assertions.assertEquals(data + 9, messages.get(messages.size() - 1).getData());
+        Assertions.assertEquals(10 - messages.size(), session.getDroppedMessages());
+    }
+
+    @Test
+    public void testMaxQueueBytesCountsUTF8Bytes() throws Exception {
+        start("drop-oldest", -1, 150);
+        ServerSessionImpl session = newServerSession();
+
+        // 20 chars, but 60 UTF-8 bytes: two messages fit
+        // in 150 chars, but not in 150 UTF-8 bytes.
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 20; ++i) {
+            data.append('€');
+        }
+        session.deliver(null, "/foo", data.toString(), Promise.noop());
+        session.deliver(null, "/foo", data.toString(), Promise.noop());
+
+        List<ServerMessage> messages = session.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(1, messages.size());
+        Assertions.assertEquals(1, session.getDroppedMessages());
+    }
+
+    @Test
+    public void testChannelPolicyOverridesServerPolicy() throws Exception {
+        start("drop-oldest", 2, -1);
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/bar").getReference();
+        channel.setQueueOverflowPolicy(QueueOverflowPolicy.DROP_NEWEST);
+        ServerSessionImpl session = newServerSession();
+
+        for (int i = 0; i < 3; ++i) {
+            session.deliver(null, "/bar", "data" + i, Promise.noop());
+        }
+        Assertions.assertEquals(Arrays.asList("data0", "data1"), data(session));
+
+        for (int i = 0; i < 3; ++i) {
+            session.deliver(null, "/foo", "data" + i, Promise.noop());
+        }
+        Assertions.assertEquals(Arrays.asList("data1", "data2"), data(session));
+    }
+
+    private ServerMessage.Mutable lazyMessage(String channel, Object data) {
+        ServerMessage.Mutable message = _bayeux.newMessage();
+        message.setChannel(channel);
+        message.setData(data);
+        message.setLazy(true);
+        return message;
+    }
+
+    private List<Object> queued(ServerSessionImpl session) {
+        return session.getQueue().stream()
+                .map(ServerMessage::getData)
+                .collect(Collectors.toList());
+    }
+
+    private List<Object> data(ServerSessionImpl session) {
+        return session.takeQueue(Collections.emptyList()).stream()
+                .map(ServerMessage::getData)
+                .collect(Collectors.toList());
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        ServerMessageImpl message = (ServerMessageImpl)_bayeux.newMessage();
+        message.setServerTransport(_bayeux.getTransport(_bayeux.getAllowedTransports().get(0)));
+        _bayeux.addServerSession(session, message);
+        session.handshake(message);
+        session.connected();
+        return session;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RetainedMessagesTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testLastMessagesDeliveredOnSubscribe() throws Exception {
+        _bayeux.start();
+        ServerChannelImpl channel = newChannel("/state");
+        channel.setRetained(2, -1);
+
+        for (int i = 0; i < 3; ++i) {
+            channel.publish(null, "data" + i, Promise.noop());
+        }
+
+        List<ServerMessage> messages = subscribe("/state");
+        Assertions.assertEquals(Arrays.asList("data1", "data2"), data(messages));
+        // The retained messages are delivered without being copied.
+        Assertions.assertSame(channel.getRetainedMessages().get(0), messages.get(0));
+
+        // Subscribers already subscribed do not receive the retained messages again.
+        channel.publish(null, "data3", Promise.noop());
+        Assertions.assertEquals(Arrays.asList("data1", "data2", "data3"), data(messages));
+    }
+
+    @Test
+    public void testMessagePublishedDuringSubscribeIsDeliveredOnceInOrder() throws Exception {
+        _bayeux.start();
+        ServerChannelImpl channel = newChannel("/state");
+        channel.setRetained(10, -1);
+        channel.publish(null, "data0", Promise.noop());
+
+        // Publish a message after the subscriber has been added,
+        // but before the retained messages are replayed.
+        channel.addListener(new ServerChannel.SubscriptionListener() {
+            @Override
+            public void subscribed(ServerSession session, ServerChannel channel, ServerMessage message) {
+                channel.publish(null, "data1", Promise.noop());
+            }
+        });
+
+        List<ServerMessage> messages = subscribe("/state");
+        Assertions.assertEquals(Arrays.asList("data0", "data1"), data(messages));
+
+        channel.publish(null, "data2", Promise.noop());
+        Assertions.assertEquals(Arrays.asList("data0", "data1", "data2"), data(messages));
+    }
+
+    @Test
+    public void testMessagePublishedWhileDeferredMessagesAreDeliveredDoesNotOvertakeThem() throws Exception {
+        _bayeux.start();
+        ServerChannelImpl channel = newChannel("/state");
+        channel.setRetained(10, -1);
+        channel.publish(null, "data0", Promise.noop());
+
+        List<ServerMessage> messages = new ArrayList<>();
+        LocalSession session = _bayeux.newLocalSession("retained");
+        session.handshake();
+        session.getServerSession().addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                Object data = message.getData();
+                if ("data0".equals(data)) {
+                    // Published while the retained messages are replayed,
+                    // so it is deferred until the replay is complete.
+                    channel.publish(null, "data1", Promise.noop());
+                } else if ("data1".equals(data)) {
+                    // Published while the deferred message is delivered.
+                    channel.publish(null, "data2", Promise.noop());
+                }
+                return true;
+            }
+        });
+        session.getServerSession().addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                messages.add(message);
+                return true;
+            }
+        });
+        session.getChannel("/state").subscribe((c, m) -> {});
+
+        Assertions.assertEquals(Arrays.asList("data0", "data1", "data2"), data(messages));
+    }
+
+    @Test
+    public void testKeyedRetainedMessages() throws Exception {
+        _bayeux.start();
+        ServerChannelImpl channel = newChannel("/quotes");
+        channel.setRetained(2, -1);
+        channel.setRetainedKey("symbol");
+
+        channel.publish(null, quote("A", 1), Promise.noop());
+        channel.publish(null, quote("B", 1), Promise.noop());
+        channel.publish(null, quote("A", 2), Promise.noop());
+
+        List<ServerMessage> messages = subscribe("/quotes");
+        Assertions.assertEquals(Arrays.asList(quote("B", 1), quote("A", 2)), data(messages));
+
+        // The oldest key is evicted.
+        channel.publish(null, quote("C", 1), Promise.noop());
+        Assertions.assertEquals(Arrays.asList(quote("A", 2), quote("C", 1)), data(channel.getRetainedMessages()));
+    }
+
+    @Test
+    public void testMaxBytes() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.RETAINED_MAX_BYTES_OPTION, 200);
+        _bayeux.start();
+        ServerChannelImpl channel1 = newChannel("/state/1");
+        channel1.setRetained(10, 100);
+        ServerChannelImpl channel2 = newChannel("/state/2");
+        channel2.setRetained(10, -1);
+
+        for (int i = 0; i < 10; ++i) {
+            channel1.publish(null, "data" + i, Promise.noop());
+        }
+        long bytes1 = _bayeux.getRetainedBytes();
+        Assertions.assertTrue(bytes1 > 0);
+        Assertions.assertTrue(bytes1 <= 100);
+        int retained1 = channel1.getRetainedMessages().size();
+        Assertions.assertTrue(retained1 < 10);
+
+        for (int i = 0; i < 10; ++i) {
+            channel2.publish(null, "data" + i, Promise.noop());
+        }
+        Assertions.assertTrue(_bayeux.getRetainedBytes() <= 200);
+        // The global limit evicts messages from the channel that retains.
+        Assertions.assertEquals(retained1, channel1.getRetainedMessages().size());
+        Assertions.assertEquals("data9", channel2.getRetainedMessages().get(channel2.getRetainedMessages().size() - 1).getData());
+
+        channel1.setRetained(0, -1);
+        channel2.remove();
+        Assertions.assertEquals(0, _bayeux.getRetainedBytes());
+    }
+
+    @Test
+    public void testSweeperEvictsRetainedMessages() throws Exception {
+        _bayeux.start();
+        ServerChannelImpl channel = newChannel("/state");
+        channel.setRetained(10, -1);
+        channel.publish(null, "data", Promise.noop());
+
+        // Channels with retained messages are not swept.
+        for (int i = 0; i < 5; ++i) {
+            _bayeux.sweep();
+        }
+        Assertions.assertNotNull(_bayeux.getChannel("/state"));
+
+        channel.setRetainedMaxAge(0);
+        _bayeux.sweep();
+        Assertions.assertTrue(channel.getRetainedMessages().isEmpty());
+        Assertions.assertEquals(0, _bayeux.getRetainedBytes());
+        for (int i = 0; i < 3; ++i) {
+            _bayeux.sweep();
+        }
+        Assertions.assertNull(_bayeux.getChannel("/state"));
+    }
+
+    private ServerChannelImpl newChannel(String channelName) {
+        return (ServerChannelImpl)_bayeux.createChannelIfAbsent(channelName).getReference();
+    }
+
+    private List<ServerMessage> subscribe(String channelName) {
+        List<ServerMessage> messages = new ArrayList<>();
+        LocalSession session = _bayeux.newLocalSession("retained");
+        session.handshake();
+        session.getServerSession().addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                messages.add(message);
+                return true;
+            }
+        });
+        session.getChannel(channelName).subscribe((channel, message) -> {});
+        return messages;
+    }
+
+    private Map<String, Object> quote(String symbol, int price) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("symbol", symbol);
+        data.put("price", price);
+        return data;
+    }
+
+    private List<Object> data(List<ServerMessage> messages) {
+        return messages.stream()
+                .map(ServerMessage::getData)
+                .collect(Collectors.toList());
+    }
+}
@@ -15,8 +15,11 @@
  */
 package org.cometd.server;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.cometd.bayeux.MarkedReference;
 import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.BayeuxServer;
@@ -296,6 +299,125 @@ public class ServerChannelTest {
         Assertions.assertEquals("StarStar", session0.getQueue().poll().getData());
     }
 
+    @Test
+    public void testPublishToSessionSubscribedToMultipleMatchingChannels() {
+        ServerChannelImpl foobar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerChannelImpl foostar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+        ServerChannelImpl foostarstar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/**").getReference();
+        ServerChannelImpl starstar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/**").getReference();
+
+        ServerSessionImpl session0 = newServerSession();
+        foobar.subscribe(session0);
+        foostar.subscribe(session0);
+        foostarstar.subscribe(session0);
+        starstar.subscribe(session0);
+        ServerSessionImpl session1 = newServerSession();
+        foostarstar.subscribe(session1);
+        starstar.subscribe(session1);
+        ServerSessionImpl session2 = newServerSession();
+        foobar.subscribe(session2);
+        starstar.subscribe(session2);
+
+        ServerMessage.Mutable msg = _bayeux.newMessage();
+        msg.setData("Hello World");
+        foobar.publish(null, msg, Promise.noop());
+
+        Assertions.assertEquals(1, session0.getQueue().size());
+        Assertions.assertEquals(1, session1.getQueue().size());
+        Assertions.assertEquals(1, session2.getQueue().size());
+
+        // The publisher does not receive its own message, even if subscribed multiple times.
+        foobar.setBroadcastToPublisher(false);
+        foobar.publish(session0, _bayeux.newMessage(msg), Promise.noop());
+
+        Assertions.assertEquals(1, session0.getQueue().size());
+        Assertions.assertEquals(2, session1.getQueue().size());
+        Assertions.assertEquals(2, session2.getQueue().size());
+    }
+
+    @Test
+    public void testSubscriptionChangesDuringPublishDoNotLoseOrDuplicateMessages() {
+        ServerChannelImpl foobar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerChannelImpl foostar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+
+        // The subscription to the wild channel happens while the
+        // message is being delivered to the wild channel subscribers.
+        ServerSessionImpl session0 = newServerSession();
+        foobar.subscribe(session0);
+        ServerSessionImpl session1 = newServerSession();
+        ServerSession.MessageListener subscriber = new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                foostar.subscribe(session0);
+                return true;
+            }
+        };
+        session1.addListener(subscriber);
+        foostar.subscribe(session1);
+
+        foobar.publish(null, _bayeux.newMessage(), Promise.noop());
+
+        Assertions.assertEquals(1, session0.getQueue().size());
+        Assertions.assertEquals(1, session1.getQueue().size());
+
+        // The unsubscription from the wild channel happens while
+        // the message is being delivered to the wild channel subscribers.
+        session0.getQueue().clear();
+        session1.getQueue().clear();
+        session1.removeListener(subscriber);
+        session1.addListener(new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                foostar.unsubscribe(session0);
+                return true;
+            }
+        });
+
+        foobar.publish(null, _bayeux.newMessage(), Promise.noop());
+
+        Assertions.assertEquals(1, session0.getQueue().size());
+        Assertions.assertEquals(1, session1.getQueue().size());
+    }
+
+    @Test
+    public void testPublishFromListenerDuringFanOutDoesNotLoseOrDuplicateMessages() {
+        ServerChannelImpl foobar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerChannelImpl foobaz = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/baz").getReference();
+        ServerChannelImpl foostar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+        ServerChannelImpl foostarstar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/**").getReference();
+
+        // Subscribed to all the channels, must receive each message once.
+        List<ServerSessionImpl> sessions = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            ServerSessionImpl session = newServerSession();
+            foobar.subscribe(session);
+            foobaz.subscribe(session);
+            foostar.subscribe(session);
+            foostarstar.subscribe(session);
+            sessions.add(session);
+        }
+        // The first message received by any session triggers a nested
+        // publish, while the outer fan-out is still in progress.
+        AtomicBoolean nested = new AtomicBoolean();
+        ServerSession.MessageListener listener = new ServerSession.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+                if (nested.compareAndSet(false, true)) {
+                    foobaz.publish(null, _bayeux.newMessage(), Promise.noop());
+                }
+                return true;
+            }
+        };
+        sessions.forEach(session -> session.addListener(listener));
+
+        foobar.publish(null, _bayeux.newMessage(), Promise.noop());
+
+        Assertions.assertTrue(nested.get());
+        for (ServerSessionImpl session : sessions) {
+            Assertions.assertEquals(2, session.getQueue().size());
+        }
+    }
+
     @Test
     public void testPublishFromSweptChannelSucceeds() throws Exception {
         _bayeux.start();
@@ -19,6 +19,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.server.ServerMessage;
@@ -37,6 +38,23 @@ public class ServerMessageImplTest {
         Assertions.assertEquals("/foo/bar", message.values().iterator().next());
     }
 
+    @Test
+    public void testFrozenJSONBytes() {
+        ServerMessageImpl message = new ServerMessageImpl();
+        message.setChannel("/foo/bar");
+        message.setData("\u20AC");
+        Assertions.assertNull(message.getJSONBytes());
+
+        String json = new JettyJSONContextServer().generate(message);
+        message.freeze(json);
+
+        byte[] bytes = message.getJSONBytes();
+        Assertions.assertArrayEquals(json.getBytes(StandardCharsets.UTF_8), bytes);
+        // The bytes are cached.
+        Assertions.assertSame(bytes, message.getJSONBytes());
+        Assertions.assertSame(json, message.getJSON());
+    }
+
     @Test
     public void testFrozenBehavior() throws Exception {
         String originalJSON = "{" +
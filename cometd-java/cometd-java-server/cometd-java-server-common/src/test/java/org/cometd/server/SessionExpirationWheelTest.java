@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SessionExpirationWheelTest {
+    private final long sweepPeriod = 50;
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.setOption(BayeuxServerImpl.SESSION_EXPIRATION_WHEEL_OPTION, true);
+        _bayeux.setOption(BayeuxServerImpl.SWEEP_PERIOD_OPTION, sweepPeriod);
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testExpiredSessionsAreSwept() throws Exception {
+        long maxInterval = 2 * sweepPeriod;
+        List<ServerSessionImpl> expiring = new ArrayList<>();
+        List<ServerSessionImpl> alive = new ArrayList<>();
+        for (int i = 0; i < 32; ++i) {
+            ServerSessionImpl session = newServerSession();
+            if (i % 2 == 0) {
+                session.scheduleExpiration(0, maxInterval, 0);
+                expiring.add(session);
+            } else {
+                session.scheduleExpiration(0, TimeUnit.MINUTES.toMillis(1), 0);
+                alive.add(session);
+            }
+        }
+
+        Thread.sleep(maxInterval + 3 * sweepPeriod);
+        _bayeux.sweep();
+
+        for (ServerSessionImpl session : expiring) {
+            Assertions.assertNull(_bayeux.getSession(session.getId()));
+        }
+        for (ServerSessionImpl session : alive) {
+            Assertions.assertNotNull(_bayeux.getSession(session.getId()));
+        }
+    }
+
+    @Test
+    public void testRescheduledSessionIsNotSwept() throws Exception {
+        long maxInterval = 2 * sweepPeriod;
+        ServerSessionImpl session = newServerSession();
+        session.scheduleExpiration(0, maxInterval, 0);
+        // The session sends a /meta/connect that is held by the server.
+        session.cancelExpiration(true);
+
+        Thread.sleep(maxInterval + 3 * sweepPeriod);
+        _bayeux.sweep();
+
+        Assertions.assertNotNull(_bayeux.getSession(session.getId()));
+        Assertions.assertEquals(-1, session.getExpirationBucket());
+
+        // The /meta/connect returns, the session is tracked again.
+        session.scheduleExpiration(0, maxInterval, 0);
+        Assertions.assertNotEquals(-1, session.getExpirationBucket());
+
+        // A session that is removed is not tracked anymore.
+        _bayeux.removeServerSession(session, false);
+        Assertions.assertEquals(-1, session.getExpirationBucket());
+    }
+
+    @Test
+    public void testSessionMovedBackDuringSweepIsNotLost() {
+        long tick = 10;
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+        int size = 8;
+        SessionExpirationWheel wheel = new SessionExpirationWheel(tick, size);
+        long now = System.nanoTime() + 2 * tickNanos;
+        // Filed in the bucket of the tick of now.
+        long deadline = now - tickNanos;
+        // Filed in another bucket.
+        long otherDeadline = now + 2 * tickNanos;
+
+        AtomicBoolean move = new AtomicBoolean();
+        AtomicInteger sweeps = new AtomicInteger();
+        ServerSessionImpl session = new ServerSessionImpl(_bayeux) {
+            @Override
+            int getExpirationBucket() {
+                if (move.compareAndSet(true, false)) {
+                    // Simulate the session being moved to another bucket
+                    // while the sweep reads its bucket, and moved back
+                    // right after the sweep has read the other bucket.
+                    synchronized (getLock()) {
+                        wheel.schedule(this, otherDeadline);
+                    }
+                    int other = super.getExpirationBucket();
+                    synchronized (getLock()) {
+                        wheel.schedule(this, deadline);
+                    }
+                    return other;
+                }
+                return super.getExpirationBucket();
+            }
+
+            @Override
+            protected void sweep(long time) {
+                sweeps.incrementAndGet();
+            }
+        };
+        synchronized (session.getLock()) {
+            wheel.schedule(session, deadline);
+        }
+
+        move.set(true);
+        wheel.sweep(now);
+        Assertions.assertEquals(1, sweeps.get());
+
+        // The session must still be in its bucket one revolution later.
+        Assertions.assertEquals(1, wheel.sweep(now + size * tickNanos));
+        Assertions.assertEquals(2, sweeps.get());
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.cometd.bayeux.server.LocalSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SessionIdGeneratorTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() {
+        _bayeux = new BayeuxServerImpl();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testDefaultGeneratorIdsAreUniqueAcrossThreads() throws Exception {
+        SessionIdGenerator generator = new SecureSessionIdGenerator();
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        int threads = 8;
+        int count = 10_000;
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t) {
+            new Thread(() -> {
+                for (int i = 0; i < count; ++i) {
+                    ids.add(generator.newSessionId(null));
+                }
+                latch.countDown();
+            }).start();
+        }
+        Assertions.assertTrue(latch.await(15, TimeUnit.SECONDS));
+        Assertions.assertEquals(threads * count, ids.size());
+    }
+
+    @Test
+    public void testDefaultGeneratorWithIdHint() {
+        String id = new SecureSessionIdGenerator().newSessionId("hint");
+        Assertions.assertTrue(id.startsWith("hint_"));
+        Assertions.assertTrue(id.length() >= "hint_".length() + 20);
+    }
+
+    @Test
+    public void testCustomGenerator() throws Exception {
+        AtomicLong counter = new AtomicLong();
+        _bayeux.setSessionIdGenerator(idHint -> (idHint == null ? "" : idHint + "_") + "custom" + counter.incrementAndGet());
+        _bayeux.start();
+
+        Assertions.assertEquals("custom1", _bayeux.newServerSession().getId());
+
+        LocalSession session = _bayeux.newLocalSession("local");
+        session.handshake();
+        Assertions.assertEquals("local_custom2", session.getId());
+    }
+}
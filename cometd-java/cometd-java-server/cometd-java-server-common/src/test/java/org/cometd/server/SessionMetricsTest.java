@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SessionMetricsTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testMetricsDisabledByDefault() throws Exception {
+        _bayeux.start();
+
+        ServerSessionImpl session = newServerSession();
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/disabled").getReference();
+        channel.subscribe(session);
+        channel.publish(null, "data", Promise.noop());
+
+        Assertions.assertEquals(1, session.getQueueSize());
+        Assertions.assertEquals(0, session.getQueueHighWaterMark());
+        session.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(0, session.getLastFlushTime());
+    }
+
+    @Test
+    public void testQueueMetrics() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.SESSION_METRICS_OPTION, true);
+        _bayeux.start();
+
+        ServerSessionImpl session = newServerSession();
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/metrics").getReference();
+        channel.subscribe(session);
+        int count = 5;
+        for (int i = 0; i < count; ++i) {
+            channel.publish(null, "data", Promise.noop());
+        }
+
+        Assertions.assertEquals(count, session.getQueueSize());
+        Assertions.assertEquals(count, session.getQueueHighWaterMark());
+        Assertions.assertTrue(session.getQueueBytes() > count * "data".length());
+
+        long delay = 100;
+        Thread.sleep(delay);
+        long before = System.currentTimeMillis();
+        Assertions.assertEquals(count, session.takeQueue(Collections.emptyList()).size());
+
+        Assertions.assertEquals(0, session.getQueueSize());
+        Assertions.assertEquals(0, session.getQueueBytes());
+        Assertions.assertEquals(count, session.getQueueHighWaterMark());
+        Assertions.assertTrue(session.getLastFlushTime() >= before);
+        Assertions.assertTrue(session.getLastQueueLatency() >= TimeUnit.MILLISECONDS.toNanos(delay));
+        Assertions.assertEquals(session.getLastQueueLatency(), session.getMaxQueueLatency());
+
+        // A message queued after the flush has its own latency.
+        channel.publish(null, "data", Promise.noop());
+        session.takeQueue(Collections.emptyList());
+        Assertions.assertTrue(session.getLastQueueLatency() < session.getMaxQueueLatency());
+    }
+
+    @Test
+    public void testBacklogSessions() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.SESSION_METRICS_OPTION, true);
+        _bayeux.start();
+
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/backlog").getReference();
+        ServerSessionImpl[] sessions = new ServerSessionImpl[5];
+        for (int i = 0; i < sessions.length; ++i) {
+            sessions[i] = newServerSession();
+            // Each session receives i + 1 messages.
+            for (int j = 0; j <= i; ++j) {
+                sessions[i].deliver(null, channel.getId(), "data", Promise.noop());
+            }
+        }
+        // Sessions with an empty queue are not reported.
+        newServerSession();
+
+        Map<String, Map<String, Object>> backlog = _bayeux.getBacklogSessions(2);
+        Assertions.assertEquals(Arrays.asList(sessions[4].getId(), sessions[3].getId()), new ArrayList<>(backlog.keySet()));
+        Map<String, Object> metrics = backlog.get(sessions[4].getId());
+        Assertions.assertEquals(5, metrics.get("queueSize"));
+        Assertions.assertEquals(5, metrics.get("queueHighWaterMark"));
+        Assertions.assertEquals(sessions.length, _bayeux.getBacklogSessions(100).size());
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
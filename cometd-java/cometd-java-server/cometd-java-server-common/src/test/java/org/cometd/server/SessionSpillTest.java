@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SessionSpillTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testSpilledMessagesAreRestoredInOrder() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_THRESHOLD_OPTION, 2);
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_SEGMENT_SIZE_OPTION, 128);
+        // Room for one off-heap segment only, the others are on the heap.
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_MAX_BYTES_OPTION, 128);
+        _bayeux.start();
+        ServerSessionImpl session = newServerSession();
+
+        List<ServerMessage.Mutable> messages = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            ServerMessage.Mutable message = _bayeux.newMessage();
+            message.setChannel("/foo");
+            message.setData("data" + i);
+            message.setLazy(i % 2 == 0);
+            messages.add(message);
+            session.deliver(null, message, Promise.noop());
+        }
+
+        Assertions.assertEquals(8, session.getSpilledMessages());
+        Assertions.assertTrue(_bayeux.getSessionSpillBytes() > 0);
+        Assertions.assertEquals(128, _bayeux.getSessionSpillDirectBytes());
+
+        List<ServerMessage> queue = session.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(messages.size(), queue.size());
+        for (int i = 0; i < messages.size(); ++i) {
+            ServerMessageImpl expected = (ServerMessageImpl)messages.get(i);
+            ServerMessageImpl actual = (ServerMessageImpl)queue.get(i);
+            Assertions.assertEquals(expected.getData(), actual.getData());
+            Assertions.assertEquals(expected.getJSON(), actual.getJSON());
+            Assertions.assertEquals(expected.isLazy(), actual.isLazy());
+        }
+        Assertions.assertEquals(0, session.getSpilledMessages());
+        Assertions.assertEquals(0, _bayeux.getSessionSpillBytes());
+    }
+
+    @Test
+    public void testDropOldestWithSpilledMessages() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_THRESHOLD_OPTION, 2);
+        _bayeux.setOption(BayeuxServerImpl.QUEUE_OVERFLOW_POLICY_OPTION, "drop-oldest");
+        _bayeux.setOption(AbstractServerTransport.MAX_QUEUE_OPTION, 4);
+        _bayeux.start();
+        ServerSessionImpl session = _bayeux.newServerSession();
+        ServerMessageImpl handshake = (ServerMessageImpl)_bayeux.newMessage();
+        handshake.setServerTransport(_bayeux.getTransport(_bayeux.getAllowedTransports().get(0)));
+        _bayeux.addServerSession(session, handshake);
+        session.handshake(handshake);
+        session.connected();
+
+        for (int i = 0; i < 8; ++i) {
+            session.deliver(null, "/foo", "data" + i, Promise.noop());
+        }
+
+        List<Object> data = new ArrayList<>();
+        session.takeQueue(Collections.emptyList()).forEach(message -> data.add(message.getData()));
+        Assertions.assertEquals(Arrays.asList("data4", "data5", "data6", "data7"), data);
+    }
+
+    @Test
+    public void testStalledSessionsDoNotRetainMessagesOnHeap() throws Exception {
+        int threshold = 4;
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_THRESHOLD_OPTION, threshold);
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_SEGMENT_SIZE_OPTION, 2048);
+        _bayeux.start();
+
+        String channelName = "/stalled";
+        ServerChannel channel = _bayeux.createChannelIfAbsent(channelName).getReference();
+        List<WeakReference<ServerMessage>> published = new ArrayList<>();
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession sender, ServerChannel channel, ServerMessage.Mutable message) {
+                published.add(new WeakReference<>(message));
+                return true;
+            }
+        });
+
+        int sessionCount = 10_000;
+        List<ServerSessionImpl> sessions = new ArrayList<>(sessionCount);
+        for (int i = 0; i < sessionCount; ++i) {
+            ServerSessionImpl session = newServerSession();
+            channel.subscribe(session);
+            sessions.add(session);
+        }
+
+        int messageCount = 20;
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 10; ++i) {
+            payload.append("0123456789");
+        }
+        for (int i = 0; i < messageCount; ++i) {
+            channel.publish(null, payload.toString() + i, Promise.noop());
+        }
+
+        for (ServerSessionImpl session : sessions) {
+            Assertions.assertEquals(messageCount - threshold, session.getSpilledMessages());
+        }
+        Assertions.assertTrue(_bayeux.getSessionSpillDirectBytes() > 0);
+
+        // The spilled messages are not referenced by the sessions anymore.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (published.stream().skip(threshold).anyMatch(reference -> reference.get() != null) && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < messageCount; ++i) {
+            Assertions.assertEquals(i < threshold, published.get(i).get() != null, "message " + i);
+        }
+
+        for (ServerSessionImpl session : sessions) {
+            List<ServerMessage> queue = session.takeQueue(Collections.emptyList());
+            Assertions.assertEquals(messageCount, queue.size());
+            Assertions.assertEquals(payload.toString() + (messageCount - 1), queue.get(messageCount - 1).getData());
+        }
+        Assertions.assertEquals(0, _bayeux.getSessionSpillBytes());
+    }
+
+    @Test
+    public void testQueueBytesWithSpilledMessages() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_THRESHOLD_OPTION, 2);
+        _bayeux.setOption(BayeuxServerImpl.QUEUE_OVERFLOW_POLICY_OPTION, "drop-oldest");
+        _bayeux.setOption(AbstractServerTransport.MAX_QUEUE_OPTION, 4);
+        _bayeux.start();
+        ServerSessionImpl session = _bayeux.newServerSession();
+        ServerMessageImpl handshake = (ServerMessageImpl)_bayeux.newMessage();
+        handshake.setServerTransport(_bayeux.getTransport(_bayeux.getAllowedTransports().get(0)));
+        _bayeux.addServerSession(session, handshake);
+        session.handshake(handshake);
+        session.connected();
+
+        List<ServerMessageImpl> messages = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            ServerMessage.Mutable message = _bayeux.newMessage();
+            message.setChannel("/foo");
+            // Non-ASCII data, so that the UTF-8 length differs from the string length.
+            message.setData("données €" + i);
+            session.deliver(null, message, Promise.noop());
+            messages.add((ServerMessageImpl)message);
+        }
+
+        // Both in-memory and spilled messages have been dropped.
+        long expected = 0;
+        for (ServerMessageImpl message : messages.subList(4, 8)) {
+            expected += message.getJSONBytes().length;
+        }
+        Assertions.assertEquals(expected, session.getQueueBytes());
+    }
+
+    @Test
+    public void testRestoredMessagesAreConflated() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_THRESHOLD_OPTION, 1);
+        _bayeux.start();
+        _bayeux.createChannelIfAbsent("/quotes", channel -> ((ServerChannelImpl)channel).setConflationKey("symbol"));
+        ServerSessionImpl session = newServerSession();
+
+        session.deliver(null, "/quotes", Collections.singletonMap("symbol", "A"), Promise.noop());
+        session.deliver(null, "/quotes", Collections.singletonMap("symbol", "B"), Promise.noop());
+        Assertions.assertEquals(1, session.getSpilledMessages());
+        // Restore the spilled message.
+        Assertions.assertEquals(2, session.getQueue().size());
+
+        session.deliver(null, "/quotes", Collections.singletonMap("symbol", "B"), Promise.noop());
+        Assertions.assertEquals(1, session.getConflatedMessages());
+        Assertions.assertEquals(2, session.takeQueue(Collections.emptyList()).size());
+    }
+
+    @Test
+    public void testSpilledMessagesKeepLatencyTrace() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_THRESHOLD_OPTION, 1);
+        _bayeux.start();
+        SpillBuffer spill = _bayeux.newSpillBuffer();
+
+        ServerMessageImpl traced = newFrozenMessage("traced");
+        LatencyMetrics.Trace trace = new LatencyMetrics.Trace(System.nanoTime());
+        traced.setTrace(trace);
+        spill.offer(newFrozenMessage("untraced"));
+        spill.offer(traced);
+
+        Assertions.assertNull(spill.take().getTrace());
+        Assertions.assertSame(trace, spill.take().getTrace());
+        Assertions.assertNull(spill.take());
+    }
+
+    @Test
+    public void testUnparseableSpilledMessageIsDropped() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.SESSION_SPILL_THRESHOLD_OPTION, 1);
+        _bayeux.start();
+        ServerSessionImpl session = newServerSession();
+
+        ServerMessageImpl first = newFrozenMessage("first");
+        session.addMessage(first);
+        ServerMessageImpl invalid = (ServerMessageImpl)_bayeux.newMessage();
+        invalid.freeze("{\"channel\":");
+        session.addMessage(invalid);
+        ServerMessageImpl last = newFrozenMessage("last");
+        session.addMessage(last);
+        Assertions.assertEquals(2, session.getSpilledMessages());
+
+        List<ServerMessage> queue = session.takeQueue(Collections.emptyList());
+        Assertions.assertEquals(Arrays.asList("first", "last"), Arrays.asList(queue.get(0).getData(), queue.get(1).getData()));
+        Assertions.assertEquals(1, session.getDroppedMessages());
+    }
+
+    private ServerMessageImpl newFrozenMessage(Object data) {
+        ServerMessageImpl message = (ServerMessageImpl)_bayeux.newMessage();
+        message.setChannel("/foo");
+        message.setData(data);
+        _bayeux.freeze(message);
+        return message;
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TimingWheelSchedulerTest {
+    private TimingWheelScheduler _scheduler;
+
+    private void start(long tick, int wheelSize) throws Exception {
+        _scheduler = new TimingWheelScheduler("test-scheduler", true, tick, wheelSize);
+        _scheduler.start();
+    }
+
+    @AfterEach
+    public void dispose() throws Exception {
+        if (_scheduler != null) {
+            _scheduler.stop();
+        }
+    }
+
+    @Test
+    public void testTaskRunsNotBeforeDelay() throws Exception {
+        start(10, 64);
+
+        long delay = 200;
+        long begin = System.nanoTime();
+        AtomicInteger elapsed = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        _scheduler.schedule(() -> {
+            elapsed.set((int)TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+            latch.countDown();
+        }, delay, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(elapsed.get() >= delay);
+    }
+
+    @Test
+    public void testTaskLongerThanWheelRevolution() throws Exception {
+        // A revolution of the wheel is 40 ms.
+        start(10, 4);
+
+        long delay = 250;
+        long begin = System.nanoTime();
+        AtomicInteger elapsed = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        _scheduler.schedule(() -> {
+            elapsed.set((int)TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+            latch.countDown();
+        }, delay, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(elapsed.get() >= delay);
+    }
+
+    @Test
+    public void testCancelledTaskDoesNotRun() throws Exception {
+        start(10, 16);
+
+        int count = 1000;
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(count / 2);
+        for (int i = 0; i < count; ++i) {
+            Scheduler.Task task = _scheduler.schedule(() -> {
+                runs.incrementAndGet();
+                latch.countDown();
+            }, 100 + i % 100, TimeUnit.MILLISECONDS);
+            if (i % 2 == 0) {
+                Assertions.assertTrue(task.cancel());
+                // Cancelling twice returns false.
+                Assertions.assertFalse(task.cancel());
+            }
+        }
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        // Wait for other tasks to possibly run.
+        Thread.sleep(500);
+        Assertions.assertEquals(count / 2, runs.get());
+    }
+
+    @Test
+    public void testExpiredTaskCannotBeCancelled() throws Exception {
+        start(10, 16);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        Scheduler.Task task = _scheduler.schedule(latch::countDown, 0, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(task.cancel());
+    }
+
+    @Test
+    public void testBayeuxServerWithTimingWheelScheduler() throws Exception {
+        start(10, 64);
+
+        BayeuxServerImpl bayeux = new BayeuxServerImpl();
+        bayeux.setScheduler(_scheduler);
+        bayeux.start();
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            bayeux.schedule(latch::countDown, 50);
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            bayeux.stop();
+        }
+        // The scheduler is not owned by the BayeuxServer.
+        Assertions.assertTrue(_scheduler.isRunning());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TransparentSessionExtensionTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testTransparentExtensionNotInvokedForBroadcast() {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo").getReference();
+        AtomicInteger sends = new AtomicInteger();
+        List<ServerSessionImpl> sessions = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            ServerSessionImpl session = newServerSession();
+            session.addExtension(new CountingExtension(sends));
+            channel.subscribe(session);
+            sessions.add(session);
+        }
+
+        channel.publish(null, "data", Promise.noop());
+
+        Assertions.assertEquals(0, sends.get());
+        ServerMessage message1 = sessions.get(0).getQueue().peek();
+        ServerMessage message2 = sessions.get(1).getQueue().peek();
+        Assertions.assertNotNull(message1);
+        // The same frozen message is queued to all the subscribers.
+        Assertions.assertSame(message1, message2);
+        Assertions.assertNotNull(((ServerMessageImpl)message1).getJSON());
+    }
+
+    @Test
+    public void testTransparentExtensionSkippedWithOpaqueExtension() {
+        ServerChannelImpl channel = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo").getReference();
+        AtomicInteger transparentSends = new AtomicInteger();
+        AtomicInteger opaqueSends = new AtomicInteger();
+        ServerSessionImpl session = newServerSession();
+        session.addExtension(new CountingExtension(transparentSends));
+        ServerSession.Extension opaque = new ServerSession.Extension() {
+            @Override
+            public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+                opaqueSends.incrementAndGet();
+                return message;
+            }
+        };
+        session.addExtension(opaque);
+        channel.subscribe(session);
+
+        channel.publish(null, "data1", Promise.noop());
+
+        Assertions.assertEquals(0, transparentSends.get());
+        Assertions.assertEquals(1, opaqueSends.get());
+        Assertions.assertEquals(1, session.getQueue().size());
+
+        // After removing the opaque extension, the chain is not walked anymore.
+        session.removeExtension(opaque);
+        channel.publish(null, "data2", Promise.noop());
+
+        Assertions.assertEquals(0, transparentSends.get());
+        Assertions.assertEquals(1, opaqueSends.get());
+        Assertions.assertEquals(2, session.getQueue().size());
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+
+    private static class CountingExtension implements ServerSession.Extension.Transparent {
+        private final AtomicInteger sends;
+
+        private CountingExtension(AtomicInteger sends) {
+            this.sends = sends;
+        }
+
+        @Override
+        public ServerMessage send(ServerSession sender, ServerSession session, ServerMessage message) {
+            sends.incrementAndGet();
+            return message;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class WildChannelTrieTest {
+    private BayeuxServerImpl _bayeux;
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux = new BayeuxServerImpl();
+        _bayeux.setOption(BayeuxServerImpl.WILDCARD_INDEX_OPTION, true);
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testMatchHasSameOrderAsWilds() {
+        WildChannelTrie trie = new WildChannelTrie();
+        List<String> wilds = Arrays.asList("/*", "/**", "/a/*", "/a/**", "/a/b/*", "/a/b/**", "/a/b/c/*", "/x/**");
+        for (String wild : wilds) {
+            trie.add(newChannel(wild));
+        }
+
+        for (String channel : Arrays.asList("/a", "/a/b", "/a/b/c", "/a/b/c/d", "/x/y/z", "/y")) {
+            ChannelId channelId = new ChannelId(channel);
+            List<String> expected = channelId.getWilds().stream()
+                    .filter(wilds::contains)
+                    .collect(Collectors.toList());
+            List<String> actual = trie.match(channelId).stream()
+                    .map(ServerChannelImpl::getId)
+                    .collect(Collectors.toList());
+            Assertions.assertEquals(expected, actual, channel);
+        }
+    }
+
+    @Test
+    public void testRemovePrunesTrie() {
+        WildChannelTrie trie = new WildChannelTrie();
+        ServerChannelImpl deep = newChannel("/a/b/c/**");
+        ServerChannelImpl shallow = newChannel("/a/*");
+        trie.add(deep);
+        trie.add(shallow);
+
+        Assertions.assertEquals(1, trie.match(new ChannelId("/a/b/c/d")).size());
+
+        trie.remove(deep);
+        Assertions.assertTrue(trie.match(new ChannelId("/a/b/c/d")).isEmpty());
+        Assertions.assertEquals(1, trie.match(new ChannelId("/a/b")).size());
+
+        // Removing a different instance with the same id is a no-operation.
+        trie.remove(newChannel("/a/*"));
+        Assertions.assertEquals(1, trie.match(new ChannelId("/a/b")).size());
+
+        trie.remove(shallow);
+        Assertions.assertTrue(trie.match(new ChannelId("/a/b")).isEmpty());
+    }
+
+    @Test
+    public void testPublishWithWildcardIndex() {
+        ServerChannelImpl fooBar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar").getReference();
+        ServerChannelImpl fooStar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/*").getReference();
+        ServerChannelImpl fooStarStar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/**").getReference();
+        ServerChannelImpl starStar = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/**").getReference();
+
+        ServerSessionImpl session0 = newServerSession();
+        fooBar.subscribe(session0);
+        ServerSessionImpl session1 = newServerSession();
+        fooStar.subscribe(session1);
+        // Subscribed to both wild channels, must receive the message only once.
+        fooStarStar.subscribe(session1);
+        ServerSessionImpl session2 = newServerSession();
+        starStar.subscribe(session2);
+        // Subscribed to both the channel and a wild channel.
+        fooBar.subscribe(session2);
+
+        ServerMessage.Mutable message = _bayeux.newMessage();
+        message.setData("data");
+        fooBar.publish(null, message, Promise.noop());
+
+        Assertions.assertEquals(1, session0.getQueue().size());
+        Assertions.assertEquals(1, session1.getQueue().size());
+        Assertions.assertEquals(1, session2.getQueue().size());
+
+        ServerChannelImpl fooBarBaz = (ServerChannelImpl)_bayeux.createChannelIfAbsent("/foo/bar/baz").getReference();
+        fooBarBaz.publish(null, _bayeux.newMessage(message), Promise.noop());
+
+        Assertions.assertEquals(1, session0.getQueue().size());
+        Assertions.assertEquals(2, session1.getQueue().size());
+        Assertions.assertEquals(2, session2.getQueue().size());
+
+        // Removed wild channels must not receive messages.
+        fooStarStar.unsubscribe(session1);
+        fooStarStar.remove();
+        fooBarBaz.publish(null, _bayeux.newMessage(message), Promise.noop());
+
+        Assertions.assertEquals(1, session0.getQueue().size());
+        Assertions.assertEquals(2, session1.getQueue().size());
+        Assertions.assertEquals(3, session2.getQueue().size());
+    }
+
+    private ServerChannelImpl newChannel(String channel) {
+        return new ServerChannelImpl(_bayeux, new ChannelId(channel));
+    }
+
+    private ServerSessionImpl newServerSession() {
+        ServerSessionImpl session = _bayeux.newServerSession();
+        _bayeux.addServerSession(session, _bayeux.newMessage());
+        session.handshake(null);
+        session.connected();
+        return session;
+    }
+}
@@ -16,6 +16,7 @@
 package org.cometd.server.ext;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Queue;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -99,4 +100,23 @@ public class BatchArrayQueueTest {
             Assertions.assertTrue(element.startsWith("B"));
         }
     }
+
+    @Test
+    public void test_Offer_Next_Offer_Replace() {
+        BatchArrayQueue<String> queue = new BatchArrayQueue<>(2, this);
+
+        queue.offer("A");
+        queue.nextBatch();
+        queue.offer("B");
+        queue.offer("C");
+
+        // Elements of previous batches cannot be replaced.
+        Assertions.assertFalse(queue.replace("A", "A1"));
+        Assertions.assertTrue(queue.replace("B", "B1"));
+        Assertions.assertFalse(queue.replace("D", "D1"));
+
+        Assertions.assertEquals(3, queue.size());
+        Assertions.assertEquals(Arrays.asList("A", "B1", "C"), Arrays.asList(queue.toArray()));
+        Assertions.assertEquals(queue.getBatch(), queue.batchOf(1));
+    }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.jfr;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.Instrumentation;
+
+/**
+ * <p>An {@link Instrumentation} that emits Java Flight Recorder events.</p>
+ * <p>The events are disabled by default, and are enabled by a recording
+ * configured with the {@code cometd.jfc} settings packaged in this module,
+ * or with custom settings for the events named {@code org.cometd.*}.
+ * When an event is disabled, the corresponding operation is not observed
+ * and its cost is that of checking whether the event is enabled.</p>
+ * <p>This instrumentation is configured on the server with:</p>
+ * <pre>{@code
+ * bayeuxServer.setInstrumentation(new JFRInstrumentation());
+ * }</pre>
+ * <p>or via the {@link BayeuxServerImpl#INSTRUMENTATION_OPTION} option.</p>
+ */
+public class JFRInstrumentation implements Instrumentation {
+    /**
+     * The path of the JFR settings file packaged in this module.
+     */
+    public static final String SETTINGS_RESOURCE = "/org/cometd/server/jfr/cometd.jfc";
+
+    private final Map<Operation, EventType> _types = new EnumMap<>(Operation.class);
+    private final Map<Operation, Supplier<CometDEvent>> _factories = new EnumMap<>(Operation.class);
+
+    public JFRInstrumentation() {
+        register(Operation.HANDSHAKE, HandshakeEvent.class, HandshakeEvent::new);
+        register(Operation.PUBLISH, PublishEvent.class, PublishEvent::new);
+        register(Operation.FAN_OUT, FanOutEvent.class, FanOutEvent::new);
+        register(Operation.ENQUEUE, EnqueueEvent.class, EnqueueEvent::new);
+        register(Operation.FLUSH, FlushEvent.class, FlushEvent::new);
+        register(Operation.LONG_POLL, LongPollEvent.class, LongPollEvent::new);
+        register(Operation.WEBSOCKET_WRITE, WebSocketWriteEvent.class, WebSocketWriteEvent::new);
+        register(Operation.OORT_FORWARD, OortForwardEvent.class, OortForwardEvent::new);
+        register(Operation.SETI_ROUTE, SetiRouteEvent.class, SetiRouteEvent::new);
+    }
+
+    private <E extends CometDEvent> void register(Operation operation, Class<E> eventClass, Supplier<CometDEvent> factory) {
+        _types.put(operation, EventType.getEventType(eventClass));
+        _factories.put(operation, factory);
+    }
+
+    @Override
+    public Probe begin(Operation operation) {
+        EventType type = _types.get(operation);
+        if (type == null || !type.isEnabled()) {
+            return null;
+        }
+        CometDEvent event = _factories.get(operation).get();
+        event.begin();
+        return event;
+    }
+
+    @Category({"CometD", "Server"})
+    @StackTrace(false)
+    @Enabled(false)
+    abstract static class CometDEvent extends Event implements Probe {
+        @Label("Session Id")
+        protected String sessionId;
+        @Label("Channel")
+        protected String channel;
+
+        @Override
+        public void end(String sessionId, String channel, long count) {
+            end();
+            if (shouldCommit()) {
+                this.sessionId = sessionId;
+                this.channel = channel;
+                count(count);
+                commit();
+            }
+        }
+
+        protected abstract void count(long count);
+    }
+
+    @Name("org.cometd.Handshake")
+    @Label("Handshake")
+    @Description("The processing of a handshake")
+    public static class HandshakeEvent extends CometDEvent {
+        @Label("Successful")
+        protected boolean successful;
+
+        @Override
+        protected void count(long count) {
+            successful = count > 0;
+        }
+    }
+
+    @Name("org.cometd.Publish")
+    @Label("Publish")
+    @Description("The processing of a message published to a non-meta channel")
+    @Threshold("1 ms")
+    public static class PublishEvent extends CometDEvent {
+        @Label("Published")
+        protected boolean published;
+
+        @Override
+        protected void count(long count) {
+            published = count > 0;
+        }
+    }
+
+    @Name("org.cometd.FanOut")
+    @Label("Fan-Out")
+    @Description("The delivery of a message to the subscribers' queues")
+    @Threshold("1 ms")
+    public static class FanOutEvent extends CometDEvent {
+        @Label("Subscribers")
+        protected long subscribers;
+
+        @Override
+        protected void count(long count) {
+            subscribers = count;
+        }
+    }
+
+    @Name("org.cometd.Enqueue")
+    @Label("Enqueue")
+    @Description("The queueing of a message to a session")
+    @Threshold("1 ms")
+    public static class EnqueueEvent extends CometDEvent {
+        @Label("Queued")
+        protected boolean queued;
+
+        @Override
+        protected void count(long count) {
+            queued = count > 0;
+        }
+    }
+
+    @Name("org.cometd.Flush")
+    @Label("Flush")
+    @Description("The removal of the queued messages of a session to write them")
+    @Threshold("1 ms")
+    public static class FlushEvent extends CometDEvent {
+        @Label("Messages")
+        protected long messages;
+
+        @Override
+        protected void count(long count) {
+            messages = count;
+        }
+    }
+
+    @Name("org.cometd.LongPoll")
+    @Label("Long Poll")
+    @Description("A long poll, from its suspension until its resumption")
+    public static class LongPollEvent extends CometDEvent {
+        @Label("Expired")
+        protected boolean expired;
+
+        @Override
+        protected void count(long count) {
+            expired = count > 0;
+        }
+    }
+
+    @Name("org.cometd.WebSocketWrite")
+    @Label("WebSocket Write")
+    @Description("The write of a WebSocket frame")
+    @Threshold("1 ms")
+    public static class WebSocketWriteEvent extends CometDEvent {
+        @Label("Frame Length")
+        @Description("The number of characters of the frame")
+        protected long length;
+
+        @Override
+        protected void count(long count) {
+            length = count;
+        }
+    }
+
+    @Name("org.cometd.OortForward")
+    @Label("Oort Forward")
+    @Description("The republication of a message received from another node of an Oort cloud")
+    @Threshold("1 ms")
+    public static class OortForwardEvent extends CometDEvent {
+        @Override
+        protected void count(long count) {
+        }
+    }
+
+    @Name("org.cometd.SetiRoute")
+    @Label("Seti Route")
+    @Description("The routing of a Seti message to the locations of a user, whose id is the session id of the event")
+    @Threshold("1 ms")
+    public static class SetiRouteEvent extends CometDEvent {
+        @Label("Locations")
+        protected long locations;
+
+        @Override
+        protected void count(long count) {
+            locations = count;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2008-2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.jfr;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.Instrumentation;
+import org.cometd.server.ServerSessionImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class JFRInstrumentationTest {
+    private final BayeuxServerImpl _bayeux = new BayeuxServerImpl();
+
+    @BeforeEach
+    public void init() throws Exception {
+        _bayeux.setOption(BayeuxServerImpl.INSTRUMENTATION_OPTION, JFRInstrumentation.class.getName());
+        _bayeux.start();
+    }
+
+    @AfterEach
+    public void destroy() throws Exception {
+        _bayeux.stop();
+    }
+
+    @Test
+    public void testEventsDisabledWithoutRecording() {
+        Instrumentation instrumentation = _bayeux.getInstrumentation();
+        Assertions.assertTrue(instrumentation instanceof JFRInstrumentation);
+        for (Instrumentation.Operation operation : Instrumentation.Operation.values()) {
+            Assertions.assertNull(instrumentation.begin(operation), operation.name());
+        }
+    }
+
+    @Test
+    public void testEventsRecorded() throws Exception {
+        ServerChannel channel = _bayeux.createChannelIfAbsent("/jfr").getReference();
+        int subscribers = 3;
+        for (int i = 0; i < subscribers; ++i) {
+            channel.subscribe(new ServerSession(_bayeux));
+        }
+
+        Path file = Files.createTempFile("cometd-", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                // Record all the events, regardless of their duration.
+                recording.enable("org.cometd.Publish").withThreshold(Duration.ZERO);
+                recording.enable("org.cometd.FanOut").withThreshold(Duration.ZERO);
+                recording.enable("org.cometd.Enqueue").withThreshold(Duration.ZERO);
+                recording.start();
+                channel.publish(null, "data", Promise.noop());
+                recording.stop();
+                recording.dump(file);
+            }
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().startsWith("org.cometd."))
+                    .collect(Collectors.toList());
+            Assertions.assertEquals(1, count(events, "org.cometd.Publish"));
+            Assertions.assertEquals(subscribers, count(events, "org.cometd.Enqueue"));
+            RecordedEvent fanOut = events.stream()
+                    .filter(event -> event.getEventType().getName().equals("org.cometd.FanOut"))
+                    .findFirst()
+                    .orElseThrow(AssertionError::new);
+            Assertions.assertEquals("/jfr", fanOut.getString("channel"));
+            Assertions.assertEquals(subscribers, fanOut.getLong("subscribers"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testPackagedSettings() throws Exception {
+        Configuration configuration;
+        try (Reader reader = new InputStreamReader(JFRInstrumentation.class.getResourceAsStream(JFRInstrumentation.SETTINGS_RESOURCE), StandardCharsets.UTF_8)) {
+            configuration = Configuration.create(reader);
+        }
+        Assertions.assertEquals("true", configuration.getSettings().get("org.cometd.Handshake#enabled"));
+
+        try (Recording recording = new Recording(configuration)) {
+            recording.start();
+            Assertions.assertNotNull(_bayeux.getInstrumentation().begin(Instrumentation.Operation.HANDSHAKE));
+        }
+    }
+
+    private static long count(List<RecordedEvent> events, String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals(name)).count();
+    }
+
+    private static class ServerSession extends ServerSessionImpl {
+        private ServerSession(BayeuxServerImpl bayeux) {
+            super(bayeux);
+            handshake(null);
+            connected();
+        }
+    }
+}
@@ -36,6 +36,7 @@ import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.common.AsyncFoldLeft;
 import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.Instrumentation;
 import org.cometd.server.ServerMessageImpl;
 import org.cometd.server.ServerSessionImpl;
 import org.eclipse.jetty.io.QuietException;
@@ -464,6 +465,9 @@ public abstract class AbstractWebSocketEndPoint {
         private Entry _entry;
         private int _messageIndex;
         private int _replyIndex;
+        private long _begin;
+        private Instrumentation.Probe _frameProbe;
+        private int _frameLength;
         private Throwable _failure;
 
         private boolean queue(Entry entry) {
@@ -494,6 +498,7 @@ public abstract class AbstractWebSocketEndPoint {
                         }
                         _state = State.HANDSHAKE;
                         _buffer = new StringBuilder(256);
+                        _begin = _transport.getBayeux().getLatencyMetrics() == null ? 0 : System.nanoTime();
                         break;
                     }
                     case HANDSHAKE: {
@@ -515,7 +520,7 @@ public abstract class AbstractWebSocketEndPoint {
                                 _buffer.append(toJSON(reply));
                                 _buffer.append("]");
                                 ++_replyIndex;
-                                AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+                                sendFrame(_buffer.toString());
                                 return Action.SCHEDULED;
                             }
                         }
@@ -544,7 +549,7 @@ public abstract class AbstractWebSocketEndPoint {
                                 ++_messageIndex;
                             }
                             _buffer.append("]");
-                            AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+                            sendFrame(_buffer.toString());
                             return Action.SCHEDULED;
                         }
                         // Start the interval timeout after writing the
@@ -574,7 +579,7 @@ public abstract class AbstractWebSocketEndPoint {
                                 ++_replyIndex;
                             }
                             _buffer.append("]");
-                            AbstractWebSocketEndPoint.this.send(_session, _buffer.toString(), this);
+                            sendFrame(_buffer.toString());
                             return Action.SCHEDULED;
                         }
                         _state = State.COMPLETE;
@@ -588,6 +593,9 @@ public abstract class AbstractWebSocketEndPoint {
                         _entry = null;
                         _messageIndex = 0;
                         _replyIndex = 0;
+                        if (_begin != 0) {
+                            _transport.getBayeux().messagesWritten(_transport, entry._queue, _begin);
+                        }
                         entry._promise.succeed(null);
                         break;
                     }
@@ -598,6 +606,33 @@ public abstract class AbstractWebSocketEndPoint {
             }
         }
 
+        private void sendFrame(String frame) {
+            _frameProbe = _transport.getBayeux().getInstrumentation().begin(Instrumentation.Operation.WEBSOCKET_WRITE);
+            _frameLength = frame.length();
+            AbstractWebSocketEndPoint.this.send(_session, frame, this);
+        }
+
+        private void frameWritten() {
+            Instrumentation.Probe probe = _frameProbe;
+            if (probe != null) {
+                _frameProbe = null;
+                ServerSessionImpl session = _entry == null ? null : _entry._context.session;
+                probe.end(session == null ? null : session.getId(), null, _frameLength);
+            }
+        }
+
+        @Override
+        public void succeeded() {
+            frameWritten();
+            super.succeeded();
+        }
+
+        @Override
+        public void failed(Throwable x) {
+            frameWritten();
+            super.failed(x);
+        }
+
         @Override
         protected void onCompleteFailure(Throwable x) {
             List<Entry> entries;